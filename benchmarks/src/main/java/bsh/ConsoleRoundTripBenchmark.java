@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import static bsh.InterpreterEvent.READY;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ste.bshell.BshNodeExecutor;
+import ste.bshell.JLineConsole;
+import ste.bshell.benchmarks.Terminals;
+
+/**
+ * The round trip of a statement in BshConsoleInterpreter: from the moment the
+ * line is handed to the interpreter (as consoleStart() does after reading it)
+ * to the moment the interpreter is ready for the next one, which includes
+ * parsing, the submission to the executor, the evaluation and the events
+ * sent to the console.
+ * <p>
+ * It lives in package bsh to wire the interpreter thread the way
+ * consoleStart() does without a real terminal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsoleRoundTripBenchmark {
+
+    /**
+     * One statement only, since the interpreter gets ready again after each
+     * statement
+     */
+    @Param({"a = 1;", "b = new java.util.ArrayList();", "Math.max(a, 2);"})
+    public String statement;
+
+    private BshConsoleInterpreter bsh;
+    private Thread thread;
+    private final Semaphore ready = new Semaphore(0);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bsh = new BshConsoleInterpreter();
+        bsh.setConsole(new JLineConsole(Terminals.reader(new ByteArrayInputStream(new byte[0]))) {
+            @Override
+            public void on(InterpreterEvent e) {
+                if (READY.equals(e.type)) {
+                    ready.release();
+                }
+            }
+        });
+        bsh.executor = new BshNodeExecutor(bsh);
+
+        thread = new Thread(bsh, "bshell-benchmark");
+        thread.setDaemon(true);
+        thread.start();
+
+        ready.acquire(); // the interpreter is waiting for the first statement
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        bsh.executor.shutdown();
+        thread.interrupt();
+    }
+
+    @Benchmark
+    public void roundTrip() throws Exception {
+        JLineConsole console = bsh.getConsole();
+        console.pipe.write(statement); console.pipe.write('\n'); console.pipe.flush();
+        ready.acquire();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.benchmarks;
+
+import bsh.CallStack;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CallStack operations on a stack of the given depth, as performed by the
+ * interpreter on each method invocation (push/pop), variable lookup through
+ * this.caller (get) and error reporting (copy), and a recursive script
+ * reaching the given depth, which exercises them all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallStackBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int depth;
+
+    private CallStack stack;
+    private NameSpace ns;
+    private Interpreter bsh;
+    private String recursion;
+
+    @Setup
+    public void setup() throws Exception {
+        bsh = new Interpreter();
+        bsh.eval("down(n) { if (n <= 1) { return this.caller.namespace; } return down(n-1); }");
+        recursion = "down(" + depth + ");";
+
+        ns = new NameSpace((NameSpace)null, "benchmark");
+        stack = new CallStack(ns);
+        for (int i=1; i<depth; ++i) {
+            stack.push(new NameSpace(ns, "level" + i));
+        }
+    }
+
+    @Benchmark
+    public NameSpace pushPop() {
+        stack.push(ns);
+        return stack.pop();
+    }
+
+    @Benchmark
+    public NameSpace top() {
+        return stack.top();
+    }
+
+    @Benchmark
+    public NameSpace getBottom() {
+        return stack.get(depth - 1);
+    }
+
+    @Benchmark
+    public CallStack copy() {
+        return stack.copy();
+    }
+
+    @Benchmark
+    public Object recursion() throws Exception {
+        return bsh.eval(recursion);
+    }
+
+    @Benchmark
+    public CallStack newCallStack() {
+        return new CallStack(ns);
+    }
+}
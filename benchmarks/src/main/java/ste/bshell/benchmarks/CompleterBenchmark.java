@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.benchmarks;
+
+import bsh.Interpreter;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jline.reader.Candidate;
+import org.jline.reader.LineReader;
+import org.jline.reader.ParsedLine;
+import org.jline.reader.impl.DefaultParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ste.bshell.BshCompleter;
+
+/**
+ * BshCompleter.complete() of variable names in a namespace of the given size,
+ * of class names in the class path and of the members of an object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompleterBenchmark {
+
+    @Param({"100", "10000"})
+    public int names;
+
+    @Param({"variable1", "java.util.Con", "list.s"})
+    public String line;
+
+    private BshCompleter completer;
+    private LineReader reader;
+    private ParsedLine parsed;
+
+    @Setup
+    public void setup() throws Exception {
+        Interpreter bsh = new Interpreter();
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<names; ++i) {
+            sb.append("variable").append(i).append(" = ").append(i).append(";\n");
+        }
+        sb.append("list = new java.util.ArrayList();\n");
+        bsh.eval(sb.toString());
+
+        completer = new BshCompleter(bsh);
+        reader = Terminals.reader(new ByteArrayInputStream(new byte[0]));
+        parsed = new DefaultParser().parse(line, line.length());
+    }
+
+    @Benchmark
+    public List<Candidate> complete() {
+        List<Candidate> candidates = new ArrayList<>();
+        completer.complete(reader, parsed, candidates);
+        return candidates;
+    }
+}
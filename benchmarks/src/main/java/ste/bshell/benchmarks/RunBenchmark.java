@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.benchmarks;
+
+import bsh.Interpreter;
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * run() of a small script, as done when running scripts in a loop: the cost
+ * is dominated by the per call setup (namespace, class manager, parsing)
+ * rather than by the evaluation of the script.
+ * <p>
+ * scriptedRun() is the same through the scripted run() BeanShell ships
+ * (run.bsh), which prunes the namespace to a new class manager and parses
+ * the script at each call, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RunBenchmark {
+
+    /**
+     * The body of run.bsh, under a different name
+     */
+    private static final String SCRIPTED_RUN =
+        "scriptedRun(String filename, Object runArgument) {\n" +
+        "    this.bsh = extend(global.bsh);\n" +
+        "    this.bsh.help = extend(bsh.help);\n" +
+        "    this.cp = this.caller.namespace.getClassManager()\n" +
+        "        .getClassPath().getUserClassPathComponents();\n" +
+        "    this.namespace.prune();\n" +
+        "    this.namespace.getClassManager().setClassPath(cp);\n" +
+        "    (new bsh.Utils()).source(this.interpreter, pathToFile(filename), this.namespace);\n" +
+        "    return this;\n" +
+        "}\n";
+
+    private Interpreter bsh;
+    private File script;
+    private String run, scriptedRun;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bsh = new Interpreter();
+        bsh.eval("importCommands(\"ste/bshell/commands\");");
+        script = File.createTempFile("bshell-benchmark", ".bsh");
+        try (PrintWriter out = new PrintWriter(script, StandardCharsets.UTF_8.name())) {
+            out.println("total = 0;");
+            out.println("for (i=0; i<10; ++i) { total += i; }");
+            out.println("result = \"total \" + total;");
+        }
+        String path = script.getAbsolutePath().replace("\\", "\\\\");
+        run = "run(\"" + path + "\");";
+
+        bsh.eval(SCRIPTED_RUN);
+        scriptedRun = "scriptedRun(\"" + path + "\", null);";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        script.delete();
+    }
+
+    @Benchmark
+    public Object run() throws Exception {
+        return bsh.eval(run);
+    }
+
+    @Benchmark
+    public Object scriptedRun() throws Exception {
+        return bsh.eval(scriptedRun);
+    }
+}
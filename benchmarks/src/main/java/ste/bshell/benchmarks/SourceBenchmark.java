@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.benchmarks;
+
+import bsh.Interpreter;
+import bsh.Utils;
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Utils.source() of a generated script of the given number of lines, made of
+ * assignments, method declarations and calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int lines;
+
+    private Interpreter bsh;
+    private File script;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bsh = new Interpreter();
+        script = File.createTempFile("bshell-benchmark", ".bsh");
+        try (PrintWriter out = new PrintWriter(script, StandardCharsets.UTF_8.name())) {
+            for (int i=0; i<lines; ++i) {
+                switch (i % 4) {
+                    case 0: out.println("v" + i + " = " + i + ";"); break;
+                    case 1: out.println("f" + i + "(x) { return x + " + i + "; }"); break;
+                    case 2: out.println("s = \"line " + i + "\" + f" + (i-1) + "(v" + (i-2) + ");"); break;
+                    default: out.println("// comment " + i);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        script.delete();
+    }
+
+    @Benchmark
+    public Object source() throws Exception {
+        return Utils.source(bsh, script, bsh.getNameSpace());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.benchmarks;
+
+import bsh.InterpreterEvent;
+import static bsh.InterpreterEvent.BUSY;
+import static bsh.InterpreterEvent.DONE;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ste.bshell.JLineConsole;
+
+/**
+ * The rendering of the status bar by JLineConsole when a statement starts
+ * and ends, with the given number of tasks in background.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusBenchmark {
+
+    @Param({"0", "10"})
+    public int background;
+
+    private JLineConsole console;
+    private InterpreterEvent busy, done;
+
+    @Setup
+    public void setup() throws Exception {
+        console = new JLineConsole(Terminals.reader(new ByteArrayInputStream(new byte[0])));
+        for (int i=0; i<background; ++i) {
+            console.on(new InterpreterEvent(BUSY, new CompletableFuture<Object>()));
+        }
+        Future<Object> task = CompletableFuture.completedFuture(null);
+        busy = new InterpreterEvent(BUSY, task); done = new InterpreterEvent(DONE, task);
+    }
+
+    @Benchmark
+    public void busyAndDone() {
+        console.on(busy);
+        console.on(done);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.impl.DumbTerminal;
+import ste.bshell.jline.BshLineReader;
+import ste.bshell.jline.BshLineReaderBuilder;
+
+/**
+ * Headless terminals and line readers for the benchmarks: a dumb terminal
+ * whose output is discarded, so that the benchmarks do not need a tty and
+ * measure the console code rather than the terminal.
+ */
+public class Terminals {
+
+    public static Terminal dumb(InputStream in) throws IOException {
+        Terminal terminal = new DumbTerminal(
+            "benchmark", "ansi", in, new NullOutputStream(), StandardCharsets.UTF_8
+        );
+        terminal.setSize(new Size(120, 40));
+        return terminal;
+    }
+
+    public static BshLineReader reader(InputStream in) throws IOException {
+        return BshLineReaderBuilder.builder().terminal(dumb(in)).build();
+    }
+}
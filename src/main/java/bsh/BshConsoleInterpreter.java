@@ -16,6 +16,7 @@
 package bsh;
 
 import static bsh.InterpreterEvent.BUSY;
+import static bsh.InterpreterEvent.DONE;
 import static bsh.InterpreterEvent.READY;
 import bsh.classpath.BshClassPath;
 import bsh.classpath.EmptyMappingFeedback;
@@ -23,10 +24,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PipedWriter;
-import java.util.concurrent.Callable;
+import java.nio.file.Paths;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import javax.management.JMException;
 import org.jline.reader.EndOfFileException;
 import org.jline.reader.LineReader;
 import org.jline.reader.UserInterruptException;
@@ -35,10 +37,15 @@ import org.jline.terminal.TerminalBuilder;
 import org.jline.utils.InfoCmp;
 import ste.bshell.BshCompleter;
 import ste.bshell.BshNodeExecutor;
+import ste.bshell.EventBus;
+import ste.bshell.ExecutionStats;
 import ste.bshell.JLineConsole;
 import ste.bshell.NodeFuture;
+import ste.bshell.ResultRenderer;
 import ste.bshell.jline.BshLineReader;
 import ste.bshell.jline.BshLineReaderBuilder;
+import ste.bshell.jline.IndexedHistory;
+import ste.bshell.management.ConsoleMetrics;
 import static ste.bshell.ui.BshConsoleCLI.VAR_HISTORY_FILE;
 
 /**
@@ -53,6 +60,10 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
     BshNodeExecutor executor = null;
     NodeFuture will = null;
 
+    private final ResultRenderer renderer = new ResultRenderer();
+    private final ConsoleMetrics metrics = new ConsoleMetrics();
+    private final EventBus events = new EventBus();
+
     static {
         BshClassPath.addMappingFeedback(new EmptyMappingFeedback());
     }
@@ -64,6 +75,24 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
         setExitOnEOF(false);
         interactive = true;
 
+        //
+        // the console may change (see cancel()), the current one is notified
+        //
+        events.subscribe((e) -> {
+            JLineConsole jline = getConsole();
+            if (jline != null) {
+                jline.on(e);
+            }
+        });
+        events.subscribe((e) -> {
+            if (e.type == DONE) {
+                ExecutionStats stats = ((NodeFuture)e.data).getStats();
+                if (stats != null) {
+                    metrics.statement(stats);
+                }
+            }
+        });
+
         //
         // read an internal init script from the resources
         //
@@ -74,6 +103,7 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
         JLineConsole jline = null;
         try {
             jline = new JLineConsole(buildLineReader());
+            jline.setMetrics(metrics);
             setConsole(jline);
             jline.lineReader.getTerminal().handle(Terminal.Signal.TSTP, new Terminal.SignalHandler() {
                 @Override
@@ -95,6 +125,14 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
             return;
         }
         executor = new BshNodeExecutor(this);
+        metrics.setExecutor(executor);
+        try {
+            metrics.register();
+        } catch (JMException x) {
+            if (DEBUG.get()) {
+                x.printStackTrace();
+            }
+        }
 
         bshThread = new Thread(this);
         bshThread.setDaemon(true);
@@ -125,6 +163,7 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
                 jline.println("\n(... see you ...)\n");
                 close();
                 executor.shutdown(); bshThread.interrupt();
+                metrics.unregister(); events.close();
 
                 return;
             } catch (IOException x) {
@@ -147,7 +186,7 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
         while (!Thread.interrupted() && !eof) {
             Parser parser = new Parser(getConsole().getIn());
 
-            getConsole().on(new InterpreterEvent(READY, getBshPrompt()));
+            events.publish(new InterpreterEvent(READY, getBshPrompt()));
             try {
                 eof = parser.Line();
                 if (!getConsole().isValid() || (parser.jjtree.nodeArity() == 0)) {
@@ -163,22 +202,33 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
                 final CallStack CURRENT_CURRENT_STACK = callstack;
                 Object ret = null;
                 waitForTask = true;
-                will = (NodeFuture)executor.submit(new Callable() {
+                will = (NodeFuture)executor.submit(new NodeFuture.Statement() {
+                    @Override
+                    public String getText() {
+                        return node.getText();
+                    }
+
                     @Override
                     public Object call() throws Exception {
-                        return node.eval(CURRENT_CURRENT_STACK, THIS);
+                        CURRENT_CURRENT_STACK.node = node;
+                        CallStacks.enter(CURRENT_CURRENT_STACK);
+                        if (Hotspots.enabled) {
+                            Hotspots.enter(CURRENT_CURRENT_STACK, node, node, null);
+                        }
+                        try {
+                            return node.eval(CURRENT_CURRENT_STACK, THIS);
+                        } finally {
+                            if (Hotspots.enabled) {
+                                Hotspots.exit(CURRENT_CURRENT_STACK, node);
+                            }
+                            CallStacks.exit(CURRENT_CURRENT_STACK);
+                        }
                     }
                 });
 
-                getConsole().on(new InterpreterEvent(BUSY, will));
+                events.publish(new InterpreterEvent(BUSY, will));
                 boolean inBackground = false;
                 while (!will.isDone()) {
-                    //
-                    // if the is a future running, let's create a new stack
-                    // so that in the case it is put in background, we have
-                    // a clean call stack
-                    //
-                    callstack = new CallStack(globalNameSpace);
                     try {
                         ret = will.get(25, TimeUnit.MILLISECONDS);
                     } catch (TimeoutException c) {
@@ -205,6 +255,16 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
                     break;
                 };
 
+                //
+                // if the task may still be running (e.g. it was put in
+                // background or it is being cancelled), it keeps its call
+                // stack and the next statements get a clean one; otherwise
+                // the same stack is reused (see finally)
+                //
+                if (!will.isDone() || will.isCancelled()) {
+                    callstack = new CallStack(globalNameSpace);
+                }
+
                 if (waitForTask && !will.isCancelled()) {
                     // sanity check during development
                     if (callstack.depth() > 1) {
@@ -221,7 +281,7 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
                             setu("$_", ret);
                             setu("$"+(++idx%10), ret);
                             if ( getShowResults() ) {
-                                console.println("--> $" + (idx%10) + " = " + StringUtil.typeValueString(ret));
+                                console.println("--> $" + (idx%10) + " = " + renderer.render(ret, renderer.getTimeout()));
                             }
                         } else if ( getShowResults() ) {
                             console.println("--> void");
@@ -264,9 +324,8 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
                 }
             } finally {
                 // reinit the callstack
-                if (callstack.depth() > 1) {
-                    callstack.clear();
-                    callstack.push(globalNameSpace);
+                if ((callstack.depth() != 1) || (callstack.node != null)) {
+                    callstack.reset(globalNameSpace);
                 }
                 eof = !interactive;
                 will = null;
@@ -295,10 +354,45 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
      * can change quite often, due to user interactions (e.g. ^C). Use getConsole()
      * as a convenient method to get the most current JLineConsole.
      *
-     * @return the current console as a JLineConsole object.
+     * @return the current console as a JLineConsole object or null if the
+     *         console is not a JLineConsole (e.g. running a script)
      */
     public JLineConsole getConsole() {
-        return (JLineConsole)console;
+        return (console instanceof JLineConsole) ? (JLineConsole)console : null;
+    }
+
+    /**
+     * Returns the renderer used to display the results of the statements when
+     * show() is on; it can be used to change the rendering limits, e.g.:
+     * <pre>
+     *   this.interpreter.getResultRenderer().setMaxElements(1000);
+     * </pre>
+     *
+     * @return the result renderer
+     */
+    public ResultRenderer getResultRenderer() {
+        return renderer;
+    }
+
+    /**
+     * Returns the live metrics of this console, published in JMX once the
+     * console is started (see ConsoleMetrics).
+     *
+     * @return the console metrics
+     */
+    public ConsoleMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the bus the interpreter events (READY, BUSY, DONE) are published
+     * to; any number of listeners can subscribe to observe the interpreter
+     * lifecycle (the current console is always subscribed).
+     *
+     * @return the event bus
+     */
+    public EventBus getEvents() {
+        return events;
     }
 
     // ------------------------------------------------------- protected methods
@@ -323,13 +417,17 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
         terminal.puts(InfoCmp.Capability.clear_screen);
         terminal.flush();
 
-        BshLineReader lineReader = BshLineReaderBuilder.builder()
-                                  .terminal(terminal)
-                                  .completer(new BshCompleter(this))
-                                  .option(LineReader.Option.DISABLE_EVENT_EXPANSION, true)
-                                  .build();
+        BshLineReaderBuilder builder = BshLineReaderBuilder.builder()
+                                       .terminal(terminal)
+                                       .completer(new BshCompleter(this))
+                                       .option(LineReader.Option.DISABLE_EVENT_EXPANSION, true);
 
         String historyFile = (String) get(VAR_HISTORY_FILE);
+        if (historyFile != null) {
+            builder.history(new IndexedHistory(Paths.get(historyFile)));
+        }
+
+        BshLineReader lineReader = builder.build();
         if (historyFile != null) {
             lineReader.setVariable(
                     LineReader.HISTORY_FILE,
@@ -355,7 +453,9 @@ public class BshConsoleInterpreter extends Interpreter implements Runnable {
         } else {
             try {
                 PipedWriter oldPipe = jline.pipe; jline.pipe = null;
-                setConsole(new JLineConsole(jline.lineReader)); // TODO: do we realle need to recreate a new console?
+                JLineConsole newConsole = new JLineConsole(jline.lineReader);
+                newConsole.setMetrics(jline.getMetrics());
+                setConsole(newConsole); // TODO: do we realle need to recreate a new console?
                 oldPipe.close();
             } catch (IOException x) {
                 // nothing to do...
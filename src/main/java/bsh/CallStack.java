@@ -28,8 +28,8 @@
 package bsh;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.EmptyStackException;
-import java.util.Stack;
 
 /**
     A stack of NameSpaces representing the call path.
@@ -50,56 +50,132 @@ import java.util.Stack;
     In that case the This invokeMethod() method (called by any interface that
     it exposes) creates a new CallStack for each external call.
     <p>
+
+    Being used by one thread at a time, the stack is a plain growable array
+    without any locking: push() and pop() do not allocate unless the stack
+    grows beyond its capacity and get() is a simple array access.
 */
 public final class CallStack implements Serializable {
     /** default serial version id */
     private static final long serialVersionUID = 1L;
-    private final Stack<NameSpace> stack = new Stack<>();
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+        A spare call stack per thread, see acquire() and release(); the
+        holder array saves a ThreadLocal.set() on each acquire/release.
+    */
+    private static final ThreadLocal<CallStack[]> SPARE =
+        ThreadLocal.withInitial(() -> new CallStack[1]);
+
+    private NameSpace[] stack;
+    private int size = 0;
 
     public SimpleNode node = null;
 
-    public CallStack() { }
+    public CallStack() {
+        stack = new NameSpace[INITIAL_CAPACITY];
+    }
 
     public CallStack( NameSpace namespace ) {
+        this();
         push( namespace );
     }
 
+    private CallStack( NameSpace[] stack, int size ) {
+        this.stack = stack;
+        this.size = size;
+    }
+
+    /**
+        Returns an empty call stack for a short lived use by the current
+        thread, to be given back with release() when done: entry points
+        called very often (e.g. Interpreter.set()) reuse the same stack
+        instead of allocating a new one each time. If the spare stack of the
+        thread is in use (e.g. by a reentrant call), a new one is returned.
+        <p>
+
+        The stack must not escape its user: if it needs to be kept (e.g. in
+        an error), copy() it.
+    */
+    static CallStack acquire() {
+        CallStack[] spare = SPARE.get();
+        CallStack cs = spare[0];
+        if ( cs == null )
+            return new CallStack();
+        spare[0] = null;
+        return cs;
+    }
+
+    /**
+        Gives back a call stack obtained with acquire() so that it can be
+        reused by the current thread.
+    */
+    static void release( CallStack cs ) {
+        cs.reset( null );
+        SPARE.get()[0] = cs;
+    }
+
+    /**
+        Empties the stack and pushes the given namespace if not null, so that
+        the stack can be reused as if it was new.
+    */
+    public void reset( NameSpace ns ) {
+        clear();
+        node = null;
+        if ( ns != null )
+            push( ns );
+    }
+
     public void clear() {
-        stack.clear();
+        if ( Hotspots.enabled )
+            Hotspots.discard( this );
+        Arrays.fill(stack, 0, size, null);
+        size = 0;
     }
 
     public void push( NameSpace ns ) {
-        stack.push( ns );
+        if ( size == stack.length )
+            stack = Arrays.copyOf(stack, size * 2);
+        stack[size++] = ns;
+        // scripted method invocations are timed by call site
+        if ( Hotspots.enabled && ns.isMethod )
+            Hotspots.enter( this, ns, ns.getNode(), ns.getName() );
     }
 
     public NameSpace top() {
-        return stack.peek();
+        if ( size == 0 )
+            throw new EmptyStackException();
+        return stack[size-1];
     }
 
     /**
         zero based.
     */
     public NameSpace get(int depth) {
-        int size = stack.size();
         if ( depth >= size )
             return NameSpace.JAVACODE;
-        return stack.toArray(new NameSpace[size])[size-1-depth];
+        return stack[size-1-depth];
     }
 
     /**
         This is kind of crazy, but used by the setNameSpace command.
         zero based.
     */
-    public synchronized void set(int depth, NameSpace ns) {
-        stack.set( stack.size()-1-depth, ns );
+    public void set(int depth, NameSpace ns) {
+        if ( depth < 0 || depth >= size )
+            throw new ArrayIndexOutOfBoundsException(depth);
+        stack[size-1-depth] = ns;
     }
 
     public NameSpace pop() {
-        try {
-            return stack.pop();
-        } catch(EmptyStackException e) {
+        if ( size == 0 )
             throw new InterpreterError("pop on empty CallStack");
-        }
+        NameSpace top = stack[--size];
+        stack[size] = null;
+        if ( Hotspots.enabled && top.isMethod )
+            Hotspots.exit( this, top );
+        return top;
     }
 
     /**
@@ -107,26 +183,24 @@ public final class CallStack implements Serializable {
         value.
     */
     public NameSpace swap( NameSpace newTop ) {
-        NameSpace oldTop = stack.pop();
-        stack.push(newTop);
+        NameSpace oldTop = top();
+        stack[size-1] = newTop;
         return oldTop;
     }
 
     public int depth() {
-        return stack.size();
+        return size;
     }
-/*
+
     public NameSpace [] toArray() {
-        NameSpace [] nsa = new NameSpace [ depth() ];
-        stack.copyInto( nsa );
-        return nsa;
+        return Arrays.copyOf(stack, size);
     }
-*/
-    public synchronized String toString() {
+
+    public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("CallStack:\n");
-        for( int i=stack.size()-1; i>=0; i-- )
-            sb.append("\t"+stack.get(i)+"\n");
+        for( int i=size-1; i>=0; i-- )
+            sb.append("\t").append(stack[i]).append("\n");
 
         return sb.toString();
     }
@@ -136,8 +210,7 @@ public final class CallStack implements Serializable {
         purposes, etc.
     */
     public CallStack copy() {
-        CallStack cs = new CallStack();
-        cs.stack.addAll(this.stack);
-        return cs;
+        return new CallStack(
+            Arrays.copyOf(stack, Math.max(size, INITIAL_CAPACITY)), size);
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the call stacks being evaluated by each thread, so that they
+ * can be sampled by another thread (e.g. by ste.bshell.Profiler). Tracking is
+ * off unless turned on with track(true): evaluation entry points call enter()
+ * and exit(), which cost a volatile read when tracking is off.
+ * <p>
+ * Nested evaluations in the same thread (e.g. a script sourced by a method)
+ * are tracked as a chain, so that a sample includes all of them, outermost
+ * first.
+ * <p>
+ * Call stacks are not thread safe, therefore samples are taken without
+ * stopping the sampled threads and may be slightly inconsistent, which is
+ * fine for statistical sampling.
+ */
+public class CallStacks {
+
+    private static final AtomicInteger TRACKERS = new AtomicInteger();
+    private static volatile boolean tracking = false;
+
+    private static final Map<Thread, Entry> STACKS = new ConcurrentHashMap<>();
+
+    /**
+     * Turns tracking on or off; calls nest, so that tracking is on as long as
+     * there is at least one tracker.
+     *
+     * @param on true to start tracking, false to stop it
+     */
+    public static void track(boolean on) {
+        int n = on ? TRACKERS.incrementAndGet() : TRACKERS.decrementAndGet();
+        tracking = (n > 0);
+        if (!tracking) {
+            STACKS.clear();
+        }
+    }
+
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * @return the frames of each tracked thread, outermost first: a frame is
+     *         the name of a method (or of the namespace of a script) or the
+     *         file:line of the statement being evaluated at that level
+     */
+    public static List<String[]> frames() {
+        List<String[]> frames = new ArrayList<>();
+        for (Entry e: STACKS.values()) {
+            List<String> f = new ArrayList<>();
+            frames(e, f);
+            frames.add(f.toArray(new String[f.size()]));
+        }
+        return frames;
+    }
+
+    /**
+     * @param ns a namespace - NOT NULL
+     *
+     * @return the name of the frame of the given namespace: block namespaces
+     *         are named after the method or script they belong to
+     */
+    public static String frameName(NameSpace ns) {
+        while ((ns instanceof BlockNameSpace) && (ns.getParent() != null)) {
+            ns = ns.getParent();
+        }
+        return ns.getName();
+    }
+
+    // ------------------------------------------------------- package methods
+
+    static void enter(CallStack callstack) {
+        if (tracking) {
+            Thread t = Thread.currentThread();
+            STACKS.put(t, new Entry(callstack, STACKS.get(t)));
+        }
+    }
+
+    static void exit(CallStack callstack) {
+        if (tracking || !STACKS.isEmpty()) {
+            Thread t = Thread.currentThread();
+            Entry e = STACKS.get(t);
+            if ((e != null) && (e.callstack == callstack)) {
+                if (e.outer == null) {
+                    STACKS.remove(t);
+                } else {
+                    STACKS.put(t, e.outer);
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static void frames(Entry e, List<String> frames) {
+        if (e.outer != null) {
+            frames(e.outer, frames);
+        }
+        for (NameSpace ns: e.callstack.toArray()) {
+            if (ns != null) {
+                frames.add(frameName(ns));
+            }
+        }
+        SimpleNode node = e.callstack.node;
+        if (node != null) {
+            String file = node.getSourceFile();
+            frames.add(((file == null) ? "<input>" : file) + ':' + node.getLineNumber());
+        }
+    }
+
+    // ------------------------------------------------------------------ Entry
+
+    private static class Entry {
+        final CallStack callstack;
+        final Entry outer;
+
+        Entry(CallStack callstack, Entry outer) {
+            this.callstack = callstack;
+            this.outer = outer;
+        }
+    }
+}
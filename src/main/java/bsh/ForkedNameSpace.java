@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+/**
+ * A global namespace that shares a fully initialised namespace (the
+ * snapshot) copy-on-write: everything defined in the snapshot (variables,
+ * methods, imports, the bsh.* system objects) is visible through the fork
+ * without being copied, while whatever the fork defines or assigns stays in
+ * the fork. In particular, assigning a variable that is defined only in the
+ * snapshot creates a private copy of it in the fork instead of changing the
+ * shared one, so that forks never see each other's changes.
+ * <p>
+ * Methods defined in the snapshot are bound to it, as any scripted method is
+ * bound to the namespace it is declared in: they see the shared variables,
+ * not the copies made by the fork.
+ * <p>
+ * Sharing is at the level of the bindings: an object referenced by a shared
+ * variable is the same object in all forks, therefore changing its state
+ * (e.g. adding elements to a shared list) is visible to all of them. This
+ * applies to scripted objects too, unless they are forked with forkThis().
+ * <p>
+ * The class manager is shared as well: changes to the class path (e.g.
+ * addClassPath()), classes defined by scripts and import * are visible to
+ * the snapshot and to all forks; the other imports are kept by the
+ * namespace and stay private to the fork.
+ * <p>
+ * Forks see the snapshot as it is when they read it: the snapshot should not
+ * be changed once forked (e.g. in a pool, the warm interpreter is only used
+ * to fork new interpreters). See Interpreter.fork().
+ */
+public class ForkedNameSpace extends NameSpace {
+
+    private final NameSpace snapshot;
+
+    /**
+     * @param snapshot the namespace to share - NOT NULL
+     * @param name the name of the fork
+     */
+    public ForkedNameSpace(NameSpace snapshot, String name) {
+        super(check(snapshot), name);
+        this.snapshot = snapshot;
+    }
+
+    public NameSpace getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Makes the scripted object (a This, like bsh) stored in the given
+     * variable private to this fork: the fork gets a new object whose
+     * namespace is in turn a fork of the shared object's one, so that its
+     * fields can be read as before but assigned without affecting the other
+     * forks (e.g. bsh.console or bsh.cwd). Scripted objects referenced by
+     * the shared object are still shared, unless forked in turn through the
+     * namespace of the returned object.
+     *
+     * @param name the name of the variable
+     * @param interpreter the interpreter of the new object
+     *
+     * @return the new object, null if the variable is not a scripted object
+     *
+     * @throws UtilEvalError if the variable can not be read or set
+     */
+    public This forkThis(String name, Interpreter interpreter) throws UtilEvalError {
+        Object o = getVariable(name);
+        if (!(o instanceof This)) {
+            return null;
+        }
+        NameSpace shared = ((This)o).getNameSpace();
+        This fork = new ForkedNameSpace(shared, shared.getName()).getThis(interpreter);
+        setLocalVariable(name, fork, false);
+
+        return fork;
+    }
+
+    // ---------------------------------------------------------------- NameSpace
+
+    @Override
+    void setVariable(String name, Object value, boolean strictJava, boolean recurse)
+    throws UtilEvalError {
+        if (!recurse || !copyOnWrite(name, value, strictJava)) {
+            super.setVariable(name, value, strictJava, recurse);
+        }
+    }
+
+    @Override
+    void setVariableOrProperty(String name, Object value, boolean strictJava, boolean recurse)
+    throws UtilEvalError {
+        if (!recurse || !copyOnWrite(name, value, strictJava)) {
+            super.setVariableOrProperty(name, value, strictJava, recurse);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * If the variable is not defined in this namespace but it is in the
+     * snapshot, defines in this namespace a copy of it with the given value;
+     * type and modifiers of the shared variable are retained, so that the
+     * assignment is checked as if it were done on the shared variable.
+     *
+     * @return true if the variable has been copied, false if it is not shared
+     */
+    private boolean copyOnWrite(String name, Object value, boolean strictJava) throws UtilEvalError {
+        if (getVariableImpl(name, false) != null) {
+            return false;
+        }
+        Variable shared = snapshot.getVariableImpl(name, true);
+        if (shared == null) {
+            return false;
+        }
+        if (shared.hasModifier("final")) {
+            throw new UtilEvalError("Final variable '" + name + "', can't re-assign.");
+        }
+        if (shared.getType() != null) {
+            setTypedVariable(name, shared.getType(), value, shared.getModifiers());
+        } else {
+            setLocalVariable(name, value, strictJava);
+        }
+        return true;
+    }
+
+    private static NameSpace check(NameSpace snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot can not be null");
+        }
+        return snapshot;
+    }
+}
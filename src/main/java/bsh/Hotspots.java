@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in execution counters of BeanShell code: when enabled, each top level
+ * statement and each scripted method invocation is counted and timed, keyed
+ * by source file and line (of the statement or of the method call), so that
+ * the lines where most time is spent can be listed (see top()). Nested
+ * statements (e.g. the body of a loop or of a method) are not counted on
+ * their own: their time goes to the enclosing top level statement or method
+ * call.
+ * <p>
+ * For each location the number of executions, the total time (including
+ * the time spent in the methods called) and the self time (excluding it) are
+ * accumulated. The time of recursive calls is accounted once per level, so
+ * the total time of recursive methods may exceed the elapsed time.
+ * <p>
+ * When disabled, which is the default unless the system property
+ * bshell.hotspots is true, the instrumentation costs one volatile read per
+ * method invocation and statement, so that it can be left in place.
+ */
+public final class Hotspots {
+
+    public static final String PROPERTY = "bshell.hotspots";
+
+    static volatile boolean enabled = Boolean.getBoolean(PROPERTY);
+
+    private static final Map<Key, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Frames> FRAMES = ThreadLocal.withInitial(Frames::new);
+
+    private Hotspots() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the counters on or off; counters are not reset.
+     */
+    public static void enable(boolean on) {
+        enabled = on;
+    }
+
+    public static void reset() {
+        COUNTERS.clear();
+    }
+
+    /**
+     * @param max the maximum number of locations to return
+     * @param byTotal true to sort by total time, false to sort by self time
+     *
+     * @return the locations with the highest time, highest first
+     */
+    public static List<Hotspot> top(int max, boolean byTotal) {
+        //
+        // the same location can be parsed more than once (e.g. sourcing the
+        // same script twice), therefore counters are merged by location
+        //
+        Map<String, Hotspot> spots = new HashMap<>();
+        for (Map.Entry<Key, Counter> e: COUNTERS.entrySet()) {
+            String location = e.getKey().location();
+            Hotspot h = spots.get(location);
+            Counter c = e.getValue();
+            spots.put(location, new Hotspot(
+                location,
+                ((h == null) ? 0 : h.count) + c.count.sum(),
+                ((h == null) ? 0 : h.total) + c.total.sum(),
+                ((h == null) ? 0 : h.self)  + c.self.sum()
+            ));
+        }
+
+        List<Hotspot> top = new ArrayList<>(spots.values());
+        Collections.sort(top, (a, b) -> byTotal
+            ? Long.compare(b.total, a.total)
+            : Long.compare(b.self, a.self)
+        );
+        return top.subList(0, Math.max(0, Math.min(max, top.size())));
+    }
+
+    // ------------------------------------------------------- package methods
+
+    /**
+     * A statement or method starts.
+     *
+     * @param callstack the call stack of the execution
+     * @param marker what identifies the frame when it ends: the namespace
+     *               pushed for a method or the node of a statement
+     * @param node the node of the statement or of the method call
+     * @param name the name of the method or null for statements
+     */
+    static void enter(CallStack callstack, Object marker, SimpleNode node, String name) {
+        FRAMES.get().push(callstack, marker, new Key(node, name), System.nanoTime());
+    }
+
+    /**
+     * The statement or method identified by marker ends; any frame left
+     * open above it (e.g. by an exception) ends too.
+     */
+    static void exit(CallStack callstack, Object marker) {
+        FRAMES.get().pop(callstack, marker, System.nanoTime());
+    }
+
+    /**
+     * The frames of the given call stack are discarded without being counted
+     * (e.g. because the call stack was cleared after an error).
+     */
+    static void discard(CallStack callstack) {
+        FRAMES.get().discard(callstack);
+    }
+
+    // ----------------------------------------------------------------- Hotspot
+
+    public static final class Hotspot {
+        public final String location;
+        public final long count, total, self; // times in nanoseconds
+
+        Hotspot(String location, long count, long total, long self) {
+            this.location = location;
+            this.count = count;
+            this.total = total;
+            this.self = self;
+        }
+
+        @Override
+        public String toString() {
+            return location + " count=" + count + " total=" + total + " self=" + self;
+        }
+    }
+
+    // ------------------------------------------------------------- Key/Counter
+
+    private static final class Key {
+        final SimpleNode node;
+        final String name;
+
+        Key(SimpleNode node, String name) {
+            this.node = node;
+            this.name = name;
+        }
+
+        String location() {
+            String file = (node == null) ? null : node.getSourceFile();
+            String location = ((file == null) ? "<input>" : file)
+                            + ':' + ((node == null) ? 0 : node.getLineNumber());
+            return (name == null) ? location : location + ' ' + name + "()";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (k.node == node) && ((name == null) ? (k.name == null) : name.equals(k.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node) * 31 + ((name == null) ? 0 : name.hashCode());
+        }
+    }
+
+    private static final class Counter {
+        final LongAdder count = new LongAdder(),
+                        total = new LongAdder(),
+                        self  = new LongAdder();
+    }
+
+    // ------------------------------------------------------------------ Frames
+
+    /**
+     * The open frames of a thread; the time of each frame is added to the
+     * children time of the frame below, so that self time can be computed.
+     */
+    private static final class Frames {
+        CallStack[] stacks = new CallStack[16];
+        Object[] markers = new Object[16];
+        Key[] keys = new Key[16];
+        long[] starts = new long[16], children = new long[16];
+        int size = 0;
+
+        void push(CallStack callstack, Object marker, Key key, long now) {
+            if (size == stacks.length) {
+                int n = size * 2;
+                stacks = Arrays.copyOf(stacks, n); markers = Arrays.copyOf(markers, n);
+                keys = Arrays.copyOf(keys, n);
+                starts = Arrays.copyOf(starts, n); children = Arrays.copyOf(children, n);
+            }
+            stacks[size] = callstack; markers[size] = marker; keys[size] = key;
+            starts[size] = now; children[size] = 0;
+            ++size;
+        }
+
+        void pop(CallStack callstack, Object marker, long now) {
+            int i = size - 1;
+            while ((i >= 0) && ((stacks[i] != callstack) || (markers[i] != marker))) {
+                --i;
+            }
+            if (i < 0) {
+                return; // entered while disabled
+            }
+            while (size > i) {
+                --size;
+                long total = now - starts[size];
+                Counter c = COUNTERS.computeIfAbsent(keys[size], (k) -> new Counter());
+                c.count.increment();
+                c.total.add(total);
+                c.self.add(total - children[size]);
+                if (size > 0) {
+                    children[size-1] += total;
+                }
+                stacks[size] = null; markers[size] = null; keys[size] = null;
+            }
+        }
+
+        void discard(CallStack callstack) {
+            while ((size > 0) && (stacks[size-1] == callstack)) {
+                --size;
+                stacks[size] = null; markers[size] = null; keys[size] = null;
+            }
+        }
+    }
+}
@@ -34,7 +34,10 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
     The BeanShell script interpreter.
@@ -108,6 +111,9 @@ public class Interpreter
     public static boolean TRACE;
     public static boolean COMPATIBIILTY;
 
+    /** Number of statements parsed by eval(), see getParsedStatements() */
+    private static final LongAdder PARSED = new LongAdder();
+
     static {
         staticInit();
     }
@@ -211,6 +217,45 @@ public class Interpreter
         setu( "bsh.evalOnly", Primitive.FALSE );
     }
 
+    /**
+        Create a new interpreter whose global namespace is a copy-on-write
+        fork of this interpreter's one (see ForkedNameSpace): everything
+        defined here (e.g. by an init script) is available to the new
+        interpreter without being evaluated again or copied, while what the
+        new interpreter defines stays private to it. The bsh object and
+        bsh.help are forked as well, so that bsh.console, bsh.cwd and the help
+        of the commands loaded by the new interpreter are private to it;
+        bsh.system (alias bsh.shared) is instead shared by design by all the
+        interpreters in the JVM. Forking does not evaluate anything, which
+        makes it cheap both in time and memory.
+        <p>
+
+        The class manager is shared with this interpreter: changes to the
+        class path (e.g. addClassPath()), scripted classes and import * are
+        visible to this interpreter and to all its forks (see
+        ForkedNameSpace).
+        <p>
+
+        This interpreter should not evaluate anything else once forked,
+        since changes to its namespace would be visible to the forks.
+
+        @param console the console of the new interpreter.  May be null.
+        @param name the name of the forked namespace
+    */
+    public Interpreter fork( ConsoleInterface console, String name ) {
+        ForkedNameSpace ns = new ForkedNameSpace( globalNameSpace, name );
+        try {
+            This bsh = ns.forkThis( "bsh", this );
+            ((ForkedNameSpace)bsh.getNameSpace()).forkThis( "help", this );
+        } catch ( UtilEvalError e ) {
+            throw new InterpreterError( "fork: " + e, e );
+        }
+        Interpreter child = new Interpreter(
+            console, false, ns, this, "<" + name + ">" );
+        child.setShowResults( getShowResults() );
+        return child;
+    }
+
     // End constructors
 
     /**
@@ -322,18 +367,31 @@ public class Interpreter
     public Object eval(Reader in, NameSpace nameSpace, String sourceFileInfo)
         throws EvalError
     {
-        Object retVal = null;
         Interpreter.debug("eval: nameSpace = ", nameSpace);
 
         CallStack callstack = new CallStack(nameSpace);
         Parser parser = new Parser(in);
 
+        CallStacks.enter(callstack);
+        try {
+            return eval(parser, callstack, nameSpace, sourceFileInfo);
+        } finally {
+            CallStacks.exit(callstack);
+        }
+    }
+
+    private Object eval(Parser parser, CallStack callstack, NameSpace nameSpace, String sourceFileInfo)
+        throws EvalError
+    {
+        Object retVal = null;
+
         boolean eof = false;
         while (!Thread.interrupted() && !eof) {
             // getConsole().on(new InterpreterEvent(READY, getBshPrompt()));
             try {
                 eof = parser.Line();
                 if (parser.jjtree.nodeArity() > 0) {
+                    PARSED.increment();
                     callstack.node = (SimpleNode)parser.jjtree.rootNode();
                     // nodes remember from where they were sourced
                     callstack.node.setSourceFile( sourceFileInfo );
@@ -342,7 +400,15 @@ public class Interpreter
                         callstack.node.dump(">");
                     }
 
-                    retVal = callstack.node.eval(callstack, this);
+                    SimpleNode node = callstack.node;
+                    if ( Hotspots.enabled )
+                        Hotspots.enter( callstack, node, node, null );
+                    try {
+                        retVal = node.eval(callstack, this);
+                    } finally {
+                        if ( Hotspots.enabled )
+                            Hotspots.exit( callstack, node );
+                    }
 
                     // sanity check during development
                     if ( callstack.depth() > 1 ) {
@@ -398,6 +464,113 @@ public class Interpreter
         return Primitive.unwrap( retVal );
     }
 
+    /**
+        Parse all the statements read from in without evaluating them, so
+        that they can be evaluated later, even more than once, with
+        eval(SimpleNode[], NameSpace, String) without being parsed again.
+        *
+        @throws ParseException on syntax errors
+    */
+    public static SimpleNode[] parse( Reader in, String sourceFileInfo )
+        throws ParseException
+    {
+        Parser parser = new Parser( in );
+        List<SimpleNode> statements = new ArrayList<>();
+
+        boolean eof = false;
+        while ( !eof ) {
+            try {
+                eof = parser.Line();
+                if ( parser.jjtree.nodeArity() > 0 ) {
+                    PARSED.increment();
+                    SimpleNode node = (SimpleNode)parser.jjtree.rootNode();
+                    node.setSourceFile( sourceFileInfo );
+                    statements.add( node );
+                }
+            } catch ( ParseException e ) {
+                e.setErrorSourceFile( sourceFileInfo );
+                throw e;
+            } finally {
+                parser.jjtree.reset();
+            }
+        }
+
+        return statements.toArray( new SimpleNode[statements.size()] );
+    }
+
+    /**
+        Evaluate statements previously parsed with parse() in the given
+        namespace; errors are reported as eval(Reader, NameSpace, String)
+        does.
+        *
+        @throws EvalError on script problems
+        @throws TargetError on unhandled exceptions from the script
+    */
+    public Object eval( SimpleNode[] statements, NameSpace nameSpace,
+            String sourceFileInfo ) throws EvalError
+    {
+        CallStack callstack = new CallStack( nameSpace );
+        Object retVal = null;
+
+        CallStacks.enter( callstack );
+        try {
+            for ( SimpleNode node: statements ) {
+                if ( Thread.interrupted() )
+                    break;
+                callstack.node = node;
+                try {
+                    if ( Hotspots.enabled )
+                        Hotspots.enter( callstack, node, node, null );
+                    try {
+                        retVal = node.eval( callstack, this );
+                    } finally {
+                        if ( Hotspots.enabled )
+                            Hotspots.exit( callstack, node );
+                    }
+
+                    if ( retVal instanceof ReturnControl ) {
+                        retVal = ((ReturnControl)retVal).value;
+                        break;
+                    }
+                } catch ( InterpreterError e ) {
+                    throw new EvalError(
+                        "Sourced file: "+sourceFileInfo+" internal Error: "
+                        + e.getMessage(), callstack.node, callstack, e);
+                } catch ( TargetError e ) {
+                    if ( e.getNode()==null )
+                        e.setNode( node );
+                    e.reThrow( "Sourced file: "+sourceFileInfo );
+                } catch ( EvalError e ) {
+                    if ( e.getNode()==null )
+                        e.setNode( node );
+                    e.reThrow( "Sourced file: "+sourceFileInfo );
+                } catch ( Exception e ) {
+                    throw new EvalError(
+                        "Sourced file: "+sourceFileInfo+" unknown error: "
+                        + e.getMessage(), callstack.node, callstack, e);
+                } finally {
+                    if ( callstack.depth() > 1 ) {
+                        callstack.clear();
+                        callstack.push( nameSpace );
+                    }
+                }
+            }
+        } finally {
+            CallStacks.exit( callstack );
+        }
+
+        return Primitive.unwrap( retVal );
+    }
+
+    /**
+        The number of statements parsed by eval() by all interpreters since
+        startup; used to keep an eye on parsing costs (e.g. source() should
+        parse each statement of a script once).
+    */
+    public static long getParsedStatements() {
+        return PARSED.sum();
+    }
+
     /**
         Evaluate the inputstream in this interpreter's global namespace.
     */
@@ -426,6 +599,61 @@ public class Interpreter
             "inline evaluation of: ``"+ showEvalString(s)+"''" );
     }
 
+    /**
+        Evaluate the statements read from in as in an interactive session:
+        the prompt (if not null) is printed before each statement and errors
+        are reported to the console instead of stopping the evaluation, which
+        goes on until the end of the input or until the thread is interrupted.
+        Output is flushed before reading each statement.
+    */
+    public void evalSession(
+        Reader in, NameSpace nameSpace, String sourceFileInfo, String prompt )
+    {
+        CallStack callstack = new CallStack( nameSpace );
+        Parser parser = new Parser( in );
+
+        boolean eof = false;
+        while ( !Thread.interrupted() && !eof ) {
+            if ( prompt != null )
+                print( prompt );
+            console.getOut().flush();
+            try {
+                eof = parser.Line();
+                if ( parser.jjtree.nodeArity() > 0 ) {
+                    PARSED.increment();
+                    callstack.node = (SimpleNode)parser.jjtree.rootNode();
+                    callstack.node.setSourceFile( sourceFileInfo );
+
+                    Object ret = callstack.node.eval( callstack, this );
+                    if ( ret instanceof ReturnControl )
+                        ret = ((ReturnControl)ret).value;
+                    if ( ret != Primitive.VOID ) {
+                        setu( "$_", ret );
+                        if ( getShowResults() )
+                            println( "--> " + ret );
+                    }
+                }
+            } catch ( ParseException e ) {
+                error( "Parser Error: " + e.getMessage( DEBUG.get() ) );
+                parser.reInitInput( in );
+            } catch ( TokenMgrException e ) {
+                error( "Parser Error: " + e.getMessage() );
+                parser.reInitInput( in );
+            } catch ( InterpreterError e ) {
+                error( "Internal Error: " + e.getMessage() );
+            } catch ( TargetError e ) {
+                error( "Target Exception: " + e.getMessage() );
+                setu( "$_e", e.getTarget() );
+            } catch ( EvalError e ) {
+                error( "Evaluation Error: " + e.getMessage() );
+            } finally {
+                parser.jjtree.reset();
+                callstack.reset( nameSpace );
+            }
+        }
+        console.getOut().flush();
+    }
+
     private String showEvalString( String s ) {
         s = s.replace('\n', ' ');
         s = s.replace('\r', ' ');
@@ -508,17 +736,25 @@ public class Interpreter
         if ( value == null )
             value = Primitive.NULL;
 
-        CallStack callstack = new CallStack();
-        try {
-            if ( Name.isCompound( name ) )
-            {
-                LHS lhs = globalNameSpace.getNameResolver( name ).toLHS(
-                    callstack, this );
-                lhs.assign( value, false );
-            } else // optimization for common case
+        if ( !Name.isCompound( name ) ) {
+            // optimization for common case
+            try {
                 globalNameSpace.setVariable( name, value, false );
+            } catch ( UtilEvalError e ) {
+                throw e.toEvalError( SimpleNode.JAVACODE, new CallStack() );
+            }
+            return;
+        }
+
+        CallStack callstack = CallStack.acquire();
+        try {
+            LHS lhs = globalNameSpace.getNameResolver( name ).toLHS(
+                callstack, this );
+            lhs.assign( value, false );
         } catch ( UtilEvalError e ) {
-            throw e.toEvalError( SimpleNode.JAVACODE, callstack );
+            throw e.toEvalError( SimpleNode.JAVACODE, callstack.copy() );
+        } finally {
+            CallStack.release( callstack );
         }
     }
 
@@ -560,7 +796,7 @@ public class Interpreter
             We jump through some hoops here to handle arbitrary cases like
             unset("bsh.foo");
         */
-        CallStack callstack = new CallStack();
+        CallStack callstack = CallStack.acquire();
         try {
             LHS lhs = globalNameSpace.getNameResolver( name ).toLHS(
                 callstack, this );
@@ -573,6 +809,8 @@ public class Interpreter
         } catch ( UtilEvalError e ) {
             throw new EvalError( e.getMessage(),
                 SimpleNode.JAVACODE, new CallStack(), e);
+        } finally {
+            CallStack.release( callstack );
         }
     }
 
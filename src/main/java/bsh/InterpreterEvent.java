@@ -16,24 +16,43 @@
 package bsh;
 
 /**
- *
-
+ * Something that happened in the interpreter lifecycle (see Type), with some
+ * data depending on the type:
+ * <ul>
+ *   <li>READY: the prompt for the next statement</li>
+ *   <li>BUSY: the Future executing the statement</li>
+ *   <li>DONE: the Future that executed the statement</li>
+ * </ul>
+ * Events are immutable so that they can be safely dispatched to listeners in
+ * other threads (see ste.bshell.EventBus).
  */
-public class InterpreterEvent {
+public final class InterpreterEvent {
+
+    public enum Type {
+        READY, BUSY, DONE
+    }
 
-    public static final String READY = "READY";
-    public static final String BUSY  = "BUSY" ;
-    public static final String DONE  = "DONE" ;
+    public static final Type READY = Type.READY;
+    public static final Type BUSY  = Type.BUSY;
+    public static final Type DONE  = Type.DONE;
 
-    public String type;
-    public Object data;
+    public final Type type;
+    public final Object data;
 
-    public InterpreterEvent(String type, Object data) {
+    public InterpreterEvent(Type type, Object data) {
+        if (type == null) {
+            throw new IllegalArgumentException("type can not be null");
+        }
         this.type = type;
         this.data = data;
     }
 
-    public InterpreterEvent(String type) {
+    public InterpreterEvent(Type type) {
         this(type, null);
     }
-};
+
+    @Override
+    public String toString() {
+        return type + " " + data;
+    }
+}
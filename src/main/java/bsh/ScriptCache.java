@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the statements of the most recently used scripts as parsed by
+ * Interpreter.parse(), so that scripts run over and over (e.g. by run() in a
+ * loop) are parsed once. A cached script is parsed again if the file has
+ * changed since it was parsed (i.e. its size or its modification time are
+ * different).
+ * <p>
+ * Parsed statements remember what they resolved when evaluated (e.g. the
+ * class of a typed variable), therefore they are cached per class manager
+ * and must not be evaluated under a different one or concurrently; a class
+ * manager that is discarded or reloaded must be removed from the cache (see
+ * remove()).
+ * <p>
+ * The cache holds at most MAX_SCRIPTS scripts, evicting the least recently
+ * used ones; hits and misses are counted for monitoring (see
+ * ste.bshell.management.ConsoleMetrics).
+ */
+public class ScriptCache {
+
+    public static final int MAX_SCRIPTS = 64;
+
+    private static final LongAdder HITS = new LongAdder(), MISSES = new LongAdder();
+
+    private static final Map<Key, Script> SCRIPTS = new LinkedHashMap<Key, Script>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Script> eldest) {
+            return size() > MAX_SCRIPTS;
+        }
+    };
+
+    /**
+     * Returns the parsed statements of the given script to be evaluated
+     * under the given class manager, parsing it only if not already cached
+     * for that class manager or changed since cached.
+     *
+     * @param manager the class manager the statements are evaluated with - NOT NULL
+     * @param file the script - NOT NULL
+     *
+     * @return the parsed statements
+     *
+     * @throws IOException if the file can not be read
+     * @throws ParseException if the script has syntax errors
+     */
+    public static SimpleNode[] get(BshClassManager manager, File file) throws IOException, ParseException {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager can not be null");
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        Key key = new Key(manager, file.getCanonicalPath());
+        long modified = file.lastModified(), length = file.length();
+
+        Script script;
+        synchronized (SCRIPTS) {
+            script = SCRIPTS.get(key);
+        }
+        if ((script != null) && (script.modified == modified) && (script.length == length)) {
+            HITS.increment();
+            return script.statements;
+        }
+
+        MISSES.increment();
+        try (Reader r = new BufferedReader(new FileReader(file))) {
+            script = new Script(Interpreter.parse(r, file.getAbsolutePath()), modified, length);
+        }
+        synchronized (SCRIPTS) {
+            SCRIPTS.put(key, script);
+        }
+        return script.statements;
+    }
+
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    public static int size() {
+        synchronized (SCRIPTS) {
+            return SCRIPTS.size();
+        }
+    }
+
+    /**
+     * Removes the scripts cached for the given class manager.
+     *
+     * @param manager the class manager - NOT NULL
+     */
+    public static void remove(BshClassManager manager) {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager can not be null");
+        }
+        synchronized (SCRIPTS) {
+            SCRIPTS.keySet().removeIf((key) -> key.manager == manager);
+        }
+    }
+
+    /**
+     * Empties the cache and resets the counters.
+     */
+    public static void clear() {
+        synchronized (SCRIPTS) {
+            SCRIPTS.clear();
+        }
+        HITS.reset(); MISSES.reset();
+    }
+
+    // --------------------------------------------------------------------- Key
+
+    private static class Key {
+        final BshClassManager manager;
+        final String path;
+
+        Key(BshClassManager manager, String path) {
+            this.manager = manager;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (k.manager == manager) && k.path.equals(path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*System.identityHashCode(manager) + path.hashCode();
+        }
+    }
+
+    // ------------------------------------------------------------------ Script
+
+    private static class Script {
+        final SimpleNode[] statements;
+        final long modified, length;
+
+        Script(SimpleNode[] statements, long modified, long length) {
+            this.statements = statements;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+}
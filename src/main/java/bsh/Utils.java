@@ -20,6 +20,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import ste.bshell.jfr.Recorder;
 
 /**
  *
@@ -30,13 +31,27 @@ public class Utils {
         Interpreter.debug("Sourcing file: ", file);
         Reader r = new FileReader(file);
 
+        Object event = Recorder.get().beginSource();
+        long parsed = Interpreter.getParsedStatements();
         try {
             return bsh.eval(r, ns, file.getAbsolutePath());
         } finally {
             r.close();
+            Recorder.get().endSource(
+                event, file.getAbsolutePath(), Interpreter.getParsedStatements() - parsed
+            );
         }
     }
 
+    /**
+     * @return code terminated by ';' so that its last statement does not need
+     *         it (e.g. bshell --eval "a + 1"); the ';' goes on a new line so
+     *         that it does not end up in a trailing // comment
+     */
+    public static String statements(String code) {
+        return code.trim().endsWith(";") ? code : (code + "\n;");
+    }
+
     public static String getSourceFile(CallStack callstack) {
         final String COMPILED_CODE = "<input>";
         if (callstack == null) {
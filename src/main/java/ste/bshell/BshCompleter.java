@@ -15,6 +15,7 @@
  */
 package ste.bshell;
 
+import bsh.BshConsoleInterpreter;
 import bsh.ClassIdentifier;
 import bsh.ClassPathException;
 import bsh.Interpreter;
@@ -33,6 +34,7 @@ import org.jline.reader.Completer;
 import org.jline.reader.LineReader;
 import org.jline.reader.ParsedLine;
 import org.jline.utils.AttributedString;
+import ste.bshell.jfr.Recorder;
 
 /**
  *
@@ -83,6 +85,10 @@ public class BshCompleter implements Completer {
 
     @Override
     public void complete(LineReader reader, ParsedLine pl, List<Candidate> candidates) {
+        Object event = Recorder.get().beginCompletion();
+        long start = System.nanoTime();
+        int before = candidates.size();
+
         ArrayList<String> nameList = new ArrayList<>();
         names.getMatchingNames(pl.line(), nameList);
         
@@ -92,6 +98,11 @@ public class BshCompleter implements Completer {
         for (String n : findMembers(pl.line().replaceFirst("\\.[^\\.]*$", ""))) {
             candidates.add(new Candidate(AttributedString.stripAnsi(n), n, null, null, null, null, false));
         }
+
+        Recorder.get().endCompletion(event, pl.line(), candidates.size() - before);
+        if (bsh instanceof BshConsoleInterpreter) {
+            ((BshConsoleInterpreter)bsh).getMetrics().completion(System.nanoTime() - start);
+        }
     }
 
 }
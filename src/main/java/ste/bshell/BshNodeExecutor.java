@@ -16,7 +16,11 @@
 package ste.bshell;
 
 import bsh.BshConsoleInterpreter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -28,6 +32,7 @@ import java.util.concurrent.TimeUnit;
 public class BshNodeExecutor  extends ThreadPoolExecutor {
 
     private BshConsoleInterpreter bsh;
+    private final Set<NodeFuture> jobs = ConcurrentHashMap.newKeySet();
 
     public BshNodeExecutor(BshConsoleInterpreter bsh) {
         super(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
@@ -43,7 +48,34 @@ public class BshNodeExecutor  extends ThreadPoolExecutor {
         if (callable == null) {
             throw new IllegalArgumentException("callable can not be null");
         }
-        return new NodeFuture(callable, bsh.getConsole());
+        return new NodeFuture(callable, bsh.getConsole(), bsh.getEvents());
+    }
+
+    /**
+     * @return the statements being executed, not yet done or cancelled
+     */
+    public List<NodeFuture> getJobs() {
+        List<NodeFuture> ret = new ArrayList<>();
+        for (NodeFuture f: jobs) {
+            if (!f.isDone()) {
+                ret.add(f);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof NodeFuture) {
+            jobs.add((NodeFuture)r);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        if (r instanceof NodeFuture) {
+            jobs.remove((NodeFuture)r);
+        }
     }
 
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.InterpreterEvent;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers the interpreter events to any number of listeners (status bar,
+ * metrics, loggers, plugins...) without slowing down who publishes them:
+ * publish() just adds the event to a lock free queue, which is drained by a
+ * dedicated daemon thread that notifies the listeners in publishing order.
+ * <p>
+ * Events can be published by any thread (e.g. the interpreter thread and the
+ * executor threads); listeners are always called by the dispatching thread,
+ * one event at a time, therefore they do not need to synchronize among
+ * themselves. A listener throwing an exception does not prevent the others
+ * from being notified. The dispatching thread is started by the first event
+ * published.
+ */
+public class EventBus {
+
+    public interface Listener {
+        void on(InterpreterEvent e);
+    }
+
+    private final Queue<InterpreterEvent> queue = new ConcurrentLinkedQueue<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong published = new AtomicLong(), dispatched = new AtomicLong();
+    private final Thread dispatcher;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile boolean closed = false;
+
+    public EventBus() {
+        dispatcher = new Thread(this::dispatch, "bshell-events");
+        dispatcher.setDaemon(true);
+    }
+
+    /**
+     * @param listener the listener to add - NOT NULL
+     */
+    public void subscribe(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can not be null");
+        }
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues the given event for dispatching; events published after close()
+     * are ignored.
+     *
+     * @param e the event - NOT NULL
+     */
+    public void publish(InterpreterEvent e) {
+        if (e == null) {
+            throw new IllegalArgumentException("event can not be null");
+        }
+        if (closed) {
+            return;
+        }
+        published.incrementAndGet();
+        queue.offer(e);
+        if (!started.get() && started.compareAndSet(false, true)) {
+            //
+            // started on demand, so that one-shot executions (e.g. --eval)
+            // do not pay for it
+            //
+            dispatcher.start();
+        }
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Waits until all events published so far have been dispatched.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     *
+     * @return true if all events have been dispatched, false otherwise
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDispatched(long timeout) throws InterruptedException {
+        final long target = published.get(),
+                   deadline = System.currentTimeMillis() + timeout;
+        while (dispatched.get() < target) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the dispatching once the events already published have been
+     * dispatched.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void dispatch() {
+        while (!closed || !queue.isEmpty()) {
+            InterpreterEvent e = queue.poll();
+            if (e == null) {
+                //
+                // publish() unparks after offering, so an event offered after
+                // the poll above is never missed
+                //
+                LockSupport.park(this);
+                continue;
+            }
+            for (Listener l: listeners) {
+                try {
+                    l.on(e);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+            dispatched.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measurements of the execution of a statement: when it started, how long it
+ * took, the CPU time used and the memory allocated by the executing thread
+ * and how it ended. CPU time and allocated bytes are -1 if not available
+ * (e.g. not supported by the JVM or the statement has been cancelled).
+ */
+public class ExecutionStats {
+
+    public enum Outcome {
+        SUCCESS, FAILURE, CANCELLED
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public final long start;      // epoch milliseconds
+    public final long duration;   // nanoseconds
+    public final long cpu;        // nanoseconds
+    public final long allocated;  // bytes
+    public final Outcome outcome;
+
+    public ExecutionStats(long start, long duration, long cpu, long allocated, Outcome outcome) {
+        if (outcome == null) {
+            throw new IllegalArgumentException("outcome can not be null");
+        }
+        this.start = start;
+        this.duration = duration;
+        this.cpu = cpu;
+        this.allocated = allocated;
+        this.outcome = outcome;
+    }
+
+    /**
+     * Combines the measurements of two statements executed one after the
+     * other (e.g. the statements entered on the same line): durations, CPU
+     * time and allocated bytes are summed up and the worst outcome is kept.
+     *
+     * @param next the measurements of the following statement - NOT NULL
+     *
+     * @return the combined measurements
+     */
+    public ExecutionStats merge(ExecutionStats next) {
+        if (next == null) {
+            throw new IllegalArgumentException("next can not be null");
+        }
+        return new ExecutionStats(
+            Math.min(start, next.start),
+            duration + next.duration,
+            ((cpu < 0) || (next.cpu < 0)) ? -1 : cpu + next.cpu,
+            ((allocated < 0) || (next.allocated < 0)) ? -1 : allocated + next.allocated,
+            (outcome.compareTo(next.outcome) >= 0) ? outcome : next.outcome
+        );
+    }
+
+    /**
+     * @return the CPU time used so far by the current thread in nanoseconds
+     *         or -1 if not available
+     */
+    public static long currentThreadCpuTime() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException x) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread or -1 if not
+     *         available
+     */
+    public static long currentThreadAllocatedBytes() {
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(
+                    Thread.currentThread().getId()
+                );
+            }
+        } catch (UnsupportedOperationException x) {
+            //
+            // not supported, see below
+            //
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s in %d ms (cpu: %d ms, allocated: %d bytes)",
+            outcome, duration / 1000000, (cpu < 0) ? -1 : cpu / 1000000, allocated
+        );
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The help topics packed in a single file, so that help can be shipped inside
+ * the jar instead of as a directory of loose files (see pack() and main(),
+ * which is run at build time to create RESOURCE from src/main/bshell/help).
+ * <p>
+ * A bundle is made of a table of contents followed by the topics contents,
+ * each compressed on its own:
+ * <pre>
+ * int     MAGIC
+ * int     number of topics
+ * topics  path (UTF), offset, compressed size and size (int) of each topic
+ * data    the deflated contents
+ * </pre>
+ * Opening a bundle reads the table of contents only; bundle files are memory
+ * mapped, so that a topic content is read and decompressed only when asked.
+ * Being immutable, a bundle is never rescanned and opened bundles are shared
+ * until their file changes. The bundle packed in a jar is extracted once to
+ * a file in the temporary directory, which is then mapped as well.
+ */
+public class HelpBundle extends HelpIndex {
+
+    /**
+     * The value of bshell.help (alone or followed by the path of a bundle
+     * file) to use a help bundle instead of a directory
+     */
+    public static final String SCHEME = "bundle:";
+
+    /**
+     * The help bundle packed in the classpath
+     */
+    public static final String RESOURCE = "/bshell/help.bundle";
+
+    public static final int MAGIC = 0x42534842; // BSHB
+
+    private static final Map<Path, HelpBundle> BUNDLES = new ConcurrentHashMap<>();
+
+    private static HelpBundle bundled = null;
+
+    private final ByteBuffer data;
+    private final long[] stamp;
+
+    /**
+     * @param data the bundle content - NOT NULL
+     * @param file the bundle file if any - MAY BE NULL
+     */
+    protected HelpBundle(ByteBuffer data, Path file) {
+        super(file);
+        this.data = data;
+        this.stamp = (file == null) ? null : stamp(file);
+    }
+
+    /**
+     * @return the help bundle in the classpath or null if there is none
+     *
+     * @throws IOException in case of errors reading the bundle
+     */
+    public static synchronized HelpBundle get() throws IOException {
+        if (bundled == null) {
+            URL url = HelpBundle.class.getResource(RESOURCE);
+            if (url == null) {
+                return null;
+            }
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    bundled = open(Paths.get(url.toURI()));
+                } catch (URISyntaxException x) {
+                    throw new IOException("invalid help bundle location " + url, x);
+                }
+            } else {
+                bundled = open(extract(url));
+            }
+        }
+        return bundled;
+    }
+
+    /**
+     * @param file the bundle file - NOT NULL
+     *
+     * @return the help bundle in the given file, shared by all callers until
+     *         the file changes
+     *
+     * @throws IOException in case of errors reading the bundle
+     */
+    public static HelpBundle open(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        file = file.toAbsolutePath().normalize();
+
+        HelpBundle bundle = BUNDLES.get(file);
+        if ((bundle == null) || !Arrays.equals(bundle.stamp, stamp(file))) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                bundle = new HelpBundle(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file
+                );
+            }
+            BUNDLES.put(file, bundle);
+        }
+        return bundle;
+    }
+
+    /**
+     * Packs the topics in the given help directory into a bundle file.
+     *
+     * @param dir the help directory - NOT NULL
+     * @param file the bundle file - NOT NULL
+     *
+     * @return the number of topics packed
+     *
+     * @throws IOException in case of errors reading the topics or writing the
+     *         bundle
+     */
+    public static int pack(Path dir, Path file) throws IOException {
+        if (dir == null) {
+            throw new IllegalArgumentException("dir can not be null");
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+
+        List<Topic> topics = new HelpIndex(dir).topics();
+
+        ByteArrayOutputStream toc = new ByteArrayOutputStream();
+        ByteArrayOutputStream blobs = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(toc);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] buf = new byte[8192];
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(topics.size());
+            for (Topic t: topics) {
+                byte[] content = t.getContent().getBytes(StandardCharsets.UTF_8);
+                int offset = blobs.size();
+
+                deflater.reset();
+                deflater.setInput(content);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    blobs.write(buf, 0, deflater.deflate(buf));
+                }
+
+                //
+                // paths are stored with / as separator whatever the platform
+                //
+                out.writeUTF(dir.relativize(t.path).toString().replace(t.path.getFileSystem().getSeparator(), "/"));
+                out.writeInt(offset);
+                out.writeInt(blobs.size() - offset);
+                out.writeInt(content.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, String.valueOf(file.getFileName()), ".tmp");
+        try {
+            try (DataOutputStream bundle = new DataOutputStream(Files.newOutputStream(tmp))) {
+                toc.writeTo(bundle);
+                blobs.writeTo(bundle);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        return topics.size();
+    }
+
+    /**
+     * Packs a help directory into a bundle file; used by the build to create
+     * the bundled help.
+     *
+     * @param args the help directory and the bundle file
+     *
+     * @throws IOException in case of errors
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: HelpBundle <help directory> <bundle file>");
+            return;
+        }
+        int n = pack(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("packed " + n + " help topics into " + args[1]);
+    }
+
+    /**
+     * Copies the bundle at the given URL (e.g. inside a jar) into the
+     * temporary directory, unless already there.
+     *
+     * @return the bundle file
+     */
+    static Path extract(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        final long size = connection.getContentLengthLong();
+
+        Path file = Paths.get(
+            System.getProperty("java.io.tmpdir"),
+            String.format("bshell-help-%08x-%d.bundle", url.toString().hashCode(), connection.getLastModified())
+        );
+        if ((size >= 0) && Files.isRegularFile(file) && (Files.size(file) == size)) {
+            return file;
+        }
+
+        Path tmp = Files.createTempFile(file.getParent(), String.valueOf(file.getFileName()), ".tmp");
+        try {
+            try (InputStream in = connection.getInputStream()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return file;
+    }
+
+    // ------------------------------------------------------- protected methods
+
+    @Override
+    protected boolean isStale() {
+        return false;
+    }
+
+    @Override
+    protected List<Topic> scan() throws IOException {
+        ByteBuffer toc = data.duplicate();
+        try {
+            if (toc.getInt() != MAGIC) {
+                throw new IOException("not a help bundle");
+            }
+            int n = toc.getInt();
+            List<Topic> topics = new ArrayList<>(n);
+            for (int i=0; i<n; ++i) {
+                Path path = Paths.get(readUTF(toc));
+                topics.add(new BundledTopic(path, toc.getInt(), toc.getInt(), toc.getInt()));
+            }
+            //
+            // contents start right after the table of contents
+            //
+            for (Topic t: topics) {
+                ((BundledTopic)t).offset += toc.position();
+            }
+            return topics;
+        } catch (BufferUnderflowException x) {
+            throw new IOException("corrupted help bundle", x);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static String readUTF(ByteBuffer buf) {
+        byte[] utf = new byte[buf.getShort() & 0xFFFF];
+        buf.get(utf);
+        //
+        // writeUTF() uses modified UTF-8, which differs from UTF-8 only for
+        // the NUL character and supplementary characters
+        //
+        return new String(utf, StandardCharsets.UTF_8);
+    }
+
+    // ------------------------------------------------------------ BundledTopic
+
+    private class BundledTopic extends Topic {
+        private int offset;
+        private final int compressed, size;
+
+        BundledTopic(Path path, int offset, int compressed, int size) {
+            super(path, topicName(path), -1, size);
+            this.offset = offset;
+            this.compressed = compressed;
+            this.size = size;
+        }
+
+        @Override
+        protected String read() throws IOException {
+            byte[] in = new byte[compressed];
+            ByteBuffer blob = data.duplicate();
+            blob.position(offset);
+            blob.get(in);
+
+            byte[] content = new byte[size];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(in);
+                int n = 0;
+                while ((n < size) && !inflater.finished()) {
+                    int r = inflater.inflate(content, n, size - n);
+                    if ((r == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n != size) {
+                    throw new IOException("corrupted help topic " + name);
+                }
+            } catch (DataFormatException x) {
+                throw new IOException("corrupted help topic " + name, x);
+            } finally {
+                inflater.end();
+            }
+
+            return new String(content, StandardCharsets.UTF_8);
+        }
+    }
+}
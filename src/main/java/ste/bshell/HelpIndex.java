@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The help topics available in a help directory: each .txt file in the
+ * directory tree is a topic, named after its path relative to the directory
+ * (e.g. bsh/commands/help.txt is bsh.commands.help).
+ * <p>
+ * The directory is scanned once and the topics contents are read when first
+ * needed; the index is kept in memory, one per directory (see get()), and
+ * invalidated when anything changes in the directory tree, which is watched
+ * with a WatchService. If the directory can not be watched, it is scanned
+ * each time.
+ * <p>
+ * search() looks up words in the topics contents through an inverted index
+ * (word to the topics containing it), which is built with the first search and
+ * then maintained incrementally: when the directory changes, only the topics
+ * of new or modified files are (re)indexed and the ones of deleted files are
+ * dropped.
+ */
+public class HelpIndex {
+
+    private static final Map<Path, HelpIndex> INDEXES = new ConcurrentHashMap<>();
+
+    public static final int SNIPPET_LENGTH = 76;
+
+    /**
+     * How many times the words of a topic name count with respect to the
+     * words in its content
+     */
+    private static final int NAME_WEIGHT = 3;
+
+    private final Path dir;
+
+    private List<Topic> topics = null;
+    private Map<String, List<Topic>> byName = null;
+    private Map<Path, Topic> byPath = Collections.emptyMap();
+    private final TreeMap<String, Map<Doc, Integer>> words = new TreeMap<>();
+    private final Set<Topic> searchable = new HashSet<>();
+    private WatchService watcher = null;
+    private boolean watched = false;
+
+    /**
+     * @param dir the help directory - NOT NULL
+     *
+     * @return the index of the given directory, shared by all callers
+     */
+    public static HelpIndex get(Path dir) {
+        if (dir == null) {
+            throw new IllegalArgumentException("dir can not be null");
+        }
+        return INDEXES.computeIfAbsent(dir.toAbsolutePath().normalize(), HelpIndex::new);
+    }
+
+    protected HelpIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @return all topics ordered by path
+     *
+     * @throws IOException in case of errors scanning the directory
+     */
+    public synchronized List<Topic> topics() throws IOException {
+        ensureIndexed();
+        return topics;
+    }
+
+    /**
+     * @param name the name of the file of the topic without extension (e.g.
+     *             help for bsh.commands.help) - NOT NULL
+     *
+     * @return the topics with the given name ordered by path
+     *
+     * @throws IOException in case of errors scanning the directory
+     */
+    public synchronized List<Topic> find(String name) throws IOException {
+        ensureIndexed();
+        List<Topic> found = byName.get(name);
+        return (found == null) ? Collections.<Topic>emptyList() : found;
+    }
+
+    /**
+     * Searches the topics containing the words in the given query, or words
+     * starting with them, ignoring case. Topics matching more query words come
+     * first, then the ones with the higher score, which favours words in the
+     * topic name, frequent in the topic and rare in the other topics.
+     *
+     * @param query the words to look for - NOT NULL
+     * @param max the maximum number of results
+     *
+     * @return the matching topics, best first
+     *
+     * @throws IOException in case of errors reading the topics
+     */
+    public List<Hit> search(String query, int max) throws IOException {
+        return search(query, Collections.<String, String>emptyMap(), max);
+    }
+
+    /**
+     * Like search(String, int) but considering also the given additional
+     * topics, like the usage strings registered in bsh.help, which are not
+     * files and change too often to be worth indexing.
+     *
+     * @param query the words to look for - NOT NULL
+     * @param more additional topics as name to content - NOT NULL
+     * @param max the maximum number of results
+     *
+     * @return the matching topics, best first
+     *
+     * @throws IOException in case of errors reading the topics
+     */
+    public synchronized List<Hit> search(String query, Map<String, String> more, int max)
+    throws IOException {
+        if (query == null) {
+            throw new IllegalArgumentException("query can not be null");
+        }
+        if (more == null) {
+            throw new IllegalArgumentException("more can not be null");
+        }
+        ensureIndexed();
+        ensureSearchable();
+
+        List<Doc> extra = new ArrayList<>();
+        for (Map.Entry<String, String> e: more.entrySet()) {
+            extra.add(new Text(e.getKey(), String.valueOf(e.getValue())));
+        }
+
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        final int n = searchable.size() + extra.size();
+        final Map<Doc, double[]> scores = new HashMap<>(); // {matched terms, score}
+
+        for (String term: terms) {
+            Map<Doc, Integer> matches = new HashMap<>();
+            for (Map.Entry<String, Map<Doc, Integer>> w: words.subMap(term, term + Character.MAX_VALUE).entrySet()) {
+                collect(matches, w.getKey(), term, w.getValue());
+            }
+            for (Doc d: extra) {
+                for (Map.Entry<String, Integer> w: d.terms().entrySet()) {
+                    if (w.getKey().startsWith(term)) {
+                        collect(matches, w.getKey(), term, Collections.singletonMap(d, w.getValue()));
+                    }
+                }
+            }
+
+            final double idf = Math.log(1.0 + (double)n / Math.max(1, matches.size()));
+            for (Map.Entry<Doc, Integer> m: matches.entrySet()) {
+                double[] s = scores.computeIfAbsent(m.getKey(), (k) -> new double[2]);
+                s[0] += 1;
+                //
+                // exact matches weigh twice as much as prefix matches, see
+                // collect()
+                //
+                s[1] += (1 + Math.log(m.getValue() / 2.0 + 0.5)) * idf;
+            }
+        }
+
+        List<Map.Entry<Doc, double[]>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort((a, b) -> {
+            int c = Double.compare(b.getValue()[0], a.getValue()[0]);
+            if (c == 0) {
+                c = Double.compare(b.getValue()[1], a.getValue()[1]);
+            }
+            return (c == 0) ? a.getKey().title().compareTo(b.getKey().title()) : c;
+        });
+
+        List<Hit> hits = new ArrayList<>();
+        for (Map.Entry<Doc, double[]> r: ranked.subList(0, Math.min(Math.max(0, max), ranked.size()))) {
+            Doc d = r.getKey();
+            hits.add(new Hit(d.title(), r.getValue()[1], snippet(d.content(), terms)));
+        }
+
+        return hits;
+    }
+
+    /**
+     * Invalidates the index, which will be rebuilt when next used.
+     */
+    public synchronized void invalidate() {
+        topics = null; byName = null;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void ensureIndexed() throws IOException {
+        if (isStale()) {
+            invalidate();
+        }
+        if (topics != null) {
+            return;
+        }
+
+        List<Topic> topics = scan();
+        Map<String, List<Topic>> byName = new HashMap<>();
+        Map<Path, Topic> byPath = new HashMap<>();
+        for (Topic t: topics) {
+            byPath.put(t.path, t);
+            byName.computeIfAbsent(
+                StringUtils.removeEnd(String.valueOf(t.path.getFileName()), ".txt"),
+                (k) -> new ArrayList<>()
+            ).add(t);
+        }
+
+        this.topics = Collections.unmodifiableList(topics);
+        this.byName = byName;
+        this.byPath = byPath;
+    }
+
+    /**
+     * @return true if anything changed in the help directory since the last
+     *         scan (always true if the directory is not watched)
+     */
+    protected boolean isStale() {
+        if (!watched) {
+            return true;
+        }
+
+        boolean stale = false;
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            if (!key.pollEvents().isEmpty()) {
+                stale = true;
+            }
+            key.reset();
+        }
+        return stale;
+    }
+
+    /**
+     * @return the topics in the help directory ordered by path
+     *
+     * @throws IOException in case of errors scanning the directory
+     */
+    protected List<Topic> scan() throws IOException {
+        List<Topic> topics = new ArrayList<>();
+        List<Path> dirs = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted().forEachOrdered((p) -> {
+                if (Files.isDirectory(p)) {
+                    dirs.add(p);
+                } else if (Files.isRegularFile(p) && p.toString().endsWith(".txt")) {
+                    long[] stamp = stamp(p);
+                    //
+                    // unchanged files keep their topic, so that neither their
+                    // content nor their words are read again
+                    //
+                    Topic t = byPath.get(p);
+                    if ((t == null) || (t.modified != stamp[0]) || (t.size != stamp[1])) {
+                        t = new Topic(p, topicName(dir.relativize(p)), stamp[0], stamp[1]);
+                    }
+                    topics.add(t);
+                }
+            });
+        }
+
+        watch(dirs);
+
+        return topics;
+    }
+
+    /**
+     * @param path the path of a help file relative to the help directory
+     *
+     * @return the name of the topic (e.g. bsh.commands.help for
+     *         bsh/commands/help.txt)
+     */
+    static String topicName(Path path) {
+        return StringUtils.removeEnd(path.toString(), ".txt")
+               .replace(path.getFileSystem().getSeparator(), ".");
+    }
+
+    /**
+     * Brings the words index in line with the current topics; nothing is done
+     * until the first search.
+     */
+    private void ensureSearchable() throws IOException {
+        Set<Topic> current = new HashSet<>(topics);
+        for (Topic t: new ArrayList<>(searchable)) {
+            if (!current.contains(t)) {
+                for (String word: t.terms().keySet()) {
+                    Map<Doc, Integer> docs = words.get(word);
+                    docs.remove(t);
+                    if (docs.isEmpty()) {
+                        words.remove(word);
+                    }
+                }
+                searchable.remove(t);
+            }
+        }
+        for (Topic t: topics) {
+            if (searchable.add(t)) {
+                for (Map.Entry<String, Integer> w: t.terms().entrySet()) {
+                    words.computeIfAbsent(w.getKey(), (k) -> new HashMap<>()).put(t, w.getValue());
+                }
+            }
+        }
+    }
+
+    private static void collect(Map<Doc, Integer> matches, String word, String term, Map<Doc, Integer> docs) {
+        int weight = word.equals(term) ? 2 : 1;
+        for (Map.Entry<Doc, Integer> d: docs.entrySet()) {
+            matches.merge(d.getKey(), d.getValue() * weight, Integer::sum);
+        }
+    }
+
+    /**
+     * @return the first line of text containing most of the given terms (or
+     *         the first non blank line), cut to SNIPPET_LENGTH characters
+     */
+    private static String snippet(String text, Set<String> terms) {
+        String best = null; int bestCount = 0;
+        for (String line: text.split("\\R")) {
+            if ((best == null) && !line.trim().isEmpty()) {
+                best = line; // if nothing better, the first line
+            }
+            String l = line.toLowerCase();
+            int count = 0;
+            for (String term: terms) {
+                if (l.contains(term)) {
+                    ++count;
+                }
+            }
+            if (count > bestCount) {
+                best = line; bestCount = count;
+            }
+        }
+        best = (best == null) ? "" : best.trim();
+        return (best.length() > SNIPPET_LENGTH)
+             ? best.substring(0, SNIPPET_LENGTH - 3) + "..."
+             : best;
+    }
+
+    /**
+     * @return the lower case words of at least two letters or digits in text
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i=0; i<=text.length(); ++i) {
+            if ((i < text.length()) && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                if (i - start > 1) {
+                    tokens.add(text.substring(start, i).toLowerCase());
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the last modified time and the size of the given file, or -1s if
+     *         they can not be read
+     */
+    static long[] stamp(Path p) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            return new long[] { a.lastModifiedTime().toMillis(), a.size() };
+        } catch (IOException x) {
+            return new long[] { -1, -1 };
+        }
+    }
+
+    /**
+     * (Re)registers the given directories with the watch service; directories
+     * already registered are not registered twice by the WatchService.
+     */
+    private void watch(List<Path> dirs) {
+        try {
+            if (watcher == null) {
+                watcher = dir.getFileSystem().newWatchService();
+            }
+            for (Path d: dirs) {
+                d.register(
+                    watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY
+                );
+            }
+            watched = true;
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException x) {
+            //
+            // without a watch service, the directory is scanned each time
+            //
+            watched = false;
+        }
+    }
+
+    // --------------------------------------------------------------------- Doc
+
+    /**
+     * Something searchable: a title and a text.
+     */
+    private static abstract class Doc {
+        private Map<String, Integer> terms = null;
+
+        abstract String title();
+
+        abstract String content() throws IOException;
+
+        /**
+         * @return the words of title and content with their frequencies
+         */
+        Map<String, Integer> terms() throws IOException {
+            if (terms == null) {
+                Map<String, Integer> t = new HashMap<>();
+                for (String word: tokenize(content())) {
+                    t.merge(word, 1, Integer::sum);
+                }
+                for (String word: tokenize(title())) {
+                    t.merge(word, NAME_WEIGHT, Integer::sum);
+                }
+                terms = t;
+            }
+            return terms;
+        }
+    }
+
+    /**
+     * A searchable text not backed by a file
+     */
+    private static class Text extends Doc {
+        private final String title, content;
+
+        Text(String title, String content) {
+            this.title = title;
+            this.content = content;
+        }
+
+        @Override
+        String title() {
+            return title;
+        }
+
+        @Override
+        String content() {
+            return content;
+        }
+    }
+
+    // ------------------------------------------------------------------- Topic
+
+    /**
+     * A help topic; its content is read once, when first needed.
+     */
+    public static class Topic extends Doc {
+        public final Path path;
+        public final String name;
+
+        private final long modified, size;
+        private String content = null;
+
+        Topic(Path path, String name, long modified, long size) {
+            this.path = path;
+            this.name = name;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        public synchronized String getContent() throws IOException {
+            if (content == null) {
+                content = read();
+            }
+            return content;
+        }
+
+        /**
+         * @return the content of the topic
+         *
+         * @throws IOException in case of read errors
+         */
+        protected String read() throws IOException {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        String title() {
+            return name;
+        }
+
+        @Override
+        String content() throws IOException {
+            return getContent();
+        }
+    }
+
+    // --------------------------------------------------------------------- Hit
+
+    /**
+     * A search result: the name of the topic found, its score and the line
+     * of its content that best matches the query.
+     */
+    public static class Hit {
+        public final String name;
+        public final double score;
+        public final String snippet;
+
+        Hit(String name, double score, String snippet) {
+            this.name = name;
+            this.score = score;
+            this.snippet = snippet;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + snippet;
+        }
+    }
+}
@@ -17,9 +17,6 @@ package ste.bshell;
 
 import bsh.ConsoleInterface;
 import bsh.InterpreterEvent;
-import static bsh.InterpreterEvent.BUSY;
-import static bsh.InterpreterEvent.DONE;
-import static bsh.InterpreterEvent.READY;
 import java.io.IOException;
 import java.io.PipedReader;
 import java.io.PipedWriter;
@@ -27,11 +24,15 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import org.jline.utils.AttributedString;
 import org.jline.utils.AttributedStyle;
 import org.jline.utils.Status;
+import ste.bshell.jfr.Recorder;
 import ste.bshell.jline.BshLineReader;
+import ste.bshell.management.ConsoleMetrics;
 
 /**
  *
@@ -44,7 +45,8 @@ public class JLineConsole implements ConsoleInterface {
     public PipedWriter pipe = null;
 
     private Reader in = null;
-    private List<Future> tasks = new ArrayList<>();
+    private final Queue<Future> tasks = new ConcurrentLinkedQueue<>();
+    private ConsoleMetrics metrics = null;
 
     public JLineConsole(BshLineReader reader) throws IOException {
         this.lineReader = reader;
@@ -55,16 +57,24 @@ public class JLineConsole implements ConsoleInterface {
     }
 
     public void on(InterpreterEvent e) {
-        if (READY.equals(e.type)) {
-            status(READY);
-            lineReader.setPrompt((String)e.data);
-            lineReader.redisplay();
-        } else if (BUSY.equals(e.type)) {
-            tasks.add((Future)e.data);
-            status(BUSY);
-        } else if (DONE.equals(e.type)) {
-            tasks.remove((Future)e.data);
-            status(READY);
+        switch (e.type) {
+            case READY:
+                status("READY");
+                lineReader.setPrompt((String)e.data);
+                lineReader.redisplay();
+                break;
+            case BUSY:
+                if (e.data != null) {
+                    tasks.add((Future)e.data);
+                }
+                status("BUSY");
+                break;
+            case DONE:
+                if (e.data != null) {
+                    tasks.remove((Future)e.data);
+                }
+                status("READY");
+                break;
         }
     }
 
@@ -75,6 +85,8 @@ public class JLineConsole implements ConsoleInterface {
      * @param msg - the status message to display
      */
     private synchronized void status(String msg) {
+        Object event = Recorder.get().beginStatus();
+
         Status status = Status.getStatus(lineReader.getTerminal());
         List<AttributedString> lines = new ArrayList<>();
 
@@ -88,9 +100,11 @@ public class JLineConsole implements ConsoleInterface {
 
         String statusLine = new String(msg + "\t| ");
         StringBuilder tasksString = new StringBuilder();
+        int n = 0;
         for(Future f: tasks) {
             if (!f.isDone()) {
                 tasksString.append(" T" + f.hashCode() + " ");
+                ++n;
             }
         }
 
@@ -105,12 +119,25 @@ public class JLineConsole implements ConsoleInterface {
         );
         status.update(lines);
         status.redraw();
+
+        Recorder.get().endStatus(event, msg, n);
     }
 
     public boolean isValid() {
         return (pipe != null);
     }
 
+    /**
+     * @param metrics where to count the output bytes - MAY BE NULL
+     */
+    public void setMetrics(ConsoleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ConsoleMetrics getMetrics() {
+        return metrics;
+    }
+
     // -------------------------------------------------------- ConsoleInterface
 
     @Override
@@ -131,18 +158,29 @@ public class JLineConsole implements ConsoleInterface {
     @Override
     public void println(Object o) {
         System.out.println(o); System.out.flush();
+        count(o, true);
     }
 
     @Override
     public void print(Object o) {
         System.out.print(o); System.out.flush();
+        count(o, false);
     }
 
     @Override
     public void error(Object o) {
        System.err.println(o);
+       count(o, true);
     }
 
     // --------------------------------------------------------- private methods
 
+    private void count(Object o, boolean newLine) {
+        if (metrics != null) {
+            metrics.output(String.valueOf(o));
+            if (newLine) {
+                metrics.output(System.lineSeparator());
+            }
+        }
+    }
 }
@@ -17,27 +17,156 @@ package ste.bshell;
 
 import bsh.InterpreterEvent;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
+import org.jline.reader.History;
+import ste.bshell.ExecutionStats.Outcome;
+import ste.bshell.jfr.Recorder;
+import ste.bshell.jline.IndexedHistory;
 
 /**
+ * A statement submitted for execution. Its execution is measured (see
+ * getStats()) and, if the console keeps an IndexedHistory, the measurements
+ * are recorded along with the history entry that completed the statement;
+ * the statements entered on the same line share that entry and are recorded
+ * as a single execution (see HistoryStats.record()).
  *
  * @param <T> return value type
  */
 public class NodeFuture<T> extends FutureTask<T> {
 
     final private JLineConsole console;
+    final private EventBus events;
+    final private History.Entry source;
+    final private Statement statement;
 
-    public NodeFuture(Callable<T> callable, JLineConsole console) {
+    private volatile Thread runner;
+    private long start, startNanos, startCpu, startAllocated;
+    private volatile ExecutionStats stats;
+    private volatile Object event;
+
+    public NodeFuture(Callable<T> callable, JLineConsole console, EventBus events) {
         super(callable);
         if (console == null) {
             throw new NullPointerException("console can not be null");
         }
+        if (events == null) {
+            throw new NullPointerException("events can not be null");
+        }
         this.console = console;
+        this.events = events;
+        this.statement = (callable instanceof Statement) ? (Statement)callable : null;
+
+        History history = console.lineReader.getHistory();
+        this.source = (history instanceof IndexedHistory)
+                    ? ((IndexedHistory)history).getLastAdded()
+                    : null;
+    }
+
+    @Override
+    public void run() {
+        start = System.currentTimeMillis();
+        startCpu = ExecutionStats.currentThreadCpuTime();
+        startAllocated = ExecutionStats.currentThreadAllocatedBytes();
+        startNanos = System.nanoTime();
+        runner = Thread.currentThread();
+        event = Recorder.get().beginStatement();
+
+        super.run();
+    }
+
+    /**
+     * @return the measurements of the execution or null if not completed yet
+     */
+    public ExecutionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the history entry that completed the statement or null if not
+     *         available
+     */
+    public History.Entry getSource() {
+        return source;
+    }
+
+    /**
+     * @return the text of the statement or null if not available (i.e. the
+     *         callable is not a Statement)
+     */
+    public String getStatement() {
+        return (statement == null) ? null : statement.getText();
     }
 
     @Override
     protected void done() {
-        console.on(new InterpreterEvent("DONE", this));
+        stats = measure();
+        Recorder.get().endStatement(
+            event,
+            Recorder.isAvailable() ? getStatement() : null,
+            hashCode(), stats.outcome.name()
+        );
+        if (source != null) {
+            History history = console.lineReader.getHistory();
+            if (history instanceof IndexedHistory) {
+                ((IndexedHistory)history).record(source, stats);
+            }
+        }
+        events.publish(new InterpreterEvent(InterpreterEvent.DONE, this));
+    }
+
+    // ---------------------------------------------------------------- Statement
+
+    /**
+     * What executes a statement, providing its text (e.g. to identify the
+     * statement in the recorded events, see Recorder.endStatement())
+     *
+     * @param <T> return value type
+     */
+    public interface Statement<T> extends Callable<T> {
+        /**
+         * @return the text of the statement
+         */
+        String getText();
     }
 
+    // --------------------------------------------------------- private methods
+
+    private ExecutionStats measure() {
+        if (runner == null) {
+            //
+            // cancelled before running
+            //
+            return new ExecutionStats(System.currentTimeMillis(), 0, 0, 0, Outcome.CANCELLED);
+        }
+
+        final long duration = System.nanoTime() - startNanos;
+        long cpu = -1, allocated = -1;
+        if (runner == Thread.currentThread()) {
+            //
+            // done() is called by the executing thread unless cancelled
+            //
+            long now = ExecutionStats.currentThreadCpuTime();
+            if ((now >= 0) && (startCpu >= 0)) {
+                cpu = now - startCpu;
+            }
+            now = ExecutionStats.currentThreadAllocatedBytes();
+            if ((now >= 0) && (startAllocated >= 0)) {
+                allocated = now - startAllocated;
+            }
+        }
+
+        Outcome outcome = Outcome.SUCCESS;
+        if (isCancelled()) {
+            outcome = Outcome.CANCELLED;
+        } else {
+            try {
+                get();
+            } catch (ExecutionException | InterruptedException x) {
+                outcome = Outcome.FAILURE;
+            }
+        }
+
+        return new ExecutionStats(start, duration, cpu, allocated, outcome);
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.CallStacks;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A sampling profiler of BeanShell code: while running, it takes a sample
+ * of the script level call stacks of all threads evaluating BeanShell code
+ * every given interval (see bsh.CallStacks) and counts how many times each
+ * distinct stack has been seen. Since stacks are made of methods and source
+ * lines rather than of the interpreter's Java frames, it shows where the time
+ * goes in the scripts.
+ * <p>
+ * Samples are taken regardless of what the thread is doing (e.g. waiting),
+ * therefore counts are proportional to the elapsed time.
+ * <p>
+ * write() produces the collapsed stacks format (one line per distinct stack
+ * with the frames separated by ; followed by the count) taken by flame graph
+ * tools, e.g. flamegraph.pl.
+ */
+public class Profiler {
+
+    public static final long DEFAULT_INTERVAL = 10; // milliseconds
+
+    private final long interval;
+    private final Map<String, Long> samples = new HashMap<>();
+
+    private Thread sampler = null;
+
+    /**
+     * @param interval the sampling interval in milliseconds - greater than 0
+     */
+    public Profiler(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be greater than zero");
+        }
+        this.interval = interval;
+    }
+
+    public Profiler() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Starts sampling in a background thread; does nothing if already started.
+     *
+     * @return this profiler
+     */
+    public synchronized Profiler start() {
+        if (sampler == null) {
+            CallStacks.track(true);
+            sampler = new Thread("bshell-profiler") {
+                @Override
+                public void run() {
+                    while (!isInterrupted()) {
+                        try {
+                            Thread.sleep(interval);
+                        } catch (InterruptedException x) {
+                            break;
+                        }
+                        sample();
+                    }
+                }
+            };
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stops sampling; the samples taken so far are kept.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if ((t = sampler) == null) {
+                return;
+            }
+            sampler = null;
+        }
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        CallStacks.track(false);
+    }
+
+    /**
+     * Takes a sample of the tracked call stacks.
+     */
+    public void sample() {
+        for (String[] frames: CallStacks.frames()) {
+            if (frames.length > 0) {
+                for (int i=0; i<frames.length; ++i) {
+                    frames[i] = sanitize(frames[i]);
+                }
+                String stack = String.join(";", frames);
+                synchronized (samples) {
+                    samples.merge(stack, 1L, Long::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of samples of each distinct stack, by stack
+     */
+    public Map<String, Long> getSamples() {
+        synchronized (samples) {
+            return new TreeMap<>(samples);
+        }
+    }
+
+    /**
+     * Writes the samples in collapsed stack format.
+     *
+     * @param out where to write - NOT NULL
+     *
+     * @return the number of samples written
+     *
+     * @throws IOException in case of write errors
+     */
+    public long write(Appendable out) throws IOException {
+        long n = 0;
+        for (Map.Entry<String, Long> e: getSamples().entrySet()) {
+            out.append(e.getKey()).append(' ').append(String.valueOf(e.getValue())).append('\n');
+            n += e.getValue();
+        }
+        return n;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Frames can not contain the frame separator nor line breaks (e.g. in the
+     * source of inline evaluations).
+     */
+    private static String sanitize(String frame) {
+        return frame.replace(';', ',').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.Primitive;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Renders the results of the evaluated statements in a bounded way: only the
+ * first elements of collections, maps and arrays are displayed, nested
+ * containers are displayed up to a given depth and the overall text is cut at
+ * a maximum length. Rendering stops as soon as the maximum length is reached,
+ * so that huge values are never fully converted into a string.
+ * <p>
+ * render(Object, long) performs the rendering in a separate thread so that an
+ * expensive toString() can not hang the interpreter; if the rendering takes
+ * longer than the given time budget it is interrupted and a placeholder is
+ * returned instead. The full value can always be displayed on demand with the
+ * expand() command.
+ * <p>
+ * Renderings are done by a single thread, started the first time it is
+ * needed; render(Object) does not need it. If a rendering that timed out does
+ * not stop when interrupted (e.g. a toString() that ignores interruptions),
+ * no other value is rendered until it completes, so that stuck renderings
+ * can not pile up threads.
+ */
+public class ResultRenderer {
+
+    public static final int  DEFAULT_MAX_ELEMENTS = 100;
+    public static final int  DEFAULT_MAX_DEPTH    = 3;
+    public static final int  DEFAULT_MAX_LENGTH   = 4096;
+    public static final long DEFAULT_TIMEOUT      = 500;  // milliseconds
+
+    /**
+     * How long (in milliseconds) to wait for a previous rendering to complete
+     * before giving up rendering a new value
+     */
+    public static final long STUCK_GRACE = 100;
+
+    private int maxElements = DEFAULT_MAX_ELEMENTS;
+    private int maxDepth    = DEFAULT_MAX_DEPTH;
+    private int maxLength   = DEFAULT_MAX_LENGTH;
+    private long timeout    = DEFAULT_TIMEOUT;
+
+    private ThreadPoolExecutor executor = null; // created on first use
+
+    private final Object lock = new Object();
+    private boolean busy = false; // guarded by lock
+
+    public ResultRenderer() {
+    }
+
+    public ResultRenderer(int maxElements, int maxDepth, int maxLength) {
+        setMaxElements(maxElements);
+        setMaxDepth(maxDepth);
+        setMaxLength(maxLength);
+    }
+
+    /**
+     * Renders the given value in the calling thread, within the configured
+     * bounds.
+     *
+     * @param value the value to render - MAY BE NULL
+     *
+     * @return the bounded text representation of value
+     */
+    public String render(Object value) {
+        Output out = new Output(maxLength);
+        try {
+            renderValue(out, value, 0, new IdentityHashMap<Object, Object>());
+        } catch (Output.Full x) {
+            out.truncated();
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders the given value in a separate thread giving up after timeout
+     * milliseconds.
+     *
+     * @param value the value to render - MAY BE NULL
+     * @param timeout the time budget in milliseconds; if 0 or negative, the
+     *                rendering is not bounded in time
+     *
+     * @return the bounded text representation of value or a placeholder if
+     *         the rendering did not complete in time
+     */
+    public synchronized String render(final Object value, final long timeout) {
+        if (!awaitIdle(STUCK_GRACE)) {
+            return "(... not rendered, a previous rendering is still running ...)";
+        }
+        Future<String> f = executor().submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                synchronized (lock) {
+                    busy = true;
+                }
+                try {
+                    return render(value);
+                } finally {
+                    synchronized (lock) {
+                        busy = false;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        });
+        try {
+            return (timeout > 0) ? f.get(timeout, TimeUnit.MILLISECONDS) : f.get();
+        } catch (TimeoutException x) {
+            f.cancel(true);
+            return "(... rendering timed out after " + timeout + " ms ...)";
+        } catch (InterruptedException x) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            return "(... rendering interrupted ...)";
+        } catch (ExecutionException x) {
+            return "(... rendering failed: " + x.getCause() + " ...)";
+        }
+    }
+
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    public void setMaxElements(int maxElements) {
+        if (maxElements < 0) {
+            throw new IllegalArgumentException("maxElements can not be negative");
+        }
+        this.maxElements = maxElements;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth can not be negative");
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public void setMaxLength(int maxLength) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be greater than zero");
+        }
+        this.maxLength = maxLength;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * The rendering thread is needed only by render(Object, long), therefore
+     * renderers used only synchronously (e.g. by expand()) never start one.
+     */
+    private ThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(
+                1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "bshell-renderer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }
+            );
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Waits up to the given milliseconds for the rendering thread to be idle.
+     *
+     * @return true if the rendering thread is idle
+     */
+    private boolean awaitIdle(long millis) {
+        long end = System.currentTimeMillis() + millis;
+        synchronized (lock) {
+            long left;
+            while (busy && ((left = end - System.currentTimeMillis()) > 0)) {
+                try {
+                    lock.wait(left);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return !busy;
+        }
+    }
+
+    private void renderValue(Output out, Object value, int depth, Map<Object, Object> seen) {
+        if (value == Primitive.VOID) {
+            out.append("void");
+            return;
+        }
+        if (value instanceof Primitive) {
+            value = ((Primitive)value).getValue();
+        }
+        if ((value == null) || (value == Primitive.NULL)) {
+            out.append("null");
+        } else if (value instanceof Collection) {
+            renderContainer(out, value, ((Collection)value).size(), ((Collection)value).iterator(), depth, seen);
+        } else if (value instanceof Map) {
+            renderContainer(out, value, ((Map)value).size(), ((Map)value).entrySet().iterator(), depth, seen);
+        } else if (value.getClass().isArray()) {
+            renderContainer(out, value, Array.getLength(value), new ArrayIterator(value), depth, seen);
+        } else if (depth == 0) {
+            out.append(typeName(value)).append(": ");
+            renderLeaf(out, value);
+        } else {
+            renderLeaf(out, value);
+        }
+    }
+
+    private void renderContainer(
+        Output out, Object container, int size, Iterator i, int depth, Map<Object, Object> seen
+    ) {
+        if (depth >= maxDepth) {
+            out.append(typeName(container)).append("[size=").append(String.valueOf(size)).append("]");
+            return;
+        }
+        if (depth == 0) {
+            out.append(typeName(container)).append("[size=").append(String.valueOf(size)).append("]: ");
+        }
+        if (seen.containsKey(container)) {
+            out.append("(this ").append(typeName(container)).append(")");
+            return;
+        }
+
+        seen.put(container, container);
+        out.append((container instanceof Map) ? "{" : "[");
+        int n = 0;
+        while (i.hasNext() && (n < maxElements)) {
+            if (n++ > 0) {
+                out.append(", ");
+            }
+            Object element = i.next();
+            if (element instanceof Map.Entry) {
+                Map.Entry e = (Map.Entry)element;
+                renderValue(out, e.getKey(), depth+1, seen);
+                out.append("=");
+                renderValue(out, e.getValue(), depth+1, seen);
+            } else {
+                renderValue(out, element, depth+1, seen);
+            }
+        }
+        if (size > n) {
+            out.append((n > 0) ? ", " : "").append("... (").append(String.valueOf(size-n)).append(" more)");
+        }
+        out.append((container instanceof Map) ? "}" : "]");
+        seen.remove(container);
+    }
+
+    private void renderLeaf(Output out, Object value) {
+        if (value instanceof CharSequence) {
+            out.append("\"").append((CharSequence)value).append("\"");
+        } else if (value instanceof Character) {
+            out.append("'").append(String.valueOf(value)).append("'");
+        } else {
+            out.append(String.valueOf(value));
+        }
+    }
+
+    private String typeName(Object value) {
+        return value.getClass().getSimpleName();
+    }
+
+    // ----------------------------------------------------------- ArrayIterator
+
+    private static class ArrayIterator implements Iterator<Object> {
+        private final Object array;
+        private final int length;
+        private int i = 0;
+
+        public ArrayIterator(Object array) {
+            this.array = array;
+            this.length = Array.getLength(array);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return i < length;
+        }
+
+        @Override
+        public Object next() {
+            return Array.get(array, i++);
+        }
+    }
+
+    // ------------------------------------------------------------------ Output
+
+    /**
+     * A text buffer that refuses to grow beyond a given length; once full,
+     * any further append() aborts the rendering with Full.
+     */
+    private static class Output {
+        private final StringBuilder sb = new StringBuilder();
+        private final int max;
+
+        public Output(int max) {
+            this.max = max;
+        }
+
+        public Output append(CharSequence s) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new Full();
+            }
+            int room = max - sb.length();
+            if (s.length() > room) {
+                sb.append(s, 0, room);
+                throw new Full();
+            }
+            sb.append(s);
+            return this;
+        }
+
+        public void truncated() {
+            sb.append(" ... (truncated)");
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+
+        private static class Full extends RuntimeException {
+            public Full() {
+                super(null, null, false, false);
+            }
+        }
+    }
+}
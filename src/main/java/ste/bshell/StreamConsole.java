@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.ConsoleInterface;
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.ParseException;
+import bsh.TargetError;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+
+/**
+ * A console for non interactive executions (e.g. scripts run in a pipeline):
+ * output is buffered and flushed only when the buffer is full, before
+ * errors are displayed and by flush(), so that printing many small strings
+ * does not cost a system call each.
+ */
+public class StreamConsole implements ConsoleInterface {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64*1024;
+
+    private final Reader in;
+    private final PrintStream out, err;
+
+    /**
+     * @param in the input - MAY BE NULL
+     * @param out the output; it should not flush automatically - NOT NULL
+     * @param err the error output - NOT NULL
+     */
+    public StreamConsole(Reader in, PrintStream out, PrintStream err) {
+        if (out == null) {
+            throw new IllegalArgumentException("out can not be null");
+        }
+        if (err == null) {
+            throw new IllegalArgumentException("err can not be null");
+        }
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * @param out the stream to buffer (e.g. System.out) - NOT NULL
+     *
+     * @return a buffered, not automatically flushed, stream writing in out
+     */
+    public static PrintStream buffered(OutputStream out) {
+        return new PrintStream(new BufferedOutputStream(out, DEFAULT_BUFFER_SIZE), false);
+    }
+
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * Evaluates the statements read from in one after the other, stopping at
+     * the first error, which is displayed in this console; the output is
+     * flushed at the end.
+     *
+     * @param bsh the interpreter - NOT NULL
+     * @param in the statements - NOT NULL
+     * @param ns the namespace to evaluate the statements in - NOT NULL
+     * @param source where the statements come from (e.g. a file name)
+     * @param printResult true to print the value of the last statement, if any
+     *
+     * @return 0 if all statements were evaluated successfully, 1 otherwise
+     */
+    public int batch(Interpreter bsh, Reader in, NameSpace ns, String source, boolean printResult) {
+        try {
+            Object ret = bsh.eval(in, ns, source);
+            if (printResult && (ret != null)) {
+                println(ret);
+            }
+            return 0;
+        } catch (ParseException x) {
+            error("Parser Error: " + x.getMessage());
+        } catch (TargetError x) {
+            error("Target Exception: " + x.getMessage());
+        } catch (EvalError x) {
+            error("Evaluation Error: " + x.getMessage());
+        } finally {
+            flush();
+        }
+
+        return 1;
+    }
+
+    // -------------------------------------------------------- ConsoleInterface
+
+    @Override
+    public Reader getIn() {
+        return in;
+    }
+
+    @Override
+    public PrintStream getOut() {
+        return out;
+    }
+
+    @Override
+    public PrintStream getErr() {
+        return err;
+    }
+
+    @Override
+    public void println(Object o) {
+        out.println(o);
+    }
+
+    @Override
+    public void print(Object o) {
+        out.print(o);
+    }
+
+    @Override
+    public void error(Object o) {
+        //
+        // keep the output in order with the errors
+        //
+        out.flush();
+        err.println(o);
+        err.flush();
+    }
+}
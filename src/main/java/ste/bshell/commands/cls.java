@@ -24,8 +24,11 @@ import bsh.Interpreter;
  */
 public class cls {
     public static void invoke(Interpreter i, CallStack callstack) {
-        BshConsoleInterpreter bsh = (BshConsoleInterpreter)i;
-
-        bsh.getConsole().print("\033[2J\033[1;1H");
+        //
+        // nothing to clear without a console (e.g. in a daemon session)
+        //
+        if ((i instanceof BshConsoleInterpreter) && (((BshConsoleInterpreter)i).getConsole() != null)) {
+            ((BshConsoleInterpreter)i).getConsole().print("\033[2J\033[1;1H");
+        }
     }
 }
@@ -13,23 +13,24 @@
  * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
  * THIS SOFTWARE OR ITS DERIVATIVES.
  */
-package bsh.commands;
+package ste.bshell.commands;
 
-import bsh.BshConsoleInterpreter;
-import bsh.This;
-import static org.assertj.core.api.BDDAssertions.then;
-import org.junit.Test;
+import bsh.CallStack;
+import bsh.Interpreter;
+import ste.bshell.ResultRenderer;
 
 /**
- *
+ * Displays a value without the bounds applied when results are shown after
+ * each statement (e.g. expand($0)).
  */
-public class BugFree_run {
+public class expand {
+    public static void invoke(Interpreter i, CallStack callstack, Object value) {
+        invoke(i, callstack, value, Integer.MAX_VALUE);
+    }
 
-    @Test(timeout=1000)
-    public void bg() throws Exception {
-        BshConsoleInterpreter bsh = new BshConsoleInterpreter();
-        This t = (This)bsh.eval("run(\"src/test/scripts/source.bsh\");");
+    public static void invoke(Interpreter i, CallStack callstack, Object value, int max) {
+        ResultRenderer renderer = new ResultRenderer(max, Integer.MAX_VALUE, Integer.MAX_VALUE);
 
-        then(String.valueOf(t.getNameSpace().get("SOURCED", bsh))).isEqualTo("true");
+        i.println(renderer.render(value));
     }
 }
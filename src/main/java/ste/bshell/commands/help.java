@@ -18,15 +18,20 @@ package ste.bshell.commands;
 import bsh.CallStack;
 import bsh.EvalError;
 import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.Primitive;
+import bsh.This;
+import bsh.UtilEvalError;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
-import org.apache.commons.io.FileUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.apache.commons.lang3.StringUtils;
+import ste.bshell.HelpBundle;
+import ste.bshell.HelpIndex;
 
 /**
  * TODO: commands should be alphabetically ordered
@@ -34,6 +39,9 @@ import org.apache.commons.lang3.StringUtils;
 public class help {
 
     public static final String HELP = "bshell.help";
+    public static final String USAGES = "bsh.help";
+
+    public static final int MAX_RESULTS = 10;
 
     public static void invoke(final Interpreter bsh, final CallStack callstack)
     throws EvalError {
@@ -47,48 +55,37 @@ public class help {
         }
 
         final String help = String.valueOf(bsh.get(HELP));
-        final Path helpPath = Paths.get(help);
-
-        if (!Files.exists(helpPath) || !Files.isDirectory(helpPath)) {
-            throw new EvalError("invalid help directory " + help + "; please set bsh.help to an existing and readable directory", null, callstack);
-        }
 
         try {
-            try (Stream<Path> paths = Files.walk(helpPath)) {
-                paths
-                    .filter(Files::isRegularFile)
-                    .filter(new Predicate<Path>() {
-                        @Override
-                        public boolean test(Path p) {
-                            return (name == null) ? p.toString().endsWith(".txt")
-                                                  : String.valueOf(p.getFileName()).equals(name + ".txt");
-                        }
-                    })
-                    .sorted()
-                    .forEachOrdered(new Consumer<Path>() {
-                        @Override
-                        public void accept(Path p) {
-                            String name = StringUtils.removeEnd(
-                                              StringUtils.removeStart(p.toString(), help),
-                                              ".txt"
-                                          ).substring(1).replaceAll("/", ".");
-                            bsh.println("");
-                            bsh.println(name);
-                            bsh.println(StringUtils.repeat("=", name.length()));
-                            bsh.println("");
-                            try {
-                                //
-                                // TODO: indent the content of the file
-                                //
-                                bsh.println(FileUtils.readFileToString(p.toFile(), "UTF8"));
-                            } catch (IOException x) {
-                                //
-                                // TODO: handling
-                                //
-                            }
-                            bsh.println(""); bsh.println("");
-                        }
-                    });
+            HelpIndex index = index(help, callstack);
+            List<HelpIndex.Topic> topics = (name == null) ? index.topics() : index.find(name);
+            if ((name != null) && topics.isEmpty()) {
+                //
+                // not a topic name, let's look for it in the topics
+                //
+                for (HelpIndex.Hit hit: index.search(name, usages(bsh), MAX_RESULTS)) {
+                    bsh.println("");
+                    bsh.println(hit.name);
+                    bsh.println("    " + hit.snippet);
+                }
+                return;
+            }
+            for (HelpIndex.Topic topic: topics) {
+                bsh.println("");
+                bsh.println(topic.name);
+                bsh.println(StringUtils.repeat("=", topic.name.length()));
+                bsh.println("");
+                try {
+                    //
+                    // TODO: indent the content of the file
+                    //
+                    bsh.println(topic.getContent());
+                } catch (IOException x) {
+                    //
+                    // TODO: handling
+                    //
+                }
+                bsh.println(""); bsh.println("");
             }
         } catch (IOException x) {
             //
@@ -98,4 +95,70 @@ public class help {
 
         return;
     }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * @param help the value of bshell.help: a help directory, a help bundle
+     *             file prefixed by bundle: or bundle: alone for the help
+     *             bundled in the classpath
+     */
+    private static HelpIndex index(final String help, final CallStack callstack)
+    throws EvalError, IOException {
+        if (help.startsWith(HelpBundle.SCHEME)) {
+            final String file = help.substring(HelpBundle.SCHEME.length());
+            if (!file.isEmpty()) {
+                final Path bundle = Paths.get(file);
+                if (!Files.isRegularFile(bundle) || !Files.isReadable(bundle)) {
+                    throw new EvalError("unreadable help bundle " + file + "; please set bshell.help to bundle: followed by an existing and readable help bundle file", null, callstack);
+                }
+            }
+            HelpIndex index = null;
+            try {
+                index = file.isEmpty() ? HelpBundle.get() : HelpBundle.open(Paths.get(file));
+                if (index != null) {
+                    index.topics(); // reads the table of contents, failing if not a valid bundle
+                }
+            } catch (IOException x) {
+                throw new EvalError("invalid help bundle " + (file.isEmpty() ? "in the classpath" : file) + ": " + x.getMessage(), null, callstack);
+            }
+            if (index == null) {
+                throw new EvalError("no help bundle in the classpath; please set bshell.help to a help directory or bundle file", null, callstack);
+            }
+            return index;
+        }
+
+        final Path helpPath = Paths.get(help);
+        if (!Files.exists(helpPath) || !Files.isDirectory(helpPath)) {
+            throw new EvalError("invalid help directory " + help + "; please set bsh.help to an existing and readable directory", null, callstack);
+        }
+        return HelpIndex.get(helpPath);
+    }
+
+    /**
+     * @return the usage strings registered by the scripted commands in
+     *         bsh.help (e.g. bsh.help.source) by their full name
+     */
+    private static Map<String, String> usages(final Interpreter bsh) throws EvalError {
+        Map<String, String> usages = new TreeMap<>();
+
+        Object help = bsh.get(USAGES);
+        if (help instanceof This) {
+            NameSpace ns = ((This)help).getNameSpace();
+            for (String name: ns.getVariableNames()) {
+                try {
+                    Object usage = ns.getVariable(name);
+                    if ((usage != null) && (usage != Primitive.VOID) && (usage != Primitive.NULL)) {
+                        usages.put(USAGES + '.' + name, String.valueOf(usage));
+                    }
+                } catch (UtilEvalError x) {
+                    //
+                    // not readable, skip it
+                    //
+                }
+            }
+        }
+
+        return usages;
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.BshConsoleInterpreter;
+import bsh.CallStack;
+import bsh.EvalError;
+import bsh.Interpreter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import org.jline.reader.History;
+import ste.bshell.ExecutionStats.Outcome;
+import ste.bshell.jline.HistoryStats;
+import ste.bshell.jline.IndexedHistory;
+
+/**
+ * Displays the last entries of the history or searches it (e.g.
+ * history("import java")). Entries can also be selected and sorted by their
+ * execution statistics, e.g. history("sort:duration since:7d") displays the
+ * slowest statements of the last week.
+ */
+public class history {
+
+    public static final int DEFAULT_MAX = 20;
+
+    public static final String SORT  = "sort:";
+    public static final String SINCE = "since:";
+    public static final String IS    = "is:";
+
+    private static final Pattern PERIOD = Pattern.compile("(\\d+)([smhdw])");
+
+    public static void invoke(Interpreter i, CallStack callstack)
+    throws EvalError {
+        List<History.Entry> entries = new ArrayList<>();
+        Iterator<History.Entry> it = getHistory(i, callstack).reverseIterator();
+        while (it.hasNext() && (entries.size() < DEFAULT_MAX)) {
+            entries.add(0, it.next());
+        }
+        print(i, entries);
+    }
+
+    public static void invoke(Interpreter i, CallStack callstack, String query)
+    throws EvalError {
+        invoke(i, callstack, query, DEFAULT_MAX);
+    }
+
+    public static void invoke(Interpreter i, CallStack callstack, String query, int max)
+    throws EvalError {
+        History history = getHistory(i, callstack);
+        if (!(history instanceof IndexedHistory)) {
+            throw new EvalError("history search is available only when HISTORY_FILE is set", null, callstack);
+        }
+
+        List<String> words = new ArrayList<>();
+        String sort = null, since = null, is = null;
+        for (String token: StringUtils.split(String.valueOf(query))) {
+            if (token.startsWith(SORT)) {
+                sort = token.substring(SORT.length());
+            } else if (token.startsWith(SINCE)) {
+                since = token.substring(SINCE.length());
+            } else if (token.startsWith(IS)) {
+                is = token.substring(IS.length());
+            } else {
+                words.add(token);
+            }
+        }
+
+        if ((sort == null) && (since == null) && (is == null)) {
+            print(i, ((IndexedHistory)history).search(String.join(" ", words), max));
+        } else {
+            executions(i, callstack, (IndexedHistory)history, words, sort, since, is, max);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static void executions(
+        Interpreter i, CallStack callstack, IndexedHistory history,
+        List<String> words, String sort, String since, String is, int max
+    ) throws EvalError {
+        final HistoryStats.Columns stats;
+        try {
+            stats = history.executions();
+        } catch (IOException x) {
+            throw new EvalError("unable to read the history statistics: " + x.getMessage(), null, callstack);
+        }
+
+        long from = Long.MIN_VALUE;
+        if (since != null) {
+            Matcher m = PERIOD.matcher(since);
+            if (!m.matches()) {
+                throw new EvalError("invalid period " + since + "; use a number followed by s, m, h, d or w (e.g. since:7d)", null, callstack);
+            }
+            long n = Long.parseLong(m.group(1));
+            switch (m.group(2)) {
+                case "s": from = TimeUnit.SECONDS.toMillis(n); break;
+                case "m": from = TimeUnit.MINUTES.toMillis(n); break;
+                case "h": from = TimeUnit.HOURS.toMillis(n); break;
+                case "d": from = TimeUnit.DAYS.toMillis(n); break;
+                default : from = TimeUnit.DAYS.toMillis(7*n);
+            }
+            from = System.currentTimeMillis() - from;
+        }
+
+        Outcome outcome = null;
+        if (is != null) {
+            switch (is) {
+                case "ok": outcome = Outcome.SUCCESS; break;
+                case "failed": outcome = Outcome.FAILURE; break;
+                case "cancelled": outcome = Outcome.CANCELLED; break;
+                default: throw new EvalError("invalid outcome " + is + "; use is:ok, is:failed or is:cancelled", null, callstack);
+            }
+        }
+
+        final long[] key;
+        if ((sort == null) || "time".equals(sort)) {
+            key = stats.start;
+        } else if ("duration".equals(sort)) {
+            key = stats.duration;
+        } else if ("cpu".equals(sort)) {
+            key = stats.cpu;
+        } else if ("alloc".equals(sort)) {
+            key = stats.allocated;
+        } else {
+            throw new EvalError("invalid sort field " + sort + "; use sort:time, sort:duration, sort:cpu or sort:alloc", null, callstack);
+        }
+
+        List<Integer> rows = new ArrayList<>();
+        for (int r=0; r<stats.size; ++r) {
+            if ((stats.start[r] >= from) && ((outcome == null) || (stats.outcome[r] == outcome.ordinal()))) {
+                rows.add(r);
+            }
+        }
+        rows.sort(Comparator.comparingLong((Integer r) -> key[r]).reversed());
+
+        final String[] lower = new String[words.size()];
+        for (int w=0; w<lower.length; ++w) {
+            lower[w] = words.get(w).toLowerCase();
+        }
+
+        int n = 0;
+        for (int r: rows) {
+            if (n >= max) {
+                break;
+            }
+            String line = history.get(stats.entry[r]);
+            if (containsAll(line.toLowerCase(), lower)) {
+                i.println(String.format(
+                    "%5d  %10s  %10s  %10s  %-9s  %s",
+                    stats.entry[r] + 1, millis(stats.duration[r]), millis(stats.cpu[r]),
+                    bytes(stats.allocated[r]), Outcome.values()[stats.outcome[r]], line
+                ));
+                ++n;
+            }
+        }
+    }
+
+    private static History getHistory(Interpreter i, CallStack callstack)
+    throws EvalError {
+        if (!(i instanceof BshConsoleInterpreter) || (((BshConsoleInterpreter)i).getConsole() == null)) {
+            throw new EvalError("history is available only in the interactive console", null, callstack);
+        }
+        return ((BshConsoleInterpreter)i).getConsole().lineReader.getHistory();
+    }
+
+    private static void print(Interpreter i, List<History.Entry> entries) {
+        for (History.Entry e: entries) {
+            i.println(String.format("%5d  %s", e.index() + 1, e.line()));
+        }
+    }
+
+    private static boolean containsAll(String line, String[] words) {
+        for (String word: words) {
+            if (!line.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String millis(long nanos) {
+        return (nanos < 0) ? "-" : String.format("%.1f ms", nanos / 1000000.0);
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 0) {
+            return "-";
+        }
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        return (bytes < 1024*1024) ? String.format("%.1f KB", bytes / 1024.0)
+                                   : String.format("%.1f MB", bytes / (1024.0*1024.0));
+    }
+}
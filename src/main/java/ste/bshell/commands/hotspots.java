@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.CallStack;
+import bsh.EvalError;
+import bsh.Hotspots;
+import bsh.Hotspots.Hotspot;
+import bsh.Interpreter;
+import java.util.List;
+
+/**
+ * Turns on and off the execution counters of bsh.Hotspots and displays the
+ * lines where most time has been spent, e.g.:
+ * <pre>
+ *   hotspots(true);
+ *   source("compute.bsh");
+ *   hotspots(10, "total");
+ * </pre>
+ * Times are by top level statement and method call, not by line: loops,
+ * blocks and method bodies are accounted to the line where they start (or
+ * are called); the output says so, so that it is not mistaken for a per line
+ * profile.
+ */
+public class hotspots {
+
+    public static final int DEFAULT_MAX = 20;
+
+    public static void invoke(Interpreter bsh, CallStack callstack) throws EvalError {
+        invoke(bsh, callstack, DEFAULT_MAX, "self");
+    }
+
+    public static void invoke(Interpreter bsh, CallStack callstack, int max) throws EvalError {
+        invoke(bsh, callstack, max, "self");
+    }
+
+    /**
+     * Turns the counters on (resetting them) or off.
+     */
+    public static void invoke(Interpreter bsh, CallStack callstack, boolean on) {
+        if (on) {
+            Hotspots.reset();
+        }
+        Hotspots.enable(on);
+    }
+
+    /**
+     * @param max the maximum number of lines to display
+     * @param sort "self" or "total"
+     */
+    public static void invoke(Interpreter bsh, CallStack callstack, int max, String sort)
+    throws EvalError {
+        if (max <= 0) {
+            throw new EvalError("max must be greater than zero", null, callstack);
+        }
+        if (!"self".equals(sort) && !"total".equals(sort)) {
+            throw new EvalError("sort must be 'self' or 'total'", null, callstack);
+        }
+
+        List<Hotspot> top = Hotspots.top(max, "total".equals(sort));
+        if (top.isEmpty()) {
+            bsh.println(
+                Hotspots.isEnabled()
+                ? "(... nothing executed yet ...)"
+                : "(... hotspots are off, turn them on with hotspots(true) ...)"
+            );
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%10s %12s %12s  %s%n", "count", "self ms", "total ms", "line"));
+        for (Hotspot h: top) {
+            sb.append(String.format(
+                "%10d %12.3f %12.3f  %s%n", h.count, h.self / 1e6, h.total / 1e6, h.location
+            ));
+        }
+        sb.append(String.format(
+            "(times by top level statement and method call: loops and method bodies are accounted to the line where they start)%n"
+        ));
+        bsh.print(sb.toString());
+    }
+}
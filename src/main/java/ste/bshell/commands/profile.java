@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.CallStack;
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import ste.bshell.Profiler;
+
+/**
+ * Evaluates some code sampling its script level call stacks and displays or
+ * writes them in collapsed stacks format (see ste.bshell.Profiler), e.g.:
+ * <pre>
+ *   profile("source(\"compute.bsh\");", "/tmp/compute.folded");
+ * </pre>
+ */
+public class profile {
+
+    public static Object invoke(Interpreter bsh, CallStack callstack, String code)
+    throws EvalError {
+        return invoke(bsh, callstack, code, null, (int)Profiler.DEFAULT_INTERVAL);
+    }
+
+    public static Object invoke(Interpreter bsh, CallStack callstack, String code, String file)
+    throws EvalError {
+        return invoke(bsh, callstack, code, file, (int)Profiler.DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param code the code to evaluate - NOT NULL
+     * @param file where to write the samples; if null they are displayed
+     * @param interval the sampling interval in milliseconds
+     *
+     * @return the value of the code
+     */
+    public static Object invoke(
+        Interpreter bsh, CallStack callstack, String code, String file, int interval
+    ) throws EvalError {
+        if (code == null) {
+            throw new EvalError("code can not be null", null, callstack);
+        }
+        if (interval <= 0) {
+            throw new EvalError("interval must be greater than zero", null, callstack);
+        }
+
+        NameSpace ns = ((callstack == null) || (callstack.depth() == 0))
+                     ? bsh.getNameSpace() : callstack.top();
+
+        Profiler profiler = new Profiler(interval).start();
+        Object ret = null;
+        EvalError error = null;
+        try {
+            ret = bsh.eval(code, ns);
+        } catch (EvalError x) {
+            error = x; // the samples taken so far are written anyway
+        } finally {
+            profiler.stop();
+        }
+
+        try {
+            if (file == null) {
+                StringWriter out = new StringWriter();
+                profiler.write(out);
+                bsh.print(out.toString());
+            } else {
+                long n;
+                try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+                    n = profiler.write(out);
+                }
+                bsh.println("(... " + n + " samples written to " + file + " ...)");
+            }
+        } catch (IOException x) {
+            if (error == null) {
+                throw new EvalError("unable to write the samples: " + x.getMessage(), null, callstack);
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.BshClassManager;
+import bsh.CallStack;
+import bsh.ClassPathException;
+import bsh.EvalError;
+import bsh.ForkedNameSpace;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.Primitive;
+import bsh.ScriptCache;
+import bsh.This;
+import bsh.UtilEvalError;
+import bsh.classpath.BshClassPath;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import ste.bshell.jfr.Recorder;
+
+/**
+ * Runs a script in its own private global namespace, with its own class
+ * manager: it is like source() except that what the script does (defining
+ * variables and methods, importing classes, changing the class path, ...)
+ * does not affect the calling context. The bsh system object of the caller
+ * and its bsh.help are visible to the script copy-on-write (see
+ * ForkedNameSpace), so that system info like the current directory is
+ * inherited, but can be changed by the script without affecting the caller.
+ * <p>
+ * This replaces the scripted run() of BeanShell, which created a brand new
+ * class manager and parsed the script at each call; here class managers are
+ * pooled by user class path and scripts are cached per class manager (see
+ * ScriptCache), so that running small scripts in a loop costs little more
+ * than evaluating them. A class manager is used by one run at a time and is
+ * discarded, together with the scripts parsed for it, if the script changes
+ * its class path or its classes are reloaded (e.g. by declaring a class).
+ * <p>
+ * Returns the object context in which the script was run, so that results
+ * can be gathered from it; runArgument is passed to the script as the
+ * variable runArgument (e.g. the calling This context to draw variables
+ * from).
+ */
+public class run {
+
+    public static final int MAX_CLASS_MANAGERS = 8;
+
+    /**
+     * Class managers not in use by any run, most recently used first
+     */
+    private static final Deque<ClassManager> IDLE = new ArrayDeque<>();
+
+    public static This invoke(Interpreter bsh, CallStack callstack, String filename)
+    throws IOException, EvalError {
+        return invoke(bsh, callstack, filename, null);
+    }
+
+    public static This invoke(Interpreter bsh, CallStack callstack, String filename, Object runArgument)
+    throws IOException, EvalError {
+        NameSpace caller = callstack.top();
+        File file = file(bsh, caller, filename);
+
+        try {
+            URL[] cp = BshClassPath.getUserClassPathComponents();
+            ClassManager bcm = take(bsh, key(cp), cp);
+
+            NameSpace ns = new NameSpace(bcm.manager, "run");
+            Object system = caller.getVariable("bsh");
+            if (system instanceof This) {
+                NameSpace shared = ((This)system).getNameSpace();
+                ForkedNameSpace fork = new ForkedNameSpace(shared, shared.getName());
+                fork.forkThis("help", bsh);
+                ns.setVariable("bsh", fork.getThis(bsh), false);
+            }
+            ns.setVariable("runArgument", (runArgument == null) ? Primitive.NULL : runArgument, false);
+
+            Object event = Recorder.get().beginSource();
+            long parsed = Interpreter.getParsedStatements();
+            try {
+                bsh.eval(ScriptCache.get(bcm.manager, file), ns, file.getAbsolutePath());
+            } finally {
+                Recorder.get().endSource(
+                    event, file.getAbsolutePath(), Interpreter.getParsedStatements() - parsed
+                );
+                release(bcm);
+            }
+
+            return ns.getThis(bsh);
+        } catch (ClassPathException x) {
+            throw new EvalError("unable to read the class path: " + x.getMessage(), null, callstack);
+        } catch (UtilEvalError x) {
+            throw new EvalError(x.getMessage(), null, callstack);
+        }
+    }
+
+    /**
+     * Discards the pooled class managers and the scripts parsed for them.
+     */
+    public static void clear() {
+        List<ClassManager> idle;
+        synchronized (IDLE) {
+            idle = new ArrayList<>(IDLE);
+            IDLE.clear();
+        }
+        for (ClassManager bcm: idle) {
+            ScriptCache.remove(bcm.manager);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * @return the given file; if relative, relative to bsh.cwd
+     */
+    private static File file(Interpreter bsh, NameSpace caller, String filename) throws EvalError {
+        File file = new File(filename);
+        if (!file.isAbsolute()) {
+            Object cwd = null;
+            try {
+                cwd = Primitive.unwrap(caller.get("bsh.cwd", bsh));
+            } catch (UtilEvalError x) {
+                // fall back to the current directory
+            }
+            if (cwd instanceof String) {
+                file = new File((String)cwd, filename);
+            }
+        }
+        return file;
+    }
+
+    private static List<String> key(URL[] cp) {
+        List<String> key = new ArrayList<>(cp.length);
+        for (URL url: cp) {
+            key.add(url.toExternalForm());
+        }
+        return key;
+    }
+
+    /**
+     * @return an idle class manager for the given class path, a new one if
+     *         none is available; the caller has exclusive use of it until
+     *         release()
+     */
+    private static ClassManager take(Interpreter bsh, List<String> key, URL[] cp)
+    throws UtilEvalError {
+        synchronized (IDLE) {
+            Iterator<ClassManager> i = IDLE.iterator();
+            while (i.hasNext()) {
+                ClassManager bcm = i.next();
+                if (bcm.key.equals(key)) {
+                    i.remove();
+                    return bcm;
+                }
+            }
+        }
+
+        BshClassManager manager = BshClassManager.createClassManager(bsh);
+        manager.setClassPath(cp);
+        return new ClassManager(key, manager);
+    }
+
+    /**
+     * Gives the class manager back to the pool, unless its class loader
+     * changed while in use (e.g. the script called addClassPath() or
+     * reloadClasses()).
+     */
+    private static void release(ClassManager bcm) {
+        if (bcm.changed) {
+            ScriptCache.remove(bcm.manager);
+            return;
+        }
+
+        ClassManager evicted = null;
+        synchronized (IDLE) {
+            IDLE.addFirst(bcm);
+            if (IDLE.size() > MAX_CLASS_MANAGERS) {
+                evicted = IDLE.removeLast();
+            }
+        }
+        if (evicted != null) {
+            ScriptCache.remove(evicted.manager);
+        }
+    }
+
+    // ------------------------------------------------------------ ClassManager
+
+    private static class ClassManager implements BshClassManager.Listener {
+        final List<String> key;
+        final BshClassManager manager;
+
+        volatile boolean changed = false;
+
+        /**
+         * The class path of manager must be already set, so that only later
+         * changes are notified
+         */
+        ClassManager(List<String> key, BshClassManager manager) {
+            this.key = key;
+            this.manager = manager;
+            manager.addListener(this); // held weakly by the manager
+        }
+
+        @Override
+        public void classLoaderChanged() {
+            changed = true;
+        }
+    }
+}
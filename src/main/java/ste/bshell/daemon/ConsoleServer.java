@@ -0,0 +1,578 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import bsh.Interpreter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import ste.bshell.StreamConsole;
+
+/**
+ * Hosts many concurrent console sessions in one JVM. Sessions are plain text
+ * streams (e.g. nc host port): the first line sent by the client must be the
+ * access token given by getToken(), what follows is read statement by
+ * statement as in the console, with the prompt and the results displayed
+ * back to the client.
+ * <p>
+ * All socket I/O is multiplexed over non-blocking channels by a single
+ * selector thread; since BeanShell evaluation is blocking, each session runs
+ * its interpreter in a worker thread which reads from and writes to in
+ * memory queues filled and drained by the selector. Both queues are bounded:
+ * when a session does not keep up with its input, reading from its socket is
+ * suspended; when a client does not keep up with the output, the session
+ * waits for it to be sent.
+ * <p>
+ * Interpreters are taken from an InterpreterPool, so that each session gets
+ * its own fork of the warm interpreter, ready when the session starts; in
+ * these interpreters exit() closes the session instead of the JVM.
+ */
+public class ConsoleServer {
+
+    public static final int DEFAULT_MAX_SESSIONS = 256;
+    public static final String PROMPT = Daemon.PROMPT;
+
+    private static final int BACKLOG = StreamConsole.DEFAULT_BUFFER_SIZE;
+    private static final int MAX_TOKEN_LENGTH = 256;
+
+    private final InterpreterPool pool;
+    private final InetSocketAddress address;
+    private final byte[] token;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final ExecutorService workers = Executors.newCachedThreadPool((r) -> {
+        Thread t = new Thread(r, "bshell-session");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private Selector selector = null;
+    private ServerSocketChannel server = null;
+
+    /**
+     * @param pool where session interpreters are taken from - NOT NULL
+     * @param address the address to listen on - NOT NULL
+     */
+    public ConsoleServer(InterpreterPool pool, InetSocketAddress address) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool can not be null");
+        }
+        if (address == null) {
+            throw new IllegalArgumentException("address can not be null");
+        }
+        this.pool = pool;
+        this.address = address;
+        this.token = Daemon.newToken().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts listening; connections are served by a separate thread.
+     *
+     * @return this
+     *
+     * @throws IOException if the address can not be bound
+     */
+    public synchronized ConsoleServer start() throws IOException {
+        if (server != null) {
+            return this;
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        Thread loop = new Thread(this::loop, "bshell-server");
+        loop.setDaemon(true);
+        loop.start();
+
+        return this;
+    }
+
+    /**
+     * Stops accepting connections and closes all sessions.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException x) {
+            // nothing to do
+        }
+        for (Session s: sessions) {
+            s.close();
+        }
+        workers.shutdownNow();
+        selector.wakeup();
+        server = null;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the server is stopped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void await() throws InterruptedException {
+        while (server != null) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the port the server listens on or -1 if not started
+     */
+    public synchronized int getPort() {
+        try {
+            return (server == null) ? -1 : ((InetSocketAddress)server.getLocalAddress()).getPort();
+        } catch (IOException x) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the token clients must send as first line
+     */
+    public String getToken() {
+        return new String(token, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions must be greater than zero");
+        }
+        this.maxSessions = maxSessions;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void loop() {
+        final Selector sel;
+        synchronized (this) {
+            sel = selector;
+        }
+        try {
+            while (sel.isOpen()) {
+                sel.select();
+                synchronized (this) {
+                    if (server == null) {
+                        break;
+                    }
+                }
+
+                Runnable task;
+                while ((task = pending.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> i = sel.selectedKeys().iterator();
+                while (i.hasNext()) {
+                    SelectionKey key = i.next(); i.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel)key.channel());
+                        continue;
+                    }
+                    Session s = (Session)key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            s.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            s.write();
+                        }
+                    } catch (IOException x) {
+                        s.close();
+                    }
+                }
+            }
+        } catch (IOException x) {
+            x.printStackTrace();
+        } finally {
+            try {
+                sel.close();
+            } catch (IOException x) {
+                // nothing to do
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel channel) {
+        SocketChannel client;
+        try {
+            if ((client = channel.accept()) == null) {
+                return;
+            }
+            if (sessions.size() >= maxSessions) {
+                client.write(ByteBuffer.wrap("error: too many sessions\n".getBytes(StandardCharsets.UTF_8)));
+                //
+                // closing with unread input (e.g. the token) would reset the
+                // connection, possibly before the client reads the error
+                //
+                client.shutdownOutput();
+                client.configureBlocking(false);
+                while (client.read(ByteBuffer.allocate(MAX_TOKEN_LENGTH)) > 0);
+                client.close();
+                return;
+            }
+            client.configureBlocking(false);
+            Session s = new Session(client);
+            s.key = client.register(selector, SelectionKey.OP_READ, s);
+            sessions.add(s);
+        } catch (IOException x) {
+            x.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the given task in the selector thread.
+     */
+    private void schedule(Runnable task) {
+        pending.add(task);
+        selector.wakeup();
+    }
+
+    // ----------------------------------------------------------------- Session
+
+    private class Session {
+        private final int id = ids.incrementAndGet();
+        private final SocketChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8*1024);
+        private final Input input = new Input();
+        private final Output output = new Output();
+
+        private SelectionKey key;
+        private ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private Future<?> worker = null;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Called by the selector when the channel is readable
+         */
+        void read() throws IOException {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n < 0) {
+                if (line != null) {
+                    close(); // disconnected before authenticating
+                } else {
+                    input.end();
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                return;
+            }
+            byte[] data = Arrays.copyOf(buffer.array(), n);
+            if (line != null) {
+                data = authenticate(data);
+                if (data == null) {
+                    return;
+                }
+            }
+            if (data.length > 0 && input.feed(data)) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Called by the selector when the channel is writable
+         */
+        void write() throws IOException {
+            if (output.drain(channel)) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (output.isClosed()) {
+                    close();
+                }
+            }
+        }
+
+        void close() {
+            sessions.remove(this);
+            input.end();
+            output.close();
+            if (worker != null) {
+                worker.cancel(true);
+            }
+            try {
+                channel.close();
+            } catch (IOException x) {
+                // nothing to do
+            }
+        }
+
+        /**
+         * Collects the first line and checks it against the token; once
+         * authenticated, the session is started.
+         *
+         * @return what follows the token line, null if the line is not
+         *         complete yet or the token is invalid
+         */
+        private byte[] authenticate(byte[] data) {
+            int eol = 0;
+            while (eol < data.length && data[eol] != '\n') {
+                ++eol;
+            }
+            line.write(data, 0, eol);
+            if (eol == data.length) {
+                if (line.size() > MAX_TOKEN_LENGTH) {
+                    reject();
+                }
+                return null;
+            }
+
+            byte[] t = line.toByteArray();
+            int l = t.length;
+            if ((l > 0) && (t[l-1] == '\r')) {
+                t = Arrays.copyOf(t, l-1);
+            }
+            line = null;
+            if (!MessageDigest.isEqual(t, token)) {
+                reject();
+                return null;
+            }
+
+            start();
+            return Arrays.copyOfRange(data, eol+1, data.length);
+        }
+
+        private void reject() {
+            line = null;
+            try {
+                channel.write(ByteBuffer.wrap("error: invalid token\n".getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException x) {
+                // closing anyway
+            }
+            close();
+        }
+
+        private void start() {
+            worker = workers.submit(() -> {
+                PrintStream out = null;
+                try {
+                    out = new PrintStream(new BufferedOutputStream(output, 8*1024), false, "UTF-8");
+                    Reader in = new InputStreamReader(input, StandardCharsets.UTF_8);
+                    Interpreter bsh = pool.take(new StreamConsole(in, out, out));
+                    bsh.evalSession(in, bsh.getNameSpace(), "<session" + id + ">", PROMPT);
+                } catch (IOException x) {
+                    // UTF-8 is always supported
+                } finally {
+                    if (out != null) {
+                        out.flush();
+                    }
+                    output.close();
+                    schedule(() -> {
+                        if (key.isValid()) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        }
+                    });
+                }
+            });
+        }
+
+        // ------------------------------------------------------------- Input
+
+        /**
+         * What the client sent, read by the session worker.
+         */
+        private class Input extends InputStream {
+            private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+            private int offset = 0, queued = 0;
+            private boolean eof = false, suspended = false;
+
+            /**
+             * @return true if reading from the channel must be suspended
+             */
+            synchronized boolean feed(byte[] data) {
+                chunks.add(data); queued += data.length;
+                notifyAll();
+                return suspended = (queued > BACKLOG);
+            }
+
+            synchronized void end() {
+                eof = true;
+                notifyAll();
+            }
+
+            @Override
+            public synchronized int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (chunks.isEmpty() && !eof) {
+                    try {
+                        wait();
+                    } catch (InterruptedException x) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (chunks.isEmpty()) {
+                    return -1;
+                }
+                byte[] chunk = chunks.peek();
+                int n = Math.min(len, chunk.length - offset);
+                System.arraycopy(chunk, offset, b, off, n);
+                if ((offset += n) == chunk.length) {
+                    chunks.poll(); offset = 0;
+                }
+                queued -= n;
+
+                if (suspended && (queued <= BACKLOG/2)) {
+                    suspended = false;
+                    schedule(() -> {
+                        if (key.isValid()) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                        }
+                    });
+                }
+                return n;
+            }
+
+            @Override
+            public synchronized int available() {
+                return queued;
+            }
+        }
+
+        // ------------------------------------------------------------ Output
+
+        /**
+         * What the session worker produced, sent by the selector.
+         */
+        private class Output extends OutputStream {
+            private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+            private int queued = 0;
+            private boolean closed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException {
+                while (!closed && (queued > BACKLOG)) {
+                    //
+                    // a single statement may fill the backlog without ever
+                    // flushing; make sure the selector is draining it
+                    //
+                    flush();
+                    try {
+                        wait();
+                    } catch (InterruptedException x) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                chunks.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off+len)));
+                queued += len;
+                if (chunks.size() == 1) {
+                    flush(); // drain() stops writing once the queue is empty
+                }
+            }
+
+            @Override
+            public void flush() {
+                schedule(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+            }
+
+            @Override
+            public synchronized void close() {
+                closed = true;
+                notifyAll();
+            }
+
+            synchronized boolean isClosed() {
+                return closed;
+            }
+
+            /**
+             * Writes as much as possible of the queued output.
+             *
+             * @return true if everything has been written
+             */
+            synchronized boolean drain(SocketChannel channel) throws IOException {
+                ByteBuffer chunk;
+                while ((chunk = chunks.peek()) != null) {
+                    queued -= channel.write(chunk);
+                    if (chunk.hasRemaining()) {
+                        break;
+                    }
+                    chunks.poll();
+                }
+                notifyAll();
+                return chunks.isEmpty();
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.Utils;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import ste.bshell.StreamConsole;
+
+/**
+ * Keeps a warm interpreter (classes loaded, init script evaluated) resident
+ * so that scripts, one-shot evaluations and sessions can be run by a thin
+ * client (see DaemonClient) without paying the startup costs each time.
+ * <p>
+ * The daemon listens on the loopback interface only, on a random port; port
+ * and a random token are written in a file readable only by the owner (by
+ * default ~/.bshell.daemon), which clients read to connect. A connection
+ * starts with two lines: the token and the request, one of:
+ * <ul>
+ *   <li>SCRIPT name: the rest of the input is a script</li>
+ *   <li>EVAL: the rest of the input is code whose value is printed</li>
+ *   <li>SESSION: the rest of the input is read statement by statement as in
+ *       the console</li>
+ * </ul>
+ * The daemon answers with the output of the execution in length-prefixed
+ * frames followed by the exit status (0 for success, 1 for failure), see
+ * FrameOutputStream; this way the output can contain any character.
+ * <p>
+ * Each connection gets its own interpreter, forked from the warm one (see
+ * InterpreterPool): the variables, methods and imports defined by a
+ * connection are not visible to the others, while what is defined by the
+ * init script is visible to all. The class manager and bsh.system are
+ * instead shared by all connections: changes to the class path (e.g.
+ * addClassPath()) and scripted classes are visible to all of them (see
+ * Interpreter.fork()). exit() ends the connection, not the daemon. Note
+ * that output printed directly to System.out by scripts goes to the output
+ * of the daemon, not to the client.
+ */
+public class Daemon {
+
+    public static final String FILE_PROPERTY = "bshell.daemon.file";
+    public static final Path DEFAULT_FILE = Paths.get(System.getProperty("user.home"), ".bshell.daemon");
+
+    public static final String SCRIPT  = "SCRIPT";
+    public static final String EVAL    = "EVAL";
+    public static final String SESSION = "SESSION";
+
+    public static final String PROMPT = "bsh # ";
+
+    private final InterpreterPool pool;
+    private final Path file;
+    private final String token;
+    private final ExecutorService executor = Executors.newCachedThreadPool((r) -> {
+        Thread t = new Thread(r, "bshell-daemon-session");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ServerSocket server = null;
+
+    /**
+     * @param warm the interpreter whose global namespace is shared with the
+     *             connections - NOT NULL
+     * @param file where to write port and token - NOT NULL
+     */
+    public Daemon(Interpreter warm, Path file) {
+        this(warm, file, InterpreterPool.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param warm the interpreter whose global namespace is shared with the
+     *             connections - NOT NULL
+     * @param file where to write port and token - NOT NULL
+     * @param poolSize how many interpreters to keep ready for new
+     *                 connections - greater than 0
+     */
+    public Daemon(Interpreter warm, Path file, int poolSize) {
+        if (warm == null) {
+            throw new IllegalArgumentException("warm can not be null");
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        this.pool = new InterpreterPool(warm, poolSize);
+        this.file = file;
+        this.token = newToken();
+    }
+
+    /**
+     * @return the file given by the system property bshell.daemon.file or
+     *         DEFAULT_FILE
+     */
+    public static Path file() {
+        String f = System.getProperty(FILE_PROPERTY);
+        return (f == null) ? DEFAULT_FILE : Paths.get(f);
+    }
+
+    /**
+     * Starts listening and writes port and token in the daemon file;
+     * connections are accepted in a separate thread.
+     *
+     * @return this
+     *
+     * @throws IOException if the socket or the file can not be created
+     */
+    public synchronized Daemon start() throws IOException {
+        if (server != null) {
+            return this;
+        }
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        writeFile();
+
+        Thread acceptor = new Thread(this::accept, "bshell-daemon");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return this;
+    }
+
+    /**
+     * Stops accepting connections and deletes the daemon file; running
+     * connections are interrupted.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException x) {
+            // nothing to do
+        }
+        executor.shutdownNow();
+        pool.close();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException x) {
+            // nothing to do
+        }
+        server = null;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the daemon is stopped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void await() throws InterruptedException {
+        while (server != null) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the port the daemon listens on or -1 if not started
+     */
+    public synchronized int getPort() {
+        return (server == null) ? -1 : server.getLocalPort();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // ------------------------------------------------------- protected methods
+
+    /**
+     * @return a random hex token of 128 bits
+     */
+    static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b: bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void writeFile() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("port", String.valueOf(server.getLocalPort()));
+        p.setProperty("token", token);
+
+        //
+        // the token must be readable by the owner only: the file is created
+        // with restricted permissions (if supported) and moved in place
+        //
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp;
+        try {
+            tmp = Files.createTempFile(
+                parent, ".bshell", ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))
+            );
+        } catch (UnsupportedOperationException x) {
+            tmp = Files.createTempFile(parent, ".bshell", ".tmp");
+        }
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            p.store(out, "bshell daemon");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void accept() {
+        ServerSocket s;
+        synchronized (this) {
+            s = server;
+        }
+        while ((s != null) && !s.isClosed()) {
+            try {
+                final Socket socket = s.accept();
+                executor.execute(() -> serve(socket));
+            } catch (SocketException x) {
+                break; // closed by stop()
+            } catch (IOException x) {
+                x.printStackTrace();
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8),
+                StreamConsole.DEFAULT_BUFFER_SIZE
+            );
+            FrameOutputStream frames = new FrameOutputStream(
+                new BufferedOutputStream(s.getOutputStream(), StreamConsole.DEFAULT_BUFFER_SIZE)
+            );
+            PrintStream out = new PrintStream(
+                new BufferedOutputStream(frames, StreamConsole.DEFAULT_BUFFER_SIZE), false, "UTF-8"
+            );
+
+            String t = in.readLine(), request = in.readLine();
+            if ((t == null) || !MessageDigest.isEqual(t.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+                end(out, frames, "error: invalid token", 1);
+                return;
+            }
+            if (request == null) {
+                end(out, frames, "error: missing request", 1);
+                return;
+            }
+
+            StreamConsole console = new StreamConsole(in, out, out);
+            Interpreter bsh = pool.take(console);
+            NameSpace ns = bsh.getNameSpace();
+
+            int status = 0;
+            if (request.startsWith(SCRIPT)) {
+                String name = request.substring(SCRIPT.length()).trim();
+                status = console.batch(bsh, in, ns, name.isEmpty() ? "<script>" : name, false);
+            } else if (EVAL.equals(request)) {
+                status = console.batch(bsh, new StringReader(Utils.statements(read(in))), ns, "<eval>", true);
+            } else if (SESSION.equals(request)) {
+                bsh.evalSession(in, ns, "<session>", PROMPT);
+            } else {
+                end(out, frames, "error: unknown request " + request, 1);
+                return;
+            }
+            end(out, frames, null, status);
+        } catch (IOException x) {
+            //
+            // the client went away, nothing to do
+            //
+        }
+    }
+
+    private static String read(BufferedReader in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[4096];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            sb.append(buf, 0, n);
+        }
+        return sb.toString();
+    }
+
+    private static void end(PrintStream out, FrameOutputStream frames, String error, int status)
+    throws IOException {
+        if (error != null) {
+            out.println(error);
+        }
+        out.flush();
+        frames.end(status);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Thin client of a running Daemon: sends a script, some code to evaluate or
+ * the standard input of an interactive session and copies the output of the
+ * execution to the given stream. No interpreter is created on the client
+ * side, which makes the client start as fast as the JVM does.
+ */
+public class DaemonClient {
+
+    private final Path file;
+
+    /**
+     * @param file the daemon file with port and token - NOT NULL
+     */
+    public DaemonClient(Path file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        this.file = file;
+    }
+
+    /**
+     * Sends the given script to the daemon.
+     *
+     * @param name the name of the script used in error messages
+     * @param script the script - NOT NULL
+     * @param out where to copy the output to - NOT NULL
+     *
+     * @return the exit status of the execution
+     *
+     * @throws IOException if the daemon can not be reached
+     */
+    public int script(String name, Reader script, PrintStream out) throws IOException {
+        return send(Daemon.SCRIPT + " " + name, script, out);
+    }
+
+    /**
+     * Sends the given code to the daemon, which evaluates it and prints its
+     * value.
+     *
+     * @param code the code to evaluate - NOT NULL
+     * @param out where to copy the output to - NOT NULL
+     *
+     * @return the exit status of the execution
+     *
+     * @throws IOException if the daemon can not be reached
+     */
+    public int eval(String code, PrintStream out) throws IOException {
+        return send(Daemon.EVAL, new StringReader(code), out);
+    }
+
+    /**
+     * Starts an interactive session forwarding the given input to the daemon
+     * as it is typed.
+     *
+     * @param in the input of the session - NOT NULL
+     * @param out where to copy the output to - NOT NULL
+     *
+     * @return the exit status of the session
+     *
+     * @throws IOException if the daemon can not be reached
+     */
+    public int session(final InputStream in, PrintStream out) throws IOException {
+        try (Socket socket = connect(Daemon.SESSION)) {
+            final OutputStream os = socket.getOutputStream();
+            Thread pipe = new Thread(() -> {
+                byte[] buf = new byte[4096];
+                int n;
+                try {
+                    while ((n = in.read(buf)) >= 0) {
+                        os.write(buf, 0, n); os.flush();
+                    }
+                    socket.shutdownOutput();
+                } catch (IOException x) {
+                    // the session is over
+                }
+            }, "bshell-client-input");
+            pipe.setDaemon(true);
+            pipe.start();
+
+            return receive(socket, out);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private int send(String request, Reader body, PrintStream out) throws IOException {
+        try (Socket socket = connect(request)) {
+            OutputStream os = socket.getOutputStream();
+            char[] buf = new char[4096];
+            int n;
+            while ((n = body.read(buf)) >= 0) {
+                os.write(new String(buf, 0, n).getBytes(StandardCharsets.UTF_8));
+            }
+            os.flush();
+            socket.shutdownOutput();
+
+            return receive(socket, out);
+        }
+    }
+
+    private Socket connect(String request) throws IOException {
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            p.load(r);
+        } catch (NoSuchFileException x) {
+            throw new FileNotFoundException("no daemon running (" + file + " not found)");
+        }
+
+        int port;
+        try {
+            port = Integer.parseInt(p.getProperty("port"));
+        } catch (NumberFormatException x) {
+            throw new IOException("invalid daemon file " + file);
+        }
+
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (ConnectException x) {
+            throw new ConnectException("no daemon running on port " + port + " (stale " + file + "?)");
+        }
+        OutputStream os = socket.getOutputStream();
+        os.write((p.getProperty("token", "") + "\n" + request + "\n").getBytes(StandardCharsets.UTF_8));
+        os.flush();
+
+        return socket;
+    }
+
+    /**
+     * Copies the output frames of the daemon to out until the end frame,
+     * which carries the exit status (see FrameOutputStream).
+     */
+    private int receive(Socket socket, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        byte[] buf = new byte[4096];
+        try {
+            int n;
+            while ((n = in.readInt()) > 0) {
+                if (n > buf.length) {
+                    buf = new byte[n];
+                }
+                in.readFully(buf, 0, n);
+                out.write(buf, 0, n);
+                out.flush();
+            }
+            return (n == 0) ? in.readInt() : 1;
+        } catch (EOFException x) {
+            return 1; // the daemon went away
+        } finally {
+            out.flush();
+        }
+    }
+}
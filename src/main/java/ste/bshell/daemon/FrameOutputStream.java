@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Frames the output sent by the Daemon to its clients, so that the output of
+ * an execution can contain any byte: each chunk of output is sent as its
+ * length (int) followed by its bytes; the end of the output is a frame of
+ * length 0 followed by the exit status (int). See DaemonClient.receive().
+ */
+class FrameOutputStream extends FilterOutputStream {
+
+    private final DataOutputStream data;
+
+    FrameOutputStream(OutputStream out) {
+        super(new DataOutputStream(out));
+        this.data = (DataOutputStream)this.out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            data.writeInt(len);
+            data.write(b, off, len);
+        }
+    }
+
+    /**
+     * Writes the end of the output and flushes.
+     *
+     * @param status the exit status
+     *
+     * @throws IOException in case of errors
+     */
+    void end(int status) throws IOException {
+        data.writeInt(0);
+        data.writeInt(status);
+        data.flush();
+    }
+}
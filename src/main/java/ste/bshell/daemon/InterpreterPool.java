@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import bsh.ConsoleInterface;
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.InterpreterError;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of interpreters ready to be handed out to new sessions. All
+ * interpreters are forks of the same warm interpreter (see
+ * Interpreter.fork()): each one has its own global namespace, sharing the
+ * warm global namespace copy-on-write, so that what a session defines or
+ * assigns is not visible to the others while what is defined in the warm
+ * interpreter (e.g. by the init script) is visible to all. The class manager
+ * is not forked: class path changes and scripted classes are shared.
+ * <p>
+ * Interpreters are not given back to the pool once used, since their
+ * namespace is dirty; instead, the pool is refilled in the background every
+ * time an interpreter is taken, so that new sessions do not have to wait for
+ * their interpreter to be created. If the pool is empty (e.g. in a burst of
+ * connections), the interpreter is created in the calling thread.
+ * <p>
+ * Since all sessions share the JVM, exit() in a pooled interpreter does not
+ * call System.exit(): it ends the session (the script or the statements read
+ * from the client) once the current top level statement is completed.
+ */
+public class InterpreterPool {
+
+    public static final int DEFAULT_SIZE = 4;
+
+    /**
+     * Overrides the exit() command; evaluation stops when the evaluating
+     * thread is interrupted (see Interpreter.eval() and evalSession())
+     */
+    private static final String EXIT = "exit() { Thread.currentThread().interrupt(); }";
+
+    private final Interpreter warm;
+    private final BlockingQueue<Interpreter> ready;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ExecutorService filler = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "bshell-pool");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param warm the interpreter all pooled interpreters are forked from -
+     *             NOT NULL
+     * @param size how many interpreters to keep ready - greater than 0
+     */
+    public InterpreterPool(Interpreter warm, int size) {
+        if (warm == null) {
+            throw new IllegalArgumentException("warm can not be null");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than zero");
+        }
+        this.warm = warm;
+        this.ready = new ArrayBlockingQueue<>(size);
+        for (int i=0; i<size; ++i) {
+            refill();
+        }
+    }
+
+    /**
+     * Takes a ready interpreter from the pool (or creates a new one if none
+     * is ready) and attaches it to the given console.
+     *
+     * @param console the console of the session - NOT NULL
+     *
+     * @return an interpreter for exclusive use of the caller
+     */
+    public Interpreter take(ConsoleInterface console) {
+        if (console == null) {
+            throw new IllegalArgumentException("console can not be null");
+        }
+        Interpreter bsh = ready.poll();
+        if (bsh == null) {
+            bsh = create();
+        }
+        refill();
+
+        bsh.setConsole(console);
+        return bsh;
+    }
+
+    /**
+     * @return the number of interpreters ready to be taken
+     */
+    public int available() {
+        return ready.size();
+    }
+
+    /**
+     * Stops refilling the pool and discards the ready interpreters.
+     */
+    public void close() {
+        filler.shutdownNow();
+        ready.clear();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private Interpreter create() {
+        Interpreter bsh = warm.fork(null, "session" + sessions.incrementAndGet());
+        try {
+            bsh.eval(EXIT);
+        } catch (EvalError x) {
+            throw new InterpreterError("exit(): " + x.getMessage(), x);
+        }
+        return bsh;
+    }
+
+    private void refill() {
+        try {
+            filler.execute(() -> ready.offer(create()));
+        } catch (RejectedExecutionException x) {
+            // closed
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jfr;
+
+/**
+ * Facade of the console events recorded in Java Flight Recorder: statements
+ * executed, scripts sourced, completions and status redraws. Events can be
+ * enabled in a standard recording (e.g. java -XX:StartFlightRecording ...)
+ * under the category "BeanShell Console", next to GC and I/O events.
+ * <p>
+ * JFR is used only if available in the running JVM (and not disabled with
+ * -Dbshell.jfr=false), otherwise all methods do nothing; this is why the
+ * events are passed around as plain objects. For the same reason JfrRecorder
+ * lives in src/main/java11 and is built only on JDK 11 or later (see the jfr
+ * profile in the pom). A typical use is:
+ * <pre>
+ *   Object event = Recorder.get().beginCompletion();
+ *   ...
+ *   Recorder.get().endCompletion(event, line, candidates.size());
+ * </pre>
+ */
+public abstract class Recorder {
+
+    public static final String PROPERTY = "bshell.jfr";
+
+    private static final Recorder INSTANCE = load();
+
+    /**
+     * @return the recorder of this JVM - NOT NULL
+     */
+    public static Recorder get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if events are given to JFR, false if they are dropped
+     */
+    public static boolean isAvailable() {
+        return !(INSTANCE instanceof None);
+    }
+
+    public abstract Object beginStatement();
+
+    /**
+     * @param source the text of the statement - MAY BE NULL
+     * @param job the id of the job executing the statement
+     * @param outcome how the execution ended (see ExecutionStats.Outcome)
+     */
+    public abstract void endStatement(Object event, String source, long job, String outcome);
+
+    public abstract Object beginSource();
+
+    /**
+     * @param file the path of the sourced file
+     * @param statements the number of statements parsed
+     */
+    public abstract void endSource(Object event, String file, long statements);
+
+    public abstract Object beginCompletion();
+
+    /**
+     * @param line the line being completed
+     * @param candidates the number of candidates found
+     */
+    public abstract void endCompletion(Object event, String line, int candidates);
+
+    public abstract Object beginStatus();
+
+    /**
+     * @param message the status message
+     * @param tasks the number of tasks displayed
+     */
+    public abstract void endStatus(Object event, String message, int tasks);
+
+    // --------------------------------------------------------- private methods
+
+    private static Recorder load() {
+        if (!Boolean.parseBoolean(System.getProperty(PROPERTY, "true"))) {
+            return new None();
+        }
+        try {
+            //
+            // JfrRecorder links to jdk.jfr, which may be missing
+            //
+            Class.forName("jdk.jfr.Event");
+            return (Recorder)Class.forName("ste.bshell.jfr.JfrRecorder").getDeclaredConstructor().newInstance();
+        } catch (Throwable t) {
+            return new None();
+        }
+    }
+
+    // -------------------------------------------------------------------- None
+
+    private static final class None extends Recorder {
+        @Override
+        public Object beginStatement() {
+            return null;
+        }
+
+        @Override
+        public void endStatement(Object event, String source, long job, String outcome) {
+        }
+
+        @Override
+        public Object beginSource() {
+            return null;
+        }
+
+        @Override
+        public void endSource(Object event, String file, long statements) {
+        }
+
+        @Override
+        public Object beginCompletion() {
+            return null;
+        }
+
+        @Override
+        public void endCompletion(Object event, String line, int candidates) {
+        }
+
+        @Override
+        public Object beginStatus() {
+            return null;
+        }
+
+        @Override
+        public void endStatus(Object event, String message, int tasks) {
+        }
+    }
+}
@@ -15,16 +15,27 @@
  */
 package ste.bshell.jline;
 
+import java.util.List;
 import java.util.Map;
+import org.jline.reader.History;
 import org.jline.reader.impl.LineReaderImpl;
 import org.jline.terminal.Terminal;
 import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
 
 /**
- *
+ * When the history is an IndexedHistory, the reader displays after the cursor,
+ * in faint style, the history entry that best completes what has been typed
+ * so far (see SuggestionIndex); the suggestion is accepted moving the cursor
+ * forward (right arrow) or to the end of the line.
  */
 public class BshLineReader extends LineReaderImpl {
 
+    private SuggestionIndex suggestions;
+    private String suggestedFor, suggestion;
+    private boolean cleaning = false;
+
     public BshLineReader(Terminal terminal, String appName, Map<String, Object> variables) {
         super(terminal, appName, variables);
     }
@@ -45,4 +56,98 @@ public class BshLineReader extends LineReaderImpl {
     public void skipRedisplay() {
         skipRedisplay = true;
     }
+
+    @Override
+    public void setHistory(History history) {
+        super.setHistory(history);
+        suggestions = null; suggestedFor = suggestion = null;
+        if (history instanceof IndexedHistory) {
+            suggestions = new SuggestionIndex();
+            ((IndexedHistory)history).addIndexer(suggestions);
+        }
+    }
+
+    /**
+     * @return the suggested completion of the current buffer (the part not
+     *         typed yet) or null if there is no suggestion
+     */
+    public String getSuggestion() {
+        if ((suggestions == null) || (buf.cursor() != buf.length()) || (getSearchTerm() != null)) {
+            return null;
+        }
+
+        final String typed = buf.toString();
+        if (!typed.equals(suggestedFor)) {
+            String line = suggestions.suggest(getHistory(), typed);
+            if (line != null) {
+                line = line.substring(typed.length());
+                int nl = line.indexOf('\n');
+                line = (nl < 0) ? line : line.substring(0, nl);
+            }
+            suggestedFor = typed;
+            suggestion = ((line == null) || line.isEmpty()) ? null : line;
+        }
+        return suggestion;
+    }
+
+    @Override
+    public AttributedString getDisplayedBufferWithPrompts(List<AttributedString> secondaryPrompts) {
+        AttributedString displayed = super.getDisplayedBufferWithPrompts(secondaryPrompts);
+
+        String suggestion = (cleaning || (post != null)) ? null : getSuggestion();
+        if (suggestion == null) {
+            return displayed;
+        }
+        return new AttributedStringBuilder()
+               .append(displayed)
+               .append(suggestion, AttributedStyle.DEFAULT.faint())
+               .toAttributedString();
+    }
+
+    @Override
+    protected boolean forwardChar() {
+        return acceptSuggestion() || super.forwardChar();
+    }
+
+    @Override
+    protected boolean endOfLine() {
+        return acceptSuggestion() || super.endOfLine();
+    }
+
+    /**
+     * The line is displayed a last time when accepted, without suggestion.
+     */
+    @Override
+    protected void doCleanup(boolean nl) {
+        cleaning = true;
+        try {
+            super.doCleanup(nl);
+        } finally {
+            cleaning = false;
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private boolean acceptSuggestion() {
+        String suggestion = getSuggestion();
+        if (suggestion == null) {
+            return false;
+        }
+        buf.write(suggestion);
+        return true;
+    }
+
+    /**
+     * Uses the search index of the history when available.
+     */
+    @Override
+    public int searchBackwards(String searchTerm, int startIndex, boolean startsWith) {
+        if (getHistory() instanceof IndexedHistory) {
+            return ((IndexedHistory)getHistory()).searchBackwards(
+                searchTerm, startIndex, startsWith, isSet(Option.CASE_INSENSITIVE_SEARCH)
+            );
+        }
+        return super.searchBackwards(searchTerm, startIndex, startsWith);
+    }
 }
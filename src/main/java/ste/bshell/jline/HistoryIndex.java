@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An inverted index of the history entries: each (lower case) trigram of the
+ * indexed lines maps to the sorted list of the entries containing it. Given a
+ * search term, the entries containing all its trigrams are a (usually small)
+ * superset of the entries containing the term, so that only those need to be
+ * checked instead of scanning the whole history.
+ * <p>
+ * Posting lists are stored delta encoded as variable length integers, which
+ * keeps the index compact also for very large histories. Entries must be
+ * indexed in order.
+ */
+public class HistoryIndex implements IndexedHistory.Indexer {
+
+    private final Map<Long, Postings> grams = new HashMap<>();
+    private int size = 0;
+
+    @Override
+    public synchronized void reset() {
+        grams.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void index(int entry, String line) {
+        if (entry < size) {
+            return; // already indexed
+        }
+        for (long gram: trigrams(line)) {
+            Postings p = grams.get(gram);
+            if (p == null) {
+                grams.put(gram, p = new Postings());
+            }
+            p.add(entry);
+        }
+        size = entry + 1;
+    }
+
+    /**
+     * Returns the indexed entries that may contain all the given terms,
+     * ignoring case, in ascending order.
+     *
+     * @param terms the terms to look for - NOT NULL
+     *
+     * @return the candidate entries or null if the terms are too short to be
+     *         looked up in the index (in which case any entry is a candidate)
+     */
+    public synchronized int[] candidates(String... terms) {
+        long[] keys = new long[0];
+        for (String term: terms) {
+            long[] k = trigrams(term);
+            keys = Arrays.copyOf(keys, keys.length + k.length);
+            System.arraycopy(k, 0, keys, keys.length - k.length, k.length);
+        }
+        if (keys.length == 0) {
+            return null;
+        }
+
+        Postings[] lists = new Postings[keys.length];
+        for (int i=0; i<keys.length; ++i) {
+            if ((lists[i] = grams.get(keys[i])) == null) {
+                return new int[0];
+            }
+        }
+        //
+        // start from the shortest list so that the intersection is as small
+        // as possible from the beginning
+        //
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.count, b.count));
+
+        int[] result = lists[0].decode();
+        int n = result.length;
+        for (int i=1; (i<lists.length) && (n > 0); ++i) {
+            n = lists[i].retain(result, n);
+        }
+
+        return Arrays.copyOf(result, n);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static long[] trigrams(String s) {
+        if (s.length() < 3) {
+            return new long[0];
+        }
+        long[] keys = new long[s.length() - 2];
+        for (int i=0; i<keys.length; ++i) {
+            keys[i] = ((long)Character.toLowerCase(s.charAt(i))   << 32)
+                    | ((long)Character.toLowerCase(s.charAt(i+1)) << 16)
+                    |  (long)Character.toLowerCase(s.charAt(i+2));
+        }
+        Arrays.sort(keys);
+
+        int n = 1;
+        for (int i=1; i<keys.length; ++i) {
+            if (keys[i] != keys[n-1]) {
+                keys[n++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    // ---------------------------------------------------------------- Postings
+
+    /**
+     * A list of increasing entry numbers stored as variable length deltas.
+     */
+    private static class Postings {
+        private byte[] data = new byte[4];
+        private int length = 0, count = 0, last = -1;
+
+        void add(int entry) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int delta = entry - last;
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte)((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte)delta;
+            last = entry; ++count;
+        }
+
+        int[] decode() {
+            int[] entries = new int[count];
+            int entry = -1;
+            for (int i=0, pos=0; i<count; ++i) {
+                int delta = 0, shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                entries[i] = (entry += delta);
+            }
+            return entries;
+        }
+
+        /**
+         * Keeps in the first n elements of entries only the ones contained in
+         * this list.
+         *
+         * @return the number of entries retained
+         */
+        int retain(int[] entries, int n) {
+            int kept = 0, entry = -1, pos = 0, decoded = 0;
+            for (int i=0; i<n; ++i) {
+                while ((entry < entries[i]) && (decoded < count)) {
+                    int delta = 0, shift = 0;
+                    byte b;
+                    do {
+                        b = data[pos++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    entry += delta; ++decoded;
+                }
+                if (entry == entries[i]) {
+                    entries[kept++] = entries[i];
+                } else if (entry < entries[i]) {
+                    break; // this list is exhausted
+                }
+            }
+            return kept;
+        }
+    }
+}
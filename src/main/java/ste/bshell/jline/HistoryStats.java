@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+import ste.bshell.ExecutionStats;
+import ste.bshell.ExecutionStats.Outcome;
+
+/**
+ * The execution statistics of the statements entered in the console, stored
+ * in a side file of the history ({history file}.stats). Each statement is a
+ * fixed size binary record appended with a single write (so that concurrent
+ * sessions can share the file as they share the history) holding the
+ * position and timestamp of the history entry that completed the statement
+ * and its ExecutionStats. When more statements are completed by the same
+ * entry (e.g. entered on the same line) their statistics are merged into a
+ * single record, which is updated in place.
+ * <p>
+ * The statistics are loaded by column (see Columns), which keeps them compact
+ * in memory and makes it cheap to filter and sort them by any field.
+ */
+public class HistoryStats {
+
+    public static final String EXTENSION = ".stats";
+
+    static final int RECORD = 4 + 8 + 8 + 8 + 8 + 8 + 1;
+
+    private final Path path;
+
+    private int lastEntry = -1;
+    private long lastTime, lastPosition = -1;
+    private ExecutionStats lastStats;
+    private byte[] lastRecord;
+
+    public HistoryStats(Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path can not be null");
+        }
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Appends the statistics of a statement; if the last statement recorded
+     * by this object has been completed by the same entry, the statistics are
+     * merged into its record instead.
+     *
+     * @param entry the position of the history entry
+     * @param time the timestamp of the history entry
+     * @param stats the statistics - NOT NULL
+     *
+     * @throws IOException in case of errors
+     */
+    public synchronized void record(int entry, long time, ExecutionStats stats) throws IOException {
+        if ((entry == lastEntry) && (time == lastTime) && (lastPosition >= 0)) {
+            ExecutionStats merged = lastStats.merge(stats);
+            byte[] record = encode(entry, time, merged);
+            if (update(lastPosition, lastRecord, record)) {
+                lastStats = merged; lastRecord = record;
+                return;
+            }
+        }
+
+        byte[] record = encode(entry, time, stats);
+        ByteBuffer b = ByteBuffer.wrap(record);
+        //
+        // the file is opened for each record so that it is never written
+        // after it has been replaced by a compaction
+        //
+        try (FileChannel c = FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+        )) {
+            while (b.hasRemaining()) {
+                c.write(b);
+            }
+        }
+        lastEntry = entry; lastTime = time; lastStats = stats; lastRecord = record;
+        lastPosition = find(record);
+    }
+
+    /**
+     * @return all statistics recorded so far
+     *
+     * @throws IOException in case of errors
+     */
+    public Columns load() throws IOException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(path);
+        } catch (NoSuchFileException x) {
+            content = new byte[0];
+        }
+
+        Columns columns = new Columns(content.length / RECORD);
+        ByteBuffer b = ByteBuffer.wrap(content);
+        for (int i=0; i<columns.size; ++i) {
+            columns.entry[i] = b.getInt();
+            columns.time[i] = b.getLong();
+            columns.start[i] = b.getLong();
+            columns.duration[i] = b.getLong();
+            columns.cpu[i] = b.getLong();
+            columns.allocated[i] = b.getLong();
+            columns.outcome[i] = b.get();
+        }
+        return columns;
+    }
+
+    /**
+     * Rewrites the statistics after the history has been compacted, moving
+     * each record to the new position of its entry or dropping it if the
+     * entry has been removed. The new file is atomically moved in place;
+     * records appended in the meantime are remapped as well.
+     *
+     * @param map maps old entry positions to new ones (negative if removed)
+     *
+     * @throws IOException in case of errors
+     */
+    public void remap(IntUnaryOperator map) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel old = FileChannel.open(path, StandardOpenOption.READ)) {
+            Path newPath = Files.createTempFile(
+                path.toAbsolutePath().getParent(), String.valueOf(path.getFileName()), ".tmp"
+            );
+            long copied;
+            try {
+                try (FileChannel out = FileChannel.open(newPath, StandardOpenOption.WRITE)) {
+                    copied = remap(old, 0, out, map);
+                }
+                Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(newPath);
+            }
+            try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                remap(old, copied, out, map);
+            }
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static byte[] encode(int entry, long time, ExecutionStats stats) {
+        ByteBuffer b = ByteBuffer.allocate(RECORD);
+        b.putInt(entry).putLong(time)
+         .putLong(stats.start).putLong(stats.duration).putLong(stats.cpu).putLong(stats.allocated)
+         .put((byte)stats.outcome.ordinal());
+        return b.array();
+    }
+
+    /**
+     * Looks for the given record among the last ones (other sessions may have
+     * appended records after it).
+     *
+     * @return the position of the record or -1 if not found
+     */
+    private long find(byte[] record) throws IOException {
+        try (FileChannel c = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long end = c.size() - (c.size() % RECORD);
+            for (long position=end-RECORD; position>=Math.max(0, end-1024*RECORD); position-=RECORD) {
+                if (Arrays.equals(read(c, position), record)) {
+                    return position;
+                }
+            }
+        } catch (NoSuchFileException x) {
+            //
+            // removed meanwhile
+            //
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the record at the given position, provided it is still the
+     * expected one (the file may have been replaced or rewritten by a
+     * compaction meanwhile).
+     *
+     * @return true if the record has been replaced, false otherwise
+     */
+    private boolean update(long position, byte[] expected, byte[] record) throws IOException {
+        try (FileChannel c = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (!Arrays.equals(read(c, position), expected)) {
+                return false;
+            }
+            ByteBuffer b = ByteBuffer.wrap(record);
+            while (b.hasRemaining()) {
+                c.write(b, position + b.position());
+            }
+            return true;
+        } catch (NoSuchFileException x) {
+            return false;
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(RECORD);
+        while (b.hasRemaining() && (channel.read(b, position + b.position()) >= 0));
+        return b.array();
+    }
+
+    private long remap(FileChannel from, long position, FileChannel to, IntUnaryOperator map)
+    throws IOException {
+        final long end = from.size() - (from.size() % RECORD);
+
+        ByteBuffer in = ByteBuffer.allocate(RECORD * 1024), out = ByteBuffer.allocate(in.capacity());
+        while (position < end) {
+            in.clear(); in.limit((int)Math.min(in.capacity(), end - position));
+            while (in.hasRemaining() && (from.read(in, position + in.position()) >= 0));
+            position += in.position();
+            in.flip(); out.clear();
+            while (in.remaining() >= RECORD) {
+                int entry = map.applyAsInt(in.getInt());
+                if (entry < 0) {
+                    in.position(in.position() + RECORD - 4);
+                    continue;
+                }
+                out.putInt(entry);
+                for (int i=4; i<RECORD; ++i) {
+                    out.put(in.get());
+                }
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                to.write(out);
+            }
+        }
+        return position;
+    }
+
+    // ----------------------------------------------------------------- Columns
+
+    /**
+     * The statistics, one array per field.
+     */
+    public static class Columns {
+        public final int size;
+        public final int[] entry;
+        public final long[] time, start, duration, cpu, allocated;
+        public final byte[] outcome;
+
+        Columns(int size) {
+            this.size = size;
+            entry = new int[size];
+            time = new long[size]; start = new long[size]; duration = new long[size];
+            cpu = new long[size]; allocated = new long[size];
+            outcome = new byte[size];
+        }
+
+        /**
+         * @return the statistics of the i-th record
+         */
+        public ExecutionStats get(int i) {
+            return new ExecutionStats(start[i], duration[i], cpu[i], allocated[i], Outcome.values()[outcome[i]]);
+        }
+
+        /**
+         * @return a copy of these columns with only the records at the given
+         *         positions, in the given order
+         */
+        public Columns select(int[] rows) {
+            Columns c = new Columns(rows.length);
+            for (int i=0; i<rows.length; ++i) {
+                int r = rows[i];
+                c.entry[i] = entry[r]; c.time[i] = time[r]; c.start[i] = start[r];
+                c.duration[i] = duration[r]; c.cpu[i] = cpu[r]; c.allocated[i] = allocated[r];
+                c.outcome[i] = outcome[r];
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,1353 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntUnaryOperator;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.jline.reader.History;
+import org.jline.reader.LineReader;
+import ste.bshell.ExecutionStats;
+
+/**
+ * A JLine history backed by an append-only file that is never loaded in
+ * memory. Entries are stored one per line in the same format used by JLine's
+ * DefaultHistory (<code>{epoch millis}:{escaped line}</code>), so that existing
+ * history files can be used as they are.
+ * <p>
+ * The data file is memory-mapped and a side index file ({history file}.idx)
+ * keeps the end offset of each entry, so that any entry can be read in
+ * constant time. At startup only the part of the data file not yet indexed
+ * (if any) is scanned; new entries are appended to both files as they are
+ * added, therefore opening the history takes the same time regardless of its
+ * size.
+ * <p>
+ * The index file is never truncated in place: when it does not match the data
+ * file (e.g. the first time an existing history is opened) a new one is built
+ * and atomically moved in place.
+ * <p>
+ * The same history file can be shared by many sessions (processes) at the
+ * same time: each entry is appended with a single write to the file opened
+ * in append mode and the position of the entries in the file is their
+ * sequence number, so that sessions never overwrite each other and pick up
+ * the entries added by the others without locking (see refresh()). The
+ * history is periodically compacted removing duplicated entries (see
+ * compact()); this is done by one session at a time, which replaces the
+ * history file with a new one; the other sessions notice it and reopen
+ * the history.
+ * <p>
+ * The execution statistics of the statements can be recorded along with the
+ * entries that completed them in a side file (see HistoryStats).
+ * <p>
+ * The entries are also fed, in a background thread, to a set of
+ * {@link Indexer}s; a full text {@link HistoryIndex} is always registered and
+ * used to speed up the incremental search (reverseIterator(int) skips the
+ * entries that can not match the current search term), searchBackwards() and
+ * search(). Entries added while the indexers catch up are simply scanned.
+ */
+public class IndexedHistory implements History, Closeable {
+
+    public static final String INDEX_EXTENSION = ".idx";
+    public static final String LOCK_EXTENSION  = ".lock";
+
+    /**
+     * Minimum number of entries and time between two automatic compactions;
+     * the history is compacted when it doubled since the last compaction.
+     */
+    public static final int  COMPACTION_MIN_SIZE = 1000;
+    public static final long COMPACTION_INTERVAL = 10*60*1000;
+
+    static final long MAGIC  = 0x4253484944583031L; // BSHIDX01
+    static final int  HEADER = 16; // magic + data file fingerprint
+
+    private static final int CHUNK = 64*1024;
+    private static final long REMAP_THRESHOLD = 1024*1024;
+    private static final int INDEXING_BATCH = 4096;
+    private static final int PARTIAL_MATCHES = 1000; // per word, see search()
+
+    private final Path path, indexPath, lockPath;
+    private final HistoryStats stats;
+
+    private LineReader reader;
+
+    private FileChannel data, appender, index;
+    private MappedByteBuffer dataMap;
+    private long mapped;
+    private LongBuffer ends;
+    private int mappedCount;
+    private long[] tail = new long[1024];
+    private int tailCount;
+
+    private int cursor;
+    private Entry lastAdded;
+    private long fingerprint;
+    private int compactedSize = -1;
+    private long lastCompaction;
+
+    private final HistoryIndex searchIndex = new HistoryIndex();
+    private final List<Indexer> indexers = new CopyOnWriteArrayList<>();
+    private final Object indexLock = new Object();
+    private int generation;     // changed only holding both locks
+    private boolean pending;    // guarded by indexLock
+    private Thread indexing;
+
+    /**
+     * @param path the history file - NOT NULL
+     */
+    public IndexedHistory(Path path) {
+        this.path = Objects.requireNonNull(path, "path can not be null");
+        this.indexPath = Paths.get(path.toString() + INDEX_EXTENSION);
+        this.lockPath = Paths.get(path.toString() + LOCK_EXTENSION);
+        this.stats = new HistoryStats(Paths.get(path.toString() + HistoryStats.EXTENSION));
+        indexers.add(searchIndex);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public HistoryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the last entry added by this history (not by other sessions) or
+     *         null if none
+     */
+    public synchronized Entry getLastAdded() {
+        return lastAdded;
+    }
+
+    /**
+     * Records the execution statistics of the statement completed by the
+     * given entry. Statistics are not essential, therefore errors are
+     * ignored.
+     *
+     * @param entry the entry - NOT NULL
+     * @param stats the statistics - NOT NULL
+     */
+    public void record(Entry entry, ExecutionStats stats) {
+        try {
+            this.stats.record(entry.index(), entry.time().toEpochMilli(), stats);
+        } catch (IOException x) {
+            //
+            // nothing to do
+            //
+        }
+    }
+
+    /**
+     * Returns the recorded statistics of the entries still in the history;
+     * the statistics of entries removed (e.g. by a compaction in progress)
+     * are discarded.
+     *
+     * @return the statistics
+     *
+     * @throws IOException in case of errors
+     */
+    public synchronized HistoryStats.Columns executions() throws IOException {
+        refresh();
+
+        HistoryStats.Columns all = stats.load();
+        int[] rows = new int[all.size];
+        int n = 0;
+        for (int i=0; i<all.size; ++i) {
+            int e = all.entry[i];
+            if ((e >= 0) && (e < size()) && (entry(e).time().toEpochMilli() == all.time[i])) {
+                rows[n++] = i;
+            }
+        }
+        return all.select(Arrays.copyOf(rows, n));
+    }
+
+    /**
+     * @return the full text index of the entries
+     */
+    public HistoryIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Registers an indexer that will be fed with all entries, the existing
+     * ones first.
+     *
+     * @param indexer the indexer - NOT NULL
+     */
+    public void addIndexer(Indexer indexer) {
+        Objects.requireNonNull(indexer, "indexer can not be null");
+        synchronized (indexLock) {
+            indexer.reset();
+            indexers.add(indexer);
+            pending = true;
+            indexLock.notifyAll();
+        }
+    }
+
+    /**
+     * Picks up the entries added to the history file by other sessions; if
+     * the file has been replaced (e.g. compacted or purged by another
+     * session) the history is reopened.
+     */
+    public synchronized void refresh() {
+        if (data == null) {
+            return; // it will be up to date when opened
+        }
+        try {
+            if (replaced()) {
+                close(); open();
+            } else if (data.size() > ((size() == 0) ? 0 : end(size() - 1))) {
+                catchUp();
+            }
+        } catch (IOException x) {
+            throw new IOError(x);
+        }
+    }
+
+    /**
+     * Rewrites the history file keeping only the last occurrence of each
+     * entry (and no more than HISTORY_FILE_SIZE entries, if this variable is
+     * set in the line reader). Only one session at a time can compact the
+     * history: if another session is already doing it, this call returns
+     * immediately.
+     * <p>
+     * The new file is written aside and atomically moved in place; entries
+     * appended by other sessions to the old file in the meantime are copied
+     * into the new one.
+     *
+     * @return true if the history has been compacted, false otherwise
+     *
+     * @throws IOException in case of errors
+     */
+    public boolean compact() throws IOException {
+        final Integer max;
+        synchronized (this) {
+            ensureOpen();
+            Object value = (reader == null) ? null : reader.getVariable(LineReader.HISTORY_FILE_SIZE);
+            max = (value == null) ? null : Integer.valueOf(String.valueOf(value));
+        }
+
+        try (
+            FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = tryLock(lockChannel)
+        ) {
+            if (lock == null) {
+                return false;
+            }
+
+            try (FileChannel old = FileChannel.open(path, StandardOpenOption.READ)) {
+                long copied = lastLineEnd(old, old.size());
+
+                //
+                // keep the last occurrence of each entry, in order
+                //
+                List<String> records = new ArrayList<>();
+                LinkedHashMap<String, Integer> entries = new LinkedHashMap<>();
+                try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                    new BoundedInputStream(Files.newInputStream(path), copied), StandardCharsets.UTF_8
+                ))) {
+                    String record;
+                    while ((record = r.readLine()) != null) {
+                        String line = record.substring(timestampEnd(record) + 1);
+                        entries.remove(line);
+                        entries.put(line, records.size());
+                        records.add(record);
+                    }
+                }
+                final int[] map = new int[records.size()];
+                Arrays.fill(map, -1);
+                int kept = 0;
+
+                Path newPath = Files.createTempFile(
+                    path.toAbsolutePath().getParent(), String.valueOf(path.getFileName()), ".tmp"
+                );
+                try {
+                    try (FileChannel out = FileChannel.open(newPath, StandardOpenOption.WRITE)) {
+                        int skip = ((max == null) || (max < 0)) ? 0 : Math.max(0, entries.size() - max);
+                        StringBuilder sb = new StringBuilder();
+                        for (int i: entries.values()) {
+                            if (skip-- > 0) {
+                                continue;
+                            }
+                            map[i] = kept++;
+                            sb.append(records.get(i)).append('\n');
+                            if (sb.length() >= CHUNK) {
+                                write(out, sb);
+                            }
+                        }
+                        write(out, sb);
+                        copied = drain(old, copied, out);
+                    }
+                    Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(newPath);
+                }
+
+                //
+                // sessions that did not notice the new file yet may still
+                // have appended entries to the old one
+                //
+                try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    drain(old, copied, out);
+                }
+
+                //
+                // entries appended after the ones compacted are all kept
+                //
+                final int compacted = records.size(), first = kept;
+                stats.remap(new IntUnaryOperator() {
+                    @Override
+                    public int applyAsInt(int i) {
+                        return (i < compacted) ? map[i] : first + (i - compacted);
+                    }
+                });
+            }
+        }
+
+        synchronized (this) {
+            refresh();
+            compactedSize = size();
+            lastCompaction = System.currentTimeMillis();
+        }
+
+        return true;
+    }
+
+    /**
+     * Searches backwards, starting from the entry before from, the first
+     * entry containing (or starting with) the given term. This is what
+     * LineReaderImpl.searchBackwards() does, but only the entries that may
+     * contain the term according to the search index are checked.
+     *
+     * @param term the term to search - NOT NULL
+     * @param from the search starts from the entry before this one
+     * @param startsWith true if the entry must start with term
+     * @param ignoreCase true to ignore case
+     *
+     * @return the position of the entry found or -1 if none
+     */
+    public synchronized int searchBackwards(String term, int from, boolean startsWith, boolean ignoreCase) {
+        refresh();
+        if (ignoreCase) {
+            term = term.toLowerCase();
+        }
+        Candidates i = new Candidates(Math.min(from, size()), term);
+        while (i.hasNext()) {
+            int e = i.nextInt();
+            String line = get(e);
+            if (ignoreCase) {
+                line = line.toLowerCase();
+            }
+            int pos = line.indexOf(term);
+            if (startsWith ? (pos == 0) : (pos >= 0)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Searches the entries containing the words in the given query, ignoring
+     * case. Entries containing all words come first, newest first; if there
+     * are less than max of them, the recent entries containing only some of
+     * the words follow, the ones containing more words first.
+     *
+     * @param query the words to search, separated by blanks - NOT NULL
+     * @param max maximum number of entries to return
+     *
+     * @return the matching entries, most relevant first
+     */
+    public synchronized List<Entry> search(String query, int max) {
+        refresh();
+
+        final String[] words = query.trim().toLowerCase(Locale.ROOT).split("\\s+");
+
+        List<Entry> result = new ArrayList<>();
+        Candidates i = new Candidates(size(), words);
+        while (i.hasNext() && (result.size() < max)) {
+            Entry e = entry(i.nextInt());
+            if (matches(e.line(), words) == words.length) {
+                result.add(e);
+            }
+        }
+
+        if ((result.size() < max) && (words.length > 1)) {
+            //
+            // not enough entries containing all words: rank by number of
+            // words contained the most recent entries containing any of them
+            //
+            final Map<Integer, Integer> scores = new HashMap<>();
+            for (String word: words) {
+                i = new Candidates(size(), word);
+                for (int n=0; i.hasNext() && (n < PARTIAL_MATCHES);) {
+                    int e = i.nextInt();
+                    if (get(e).toLowerCase(Locale.ROOT).contains(word)) {
+                        scores.merge(e, 1, Integer::sum); ++n;
+                    }
+                }
+            }
+            List<Integer> partial = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> score: scores.entrySet()) {
+                if (score.getValue() < words.length) {
+                    partial.add(score.getKey());
+                }
+            }
+            partial.sort((a, b) -> {
+                int c = scores.get(b).compareTo(scores.get(a));
+                return (c != 0) ? c : b.compareTo(a);
+            });
+            for (int e: partial) {
+                if (result.size() >= max) {
+                    break;
+                }
+                result.add(entry(e));
+            }
+        }
+
+        return result;
+    }
+
+    // ----------------------------------------------------------------- History
+
+    @Override
+    public synchronized void attach(LineReader reader) {
+        this.reader = reader;
+        if (data == null) {
+            try {
+                open();
+            } catch (IOException x) {
+                throw new IOError(x);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void load() throws IOException {
+        close();
+        open();
+    }
+
+    /**
+     * Entries are written as soon as they are added, there is nothing to save.
+     */
+    @Override
+    public synchronized void save() throws IOException {
+        if (appender != null) {
+            appender.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void purge() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(indexPath);
+        Files.deleteIfExists(stats.getPath());
+        open();
+    }
+
+    @Override
+    public synchronized int size() {
+        ensureOpen();
+        return mappedCount + tailCount;
+    }
+
+    @Override
+    public synchronized int index() {
+        return cursor;
+    }
+
+    @Override
+    public int first() {
+        return 0;
+    }
+
+    @Override
+    public synchronized int last() {
+        return size() - 1;
+    }
+
+    @Override
+    public synchronized String get(int index) {
+        return entry(index).line();
+    }
+
+    @Override
+    public synchronized void add(Instant time, String line) {
+        Objects.requireNonNull(time);
+        Objects.requireNonNull(line);
+
+        if (reader != null) {
+            if (Boolean.TRUE.equals(reader.getVariable(LineReader.DISABLE_HISTORY))) {
+                return;
+            }
+            if (reader.isSet(LineReader.Option.HISTORY_IGNORE_SPACE) && line.startsWith(" ")) {
+                return;
+            }
+            if (reader.isSet(LineReader.Option.HISTORY_REDUCE_BLANKS)) {
+                line = line.trim();
+            }
+            if (reader.isSet(LineReader.Option.HISTORY_IGNORE_DUPS)) {
+                if ((size() > 0) && line.equals(get(size()-1))) {
+                    return;
+                }
+            }
+        }
+
+        ensureOpen();
+        try {
+            while (true) {
+                refresh(); // do not write into a file replaced by another session
+                //
+                // a single write in append mode, so that concurrent sessions
+                // can not mix their entries
+                //
+                ByteBuffer record = ByteBuffer.wrap(format(time, line));
+                while (record.hasRemaining()) {
+                    appender.write(record);
+                }
+                if (!replaced()) {
+                    catchUp(); break;
+                }
+                //
+                // the history has been compacted (or purged) after refresh():
+                // the entry may have been written to the old file after the
+                // compaction copied it; once the compaction is over, write it
+                // again if it did not make it into the new file
+                //
+                awaitCompaction();
+                refresh();
+                if (find(time, line) != null) {
+                    break;
+                }
+            }
+        } catch (IOException x) {
+            throw new IOError(x);
+        }
+        cursor = size();
+        lastAdded = find(time, line);
+    }
+
+    @Override
+    public synchronized ListIterator<Entry> iterator(int index) {
+        return new EntryIterator(index, size());
+    }
+
+    /**
+     * This is used by the line reader only for the incremental search, in
+     * which case only the entries that may match the search term are
+     * returned; the reader checks them anyway.
+     */
+    @Override
+    public synchronized Iterator<Entry> reverseIterator(int index) {
+        final String term = (reader == null) ? null : reader.getSearchTerm();
+        refresh();
+        if ((term == null) || term.isEmpty()) {
+            return History.super.reverseIterator(index);
+        }
+
+        final Candidates candidates = new Candidates(Math.min(index + 1, size()), term);
+        return new Iterator<Entry>() {
+            @Override
+            public boolean hasNext() {
+                return candidates.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                return entry(candidates.nextInt());
+            }
+        };
+    }
+
+    @Override
+    public synchronized String current() {
+        return (cursor >= size()) ? "" : get(cursor);
+    }
+
+    @Override
+    public synchronized boolean previous() {
+        if (cursor <= 0) {
+            return false;
+        }
+        --cursor;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean next() {
+        if (cursor >= size()) {
+            return false;
+        }
+        ++cursor;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean moveToFirst() {
+        if ((size() > 0) && (cursor != 0)) {
+            cursor = 0;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean moveToLast() {
+        int last = size() - 1;
+        if ((last >= 0) && (last != cursor)) {
+            cursor = last;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean moveTo(int index) {
+        if ((index >= 0) && (index < size())) {
+            cursor = index;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This is called by the line reader after each line, which is a good time
+     * to pick up the entries added by other sessions.
+     */
+    @Override
+    public synchronized void moveToEnd() {
+        refresh();
+        cursor = size();
+    }
+
+    // --------------------------------------------------------------- Closeable
+
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (indexLock) {
+            ++generation;
+            for (Indexer indexer: indexers) {
+                indexer.reset();
+            }
+        }
+        for (FileChannel c: new FileChannel[] {data, appender, index}) {
+            if (c != null) {
+                c.close();
+            }
+        }
+        data = appender = index = null;
+        dataMap = null; ends = null; lastAdded = null;
+        mapped = mappedCount = tailCount = cursor = 0;
+    }
+
+    // ------------------------------------------------------- protected methods
+
+    /**
+     * Returns the entry at the given position.
+     *
+     * @param index the position of the entry
+     *
+     * @return the entry at the given position
+     *
+     * @throws IndexOutOfBoundsException if index is not a valid position
+     */
+    protected synchronized Entry entry(int index) {
+        ensureOpen();
+        if ((index < 0) || (index >= size())) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        try {
+            return parse(index, read(start(index), end(index) - 1));
+        } catch (IOException x) {
+            throw new IOError(x);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void ensureOpen() {
+        if (data == null) {
+            attach(reader);
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        //
+        // the fingerprint is taken before opening the file, so that if the
+        // file is replaced meanwhile it is simply reopened by refresh()
+        //
+        while (true) {
+            try {
+                fingerprint = fingerprint(path); break;
+            } catch (NoSuchFileException x) {
+                try {
+                    Files.createFile(path);
+                } catch (FileAlreadyExistsException e) {
+                    // created by another session
+                }
+            }
+        }
+        appender = FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+        );
+        data = FileChannel.open(path, StandardOpenOption.READ);
+        if ((data.size() > 0) && (byteAt(data.size() - 1) != '\n')) {
+            //
+            // the last line was not terminated (e.g. a crash while writing):
+            // terminate it so that new entries are not appended to it
+            //
+            appender.write(ByteBuffer.wrap(new byte[] {'\n'}));
+        }
+        mapData();
+        openIndex();
+        catchUp();
+        cursor = size();
+
+        if (compactedSize < 0) {
+            compactedSize = size();
+            lastCompaction = System.currentTimeMillis();
+        }
+
+        if (indexing == null) {
+            indexing = new Thread(this::indexEntries, "bshell-history");
+            indexing.setDaemon(true);
+            indexing.start();
+        }
+    }
+
+    private void mapData() throws IOException {
+        mapped = Math.min(data.size(), Integer.MAX_VALUE);
+        dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, mapped);
+    }
+
+    private void openIndex() throws IOException {
+        if (!isValidIndex(fingerprint)) {
+            Path newIndex = Files.createTempFile(
+                indexPath.toAbsolutePath().getParent(), String.valueOf(indexPath.getFileName()), ".tmp"
+            );
+            try (FileChannel c = FileChannel.open(newIndex, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.BIG_ENDIAN);
+                header.putLong(MAGIC).putLong(fingerprint).flip();
+                c.write(header);
+            }
+            Files.move(newIndex, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        index = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mappedCount = validEntries((int)((index.size() - HEADER) / 8));
+        ends = index.map(FileChannel.MapMode.READ_ONLY, HEADER, mappedCount * 8L).asLongBuffer();
+        tailCount = 0;
+    }
+
+    private boolean isValidIndex(long fingerprint) throws IOException {
+        if (!Files.exists(indexPath) || (Files.size(indexPath) < HEADER)) {
+            return false;
+        }
+        try (FileChannel c = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && (c.read(header) >= 0));
+            header.flip();
+            return (header.getLong() == MAGIC) && (header.getLong() == fingerprint);
+        }
+    }
+
+    /**
+     * Discards the trailing index entries that do not point to the end of
+     * an entry in the data file (e.g. because of a crash while writing).
+     */
+    private int validEntries(int count) throws IOException {
+        final long size = data.size();
+        while (count > 0) {
+            long previous = (count > 1) ? indexAt(count - 2) : 0;
+            long end = indexAt(count - 1);
+            if ((end > previous) && (end <= size) && (byteAt(end - 1) == '\n')) {
+                break;
+            }
+            --count;
+        }
+        return count;
+    }
+
+    private long indexAt(int i) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(8);
+        while (b.hasRemaining()) {
+            if (index.read(b, HEADER + i * 8L + b.position()) < 0) {
+                return -1;
+            }
+        }
+        b.flip();
+        return b.getLong();
+    }
+
+    /**
+     * Indexes the entries appended to the data file after the last indexed
+     * one.
+     */
+    private void catchUp() throws IOException {
+        final int first = size();
+        long position = (first == 0) ? 0 : end(first - 1);
+        final long size = data.size();
+
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+        while (position < size) {
+            chunk.clear();
+            int n = data.read(chunk, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i=0; i<n; ++i) {
+                if (chunk.get(i) == '\n') {
+                    append(position + i + 1);
+                }
+            }
+            position += n;
+        }
+
+        final int count = size() - first;
+        if (count > 0) {
+            ByteBuffer b = ByteBuffer.allocate(count * 8);
+            for (int i=first; i<first+count; ++i) {
+                b.putLong(end(i));
+            }
+            b.flip();
+            long at = HEADER + first * 8L;
+            while (b.hasRemaining()) {
+                at += index.write(b, at);
+            }
+        }
+
+        if ((size - mapped) > REMAP_THRESHOLD) {
+            mapData();
+        }
+
+        if (count > 0) {
+            synchronized (indexLock) {
+                pending = true;
+                indexLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Body of the background thread: reads the entries not yet indexed in
+     * batches holding the history lock and feeds them to the indexers holding
+     * only indexLock, so that the history is never blocked while indexing.
+     * When idle, it picks up the entries added by other sessions and compacts
+     * the history when needed. The thread ends when the history is closed.
+     */
+    private void indexEntries() {
+        try {
+            while (true) {
+                Indexer indexer = null;
+                List<Entry> batch = new ArrayList<>();
+                int batchGeneration;
+
+                synchronized (this) {
+                    if (data == null) {
+                        indexing = null;
+                        return;
+                    }
+                    batchGeneration = generation;
+                    final int size = size();
+                    for (Indexer i: indexers) {
+                        int from = i.size();
+                        if (from < size) {
+                            indexer = i;
+                            for (int e=from; e<Math.min(size, from+INDEXING_BATCH); ++e) {
+                                batch.add(entry(e));
+                            }
+                            break;
+                        }
+                    }
+                }
+
+                synchronized (indexLock) {
+                    if (indexer == null) {
+                        if (!pending) {
+                            indexLock.wait(1000);
+                        }
+                        pending = false;
+                        batch = null;
+                    } else if (batchGeneration == generation) {
+                        for (Entry e: batch) {
+                            indexer.index(e.index(), e.line());
+                        }
+                    }
+                }
+
+                if (batch == null) {
+                    maintain();
+                }
+            }
+        } catch (InterruptedException x) {
+            synchronized (this) {
+                indexing = null;
+            }
+        }
+    }
+
+    private void maintain() {
+        try {
+            boolean compact;
+            synchronized (this) {
+                if (data == null) {
+                    return;
+                }
+                refresh();
+                compact = (size() >= Math.max(COMPACTION_MIN_SIZE, 2*compactedSize))
+                       && ((System.currentTimeMillis() - lastCompaction) >= COMPACTION_INTERVAL);
+                if (compact) {
+                    lastCompaction = System.currentTimeMillis(); // do not retry on errors
+                }
+            }
+            if (compact) {
+                compact();
+            }
+        } catch (IOException | IOError x) {
+            //
+            // nothing to do, the history keeps working as it is
+            //
+        }
+    }
+
+    /**
+     * @return true if the history file has been replaced (or removed) since
+     *         it was opened
+     */
+    private boolean replaced() throws IOException {
+        try {
+            return fingerprint(path) != fingerprint;
+        } catch (NoSuchFileException x) {
+            return true;
+        }
+    }
+
+    /**
+     * Waits until no session is compacting the history.
+     */
+    private void awaitCompaction() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            while ((lock = tryLock(lockChannel)) == null) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt(); return;
+                }
+            }
+            lock.release();
+        }
+    }
+
+    /**
+     * Looks for the given entry among the last ones: normally it is the last
+     * one, unless other sessions added entries meanwhile.
+     *
+     * @return the entry found or null
+     */
+    private Entry find(Instant time, String line) {
+        for (int i=size()-1; i>=Math.max(0, size()-100); --i) {
+            Entry e = entry(i);
+            if (e.time().equals(time) && e.line().equals(line)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException x) {
+            return null; // locked by another history in this process
+        }
+    }
+
+    /**
+     * @return the position after the last complete line before size
+     */
+    private static long lastLineEnd(FileChannel channel, long size) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1);
+        while (size > 0) {
+            b.clear();
+            channel.read(b, size - 1);
+            if (b.get(0) == '\n') {
+                break;
+            }
+            --size;
+        }
+        return size;
+    }
+
+    /**
+     * Copies the complete lines of from after position to to.
+     *
+     * @return the position after the last line copied
+     */
+    private static long drain(FileChannel from, long position, FileChannel to) throws IOException {
+        final long end = lastLineEnd(from, from.size());
+        while (position < end) {
+            position += from.transferTo(position, end - position, to);
+        }
+        return position;
+    }
+
+    private static void write(FileChannel channel, StringBuilder sb) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+        sb.setLength(0);
+    }
+
+    private static int matches(String line, String[] words) {
+        line = line.toLowerCase(Locale.ROOT);
+        int n = 0;
+        for (String word: words) {
+            if (line.contains(word)) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private void append(long end) {
+        if (tailCount == tail.length) {
+            tail = Arrays.copyOf(tail, tail.length * 2);
+        }
+        tail[tailCount++] = end;
+    }
+
+    private long start(int i) {
+        return (i == 0) ? 0 : end(i - 1);
+    }
+
+    private long end(int i) {
+        return (i < mappedCount) ? ends.get(i) : tail[i - mappedCount];
+    }
+
+    private byte byteAt(long position) throws IOException {
+        if (position < mapped) {
+            return dataMap.get((int)position);
+        }
+        ByteBuffer b = ByteBuffer.allocate(1);
+        data.read(b, position);
+        return b.get(0);
+    }
+
+    private byte[] read(long from, long to) throws IOException {
+        byte[] bytes = new byte[(int)(to - from)];
+        if (to <= mapped) {
+            ByteBuffer b = dataMap.duplicate();
+            b.position((int)from);
+            b.get(bytes);
+        } else {
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            while (b.hasRemaining()) {
+                if (data.read(b, from + b.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long fingerprint(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+        //
+        // on unix the file key (device and inode) identifies the file; on
+        // other systems (without file keys) the creation time is used instead
+        //
+        Object key = attrs.fileKey();
+        return (key != null) ? key.toString().hashCode()
+                             : attrs.creationTime().toMillis();
+    }
+
+    static byte[] format(Instant time, String line) {
+        return (time.toEpochMilli() + ":" + escape(line) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Entry parse(int index, byte[] record) {
+        String text = new String(record, StandardCharsets.UTF_8);
+
+        int colon = timestampEnd(text);
+        if (colon > 0) {
+            return new HistoryEntry(
+                index,
+                Instant.ofEpochMilli(Long.parseLong(text.substring(0, colon))),
+                unescape(text.substring(colon + 1))
+            );
+        }
+        return new HistoryEntry(index, Instant.EPOCH, unescape(text));
+    }
+
+    /**
+     * @return the position of the colon after the timestamp of the given
+     *         record or -1 if the record has no timestamp
+     */
+    static int timestampEnd(String record) {
+        int colon = record.indexOf(':');
+        if (colon <= 0) {
+            return -1;
+        }
+        for (int i=0; i<colon; ++i) {
+            if (!Character.isDigit(record.charAt(i))) {
+                return -1;
+            }
+        }
+        return colon;
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i=0; i<s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\\': sb.append("\\\\"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i=0; i<s.length(); ++i) {
+            char c = s.charAt(i);
+            if ((c == '\\') && (i < s.length()-1)) {
+                c = s.charAt(++i);
+                sb.append((c == 'n') ? '\n' : (c == 'r') ? '\r' : c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // ----------------------------------------------------------------- Indexer
+
+    /**
+     * Something built on top of the history entries (e.g. a search index).
+     * Indexers are fed, in order, by the indexing thread of the history they
+     * are registered to; all methods may be called by different threads.
+     */
+    public interface Indexer {
+        /**
+         * Discards all entries indexed so far (e.g. because the history has
+         * been purged or reloaded).
+         */
+        void reset();
+
+        /**
+         * @return the number of entries indexed so far; entries from this
+         *         position on are not indexed yet
+         */
+        int size();
+
+        /**
+         * Indexes the given entry; entries are always given in order.
+         *
+         * @param entry the position of the entry
+         * @param line the content of the entry
+         */
+        void index(int entry, String line);
+    }
+
+    // -------------------------------------------------------------- Candidates
+
+    /**
+     * Iterates backwards, starting from the entry before from, over the
+     * entries that may contain the given terms: the entries not yet indexed
+     * are all returned, then only the ones suggested by the search index.
+     */
+    private class Candidates implements PrimitiveIterator.OfInt {
+        private final int indexed;
+        private final int[] hits;
+        private int next, h;
+
+        public Candidates(int from, String... terms) {
+            indexed = Math.min(searchIndex.size(), from);
+            hits = searchIndex.candidates(terms);
+            next = from - 1;
+            h = (hits == null) ? -1 : hits.length - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < 0) {
+                return false;
+            }
+            if ((hits == null) || (next >= indexed)) {
+                return true;
+            }
+            while ((h >= 0) && (hits[h] > next)) {
+                --h;
+            }
+            return h >= 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if ((hits == null) || (next >= indexed)) {
+                return next--;
+            }
+            next = hits[h--] - 1;
+            return next + 1;
+        }
+    }
+
+    // ------------------------------------------------------------ HistoryEntry
+
+    static class HistoryEntry implements Entry {
+        private final int index;
+        private final Instant time;
+        private final String line;
+
+        public HistoryEntry(int index, Instant time, String line) {
+            this.index = index;
+            this.time = time;
+            this.line = line;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public Instant time() {
+            return time;
+        }
+
+        @Override
+        public String line() {
+            return line;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d: %s", index, line);
+        }
+    }
+
+    // ----------------------------------------------------------- EntryIterator
+
+    private class EntryIterator implements ListIterator<Entry> {
+        private int next;
+        private final int size;
+
+        public EntryIterator(int next, int size) {
+            this.next = Math.max(0, Math.min(next, size));
+            this.size = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return entry(next++);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return next > 0;
+        }
+
+        @Override
+        public Entry previous() {
+            if (!hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            return entry(--next);
+        }
+
+        @Override
+        public int nextIndex() {
+            return next;
+        }
+
+        @Override
+        public int previousIndex() {
+            return next - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(Entry e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Entry e) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
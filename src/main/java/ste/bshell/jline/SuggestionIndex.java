@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.util.Arrays;
+import org.jline.reader.History;
+
+/**
+ * Suggests, given what has been typed so far, the history entry the user is
+ * most likely typing again: the most recent entry starting with the typed
+ * text, giving some more weight to the entries entered many times (each
+ * repetition counts as FREQUENCY_WEIGHT more recent entries).
+ * <p>
+ * Entries are indexed in a prefix tree of limited depth, where each node keeps
+ * the best entry starting with, and longer than, the node prefix; the nodes at the maximum
+ * depth keep the LEAF_SIZE best entries instead, which are checked one by one
+ * for longer prefixes. Only if none matches, the most recent entries are
+ * scanned within a fixed time budget (but at least SCAN_MIN of them); the
+ * same budget bounds the scan of the entries not indexed yet (e.g. while a
+ * large history is being indexed at startup). This way a suggestion costs at
+ * most a few microseconds regardless of the size of the history, so that it can be
+ * looked up at each keystroke.
+ */
+public class SuggestionIndex implements IndexedHistory.Indexer {
+
+    public static final int  MAX_DEPTH = 8;
+    public static final int  LEAF_SIZE = 16;
+    public static final int  FREQUENCY_WEIGHT = 50;
+    public static final int  SCAN_MIN = 64;        // entries
+    public static final long SCAN_BUDGET = 100000; // nanoseconds
+
+    private Node root = new Node();
+    private Counts counts = new Counts();
+    private int size = 0;
+
+    @Override
+    public synchronized void reset() {
+        root = new Node();
+        counts = new Counts();
+        size = 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void index(int entry, String line) {
+        if (entry < size) {
+            return; // already indexed
+        }
+        size = entry + 1;
+        if (line.isEmpty()) {
+            return;
+        }
+
+        final long key = Counts.hash(line);
+        final long score = entry + (long)FREQUENCY_WEIGHT * (counts.increment(key) - 1);
+
+        Node node = root;
+        for (int i=0; i<Math.min(line.length(), MAX_DEPTH); ++i) {
+            node = node.child(line.charAt(i), true);
+            //
+            // an entry equal to the node prefix would suggest nothing
+            //
+            if ((line.length() > i+1) && (score >= node.score)) {
+                node.best = entry; node.score = score;
+            }
+        }
+        if (line.length() >= MAX_DEPTH) {
+            node.leaf(entry, score, key);
+        }
+    }
+
+    /**
+     * Returns the entry of the given history that best completes prefix.
+     *
+     * @param history the indexed history - NOT NULL
+     * @param prefix the text typed so far - NOT NULL
+     *
+     * @return the suggested entry or null if there is no suggestion
+     */
+    public String suggest(History history, String prefix) {
+        if (prefix.isEmpty()) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        final int last = history.size() - 1;
+
+        int[] candidates;
+        int indexed;
+        synchronized (this) {
+            indexed = Math.min(size, last + 1);
+            Node node = root;
+            for (int i=0; (node != null) && (i<Math.min(prefix.length(), MAX_DEPTH)); ++i) {
+                node = node.child(prefix.charAt(i), false);
+            }
+            if (node == null) {
+                candidates = new int[0];
+            } else if (prefix.length() <= MAX_DEPTH) {
+                candidates = new int[] { node.best };
+            } else {
+                candidates = (node.leaf == null) ? new int[0] : Arrays.copyOf(node.leaf, node.leafSize);
+            }
+        }
+
+        //
+        // the newest entries may not be indexed yet
+        //
+        int n = 0;
+        for (int e=last; e>=indexed; --e) {
+            if ((++n > SCAN_MIN) && ((System.nanoTime() - start) > SCAN_BUDGET)) {
+                break;
+            }
+            String line = history.get(e);
+            if (line.startsWith(prefix) && (line.length() > prefix.length())) {
+                return line;
+            }
+        }
+
+        for (int e: candidates) {
+            if ((e >= 0) && (e < indexed)) {
+                String line = history.get(e);
+                if (line.startsWith(prefix) && (line.length() > prefix.length())) {
+                    return line;
+                }
+            }
+        }
+
+        if (prefix.length() <= MAX_DEPTH) {
+            return null; // the tree is authoritative
+        }
+
+        for (int e=indexed-1; e>=0; --e) {
+            if ((++n > SCAN_MIN) && ((System.nanoTime() - start) > SCAN_BUDGET)) {
+                break;
+            }
+            String line = history.get(e);
+            if (line.startsWith(prefix) && (line.length() > prefix.length())) {
+                return line;
+            }
+        }
+
+        return null;
+    }
+
+    // -------------------------------------------------------------------- Node
+
+    private static class Node {
+        private char[] keys = null;
+        private Node[] children = null;
+        private int childrenSize = 0;
+
+        private int best = -1;
+        private long score = Long.MIN_VALUE;
+
+        private int[] leaf = null;        // best entries first
+        private long[] leafScores = null, leafKeys = null;
+        private int leafSize = 0;
+
+        Node child(char c, boolean create) {
+            for (int i=0; i<childrenSize; ++i) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            if (!create) {
+                return null;
+            }
+            if (keys == null) {
+                keys = new char[2]; children = new Node[2];
+            } else if (childrenSize == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+            keys[childrenSize] = c;
+            return children[childrenSize++] = new Node();
+        }
+
+        void leaf(int entry, long score, long key) {
+            if (leaf == null) {
+                leaf = new int[LEAF_SIZE]; leafScores = new long[LEAF_SIZE]; leafKeys = new long[LEAF_SIZE];
+            }
+
+            //
+            // a previous occurrence of the same line is replaced, otherwise
+            // the worst entry is replaced if full
+            //
+            int i = 0;
+            while ((i < leafSize) && (leafKeys[i] != key)) {
+                ++i;
+            }
+            if (i == leafSize) {
+                if (leafSize < LEAF_SIZE) {
+                    ++leafSize;
+                } else if (score < leafScores[--i]) {
+                    return;
+                }
+            }
+            while ((i > 0) && (leafScores[i-1] <= score)) {
+                leaf[i] = leaf[i-1]; leafScores[i] = leafScores[i-1]; leafKeys[i] = leafKeys[i-1];
+                --i;
+            }
+            leaf[i] = entry; leafScores[i] = score; leafKeys[i] = key;
+        }
+    }
+
+    // ------------------------------------------------------------------ Counts
+
+    /**
+     * How many times each line has been entered, by 64 bit hash of the line
+     * (open addressing, to keep it small for large histories).
+     */
+    private static class Counts {
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private int size = 0;
+
+        int increment(long key) {
+            if (2*(size + 1) > keys.length) {
+                grow();
+            }
+            int i = slot(key);
+            if (values[i] == 0) {
+                keys[i] = key; ++size;
+            }
+            return ++values[i];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys; int[] oldValues = values;
+            keys = new long[oldKeys.length * 2]; values = new int[oldValues.length * 2];
+            for (int i=0; i<oldKeys.length; ++i) {
+                if (oldValues[i] != 0) {
+                    int j = slot(oldKeys[i]);
+                    keys[j] = oldKeys[i]; values[j] = oldValues[i];
+                }
+            }
+        }
+
+        private int slot(long key) {
+            int i = (int)(key ^ (key >>> 32)) & (keys.length - 1);
+            while ((keys[i] != key) && (values[i] != 0)) {
+                i = (i + 1) & (keys.length - 1);
+            }
+            return i;
+        }
+
+        static long hash(String s) {
+            long h = 0xcbf29ce484222325L; // FNV-1a
+            for (int i=0; i<s.length(); ++i) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+}
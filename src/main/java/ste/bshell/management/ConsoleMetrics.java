@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.management;
+
+import bsh.ScriptCache;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import ste.bshell.BshNodeExecutor;
+import ste.bshell.ExecutionStats;
+import ste.bshell.NodeFuture;
+
+/**
+ * Live metrics of a console, published in JMX (see register()) so that long
+ * running consoles can be monitored with the usual tools: statements executed
+ * and their latency, completion latency, output bytes and the tasks of the
+ * executor, which can also be cancelled.
+ * <p>
+ * Latencies are collected in histograms with power of two buckets (1, 2, 4,
+ * ... microseconds), therefore percentiles are upper bounds of the actual
+ * values within a factor of two. Recording is lock free.
+ */
+public class ConsoleMetrics implements ConsoleMetricsMBean {
+
+    public static final String OBJECT_NAME = "ste.bshell:type=ConsoleMetrics";
+
+    private final LongAdder executed  = new LongAdder(),
+                             failed    = new LongAdder(),
+                             cancelled = new LongAdder(),
+                             output    = new LongAdder();
+    private final Histogram statements  = new Histogram(),
+                            completions = new Histogram();
+
+    private volatile BshNodeExecutor executor = null;
+    private ObjectName name = null;
+
+    public void setExecutor(BshNodeExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Registers this object in the platform MBean server as OBJECT_NAME or,
+     * if already taken (e.g. by another console in the same JVM), as
+     * OBJECT_NAME,id=N.
+     *
+     * @return the name this object is registered with
+     *
+     * @throws JMException if the object can not be registered
+     */
+    public synchronized ObjectName register() throws JMException {
+        if (name != null) {
+            return name;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName n = new ObjectName(OBJECT_NAME);
+        for (int id=2; server.isRegistered(n); ++id) {
+            n = new ObjectName(OBJECT_NAME + ",id=" + id);
+        }
+        server.registerMBean(this, n);
+
+        return name = n;
+    }
+
+    public synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException x) {
+            //
+            // already gone, nothing to do
+            //
+        }
+        name = null;
+    }
+
+    /**
+     * Records a statement executed.
+     */
+    public void statement(ExecutionStats stats) {
+        executed.increment();
+        if (stats.outcome == ExecutionStats.Outcome.FAILURE) {
+            failed.increment();
+        } else if (stats.outcome == ExecutionStats.Outcome.CANCELLED) {
+            cancelled.increment();
+        }
+        statements.record(stats.duration / 1000);
+    }
+
+    /**
+     * Records a completion.
+     *
+     * @param nanos how long the completion took in nanoseconds
+     */
+    public void completion(long nanos) {
+        completions.record(nanos / 1000);
+    }
+
+    /**
+     * Records some text displayed.
+     */
+    public void output(CharSequence s) {
+        output.add(utf8Length(s));
+    }
+
+    // ----------------------------------------------------- ConsoleMetricsMBean
+
+    @Override
+    public long getStatementsExecuted() {
+        return executed.sum();
+    }
+
+    @Override
+    public long getStatementsFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getStatementsCancelled() {
+        return cancelled.sum();
+    }
+
+    @Override
+    public long getStatementLatencyP50() {
+        return statements.percentile(0.50);
+    }
+
+    @Override
+    public long getStatementLatencyP90() {
+        return statements.percentile(0.90);
+    }
+
+    @Override
+    public long getStatementLatencyP99() {
+        return statements.percentile(0.99);
+    }
+
+    @Override
+    public long getStatementLatencyMax() {
+        return statements.max.get();
+    }
+
+    @Override
+    public long[] getStatementLatencyHistogram() {
+        return statements.counts();
+    }
+
+    @Override
+    public long getCompletions() {
+        return completions.count();
+    }
+
+    @Override
+    public long getCompletionLatencyP50() {
+        return completions.percentile(0.50);
+    }
+
+    @Override
+    public long getCompletionLatencyP99() {
+        return completions.percentile(0.99);
+    }
+
+    @Override
+    public long getCompletionLatencyMax() {
+        return completions.max.get();
+    }
+
+    @Override
+    public long[] getCompletionLatencyHistogram() {
+        return completions.counts();
+    }
+
+    @Override
+    public long[] getLatencyBounds() {
+        long[] bounds = new long[Histogram.BUCKETS];
+        for (int i=0; i<bounds.length; ++i) {
+            bounds[i] = Histogram.bound(i);
+        }
+        return bounds;
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return output.sum();
+    }
+
+    @Override
+    public long getParseCacheHits() {
+        return ScriptCache.getHits();
+    }
+
+    @Override
+    public long getParseCacheMisses() {
+        return ScriptCache.getMisses();
+    }
+
+    @Override
+    public int getParseCacheSize() {
+        return ScriptCache.size();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        BshNodeExecutor e = executor;
+        return (e == null) ? 0 : e.getActiveCount();
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        BshNodeExecutor e = executor;
+        return (e == null) ? 0 : e.getQueue().size();
+    }
+
+    @Override
+    public int getPoolSize() {
+        BshNodeExecutor e = executor;
+        return (e == null) ? 0 : e.getPoolSize();
+    }
+
+    @Override
+    public String[] getJobs() {
+        List<String> ids = new ArrayList<>();
+        for (NodeFuture f: jobs()) {
+            ids.add(id(f));
+        }
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    @Override
+    public boolean cancelJob(String id) {
+        for (NodeFuture f: jobs()) {
+            if (id(f).equals(id)) {
+                return f.cancel(true);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int cancelJobs() {
+        int n = 0;
+        for (NodeFuture f: jobs()) {
+            if (f.cancel(true)) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void reset() {
+        executed.reset(); failed.reset(); cancelled.reset(); output.reset();
+        statements.reset(); completions.reset();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private List<NodeFuture> jobs() {
+        BshNodeExecutor e = executor;
+        return (e == null) ? new ArrayList<>() : e.getJobs();
+    }
+
+    private static String id(NodeFuture f) {
+        return "T" + f.hashCode(); // as in the status bar
+    }
+
+    static long utf8Length(CharSequence s) {
+        long n = 0;
+        for (int i=0; i<s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n += 1;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                n += 4; ++i;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    // --------------------------------------------------------------- Histogram
+
+    /**
+     * Counts of values (microseconds) in power of two buckets: bucket i holds
+     * the values less than 2^i and, but for the first, not less than 2^(i-1);
+     * the last bucket holds all larger values.
+     */
+    private static class Histogram {
+        static final int BUCKETS = 32;
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        static long bound(int i) {
+            return (i == BUCKETS-1) ? Long.MAX_VALUE : (1L << i);
+        }
+
+        void record(long value) {
+            value = Math.max(0, value);
+            int i = 64 - Long.numberOfLeadingZeros(value);
+            buckets.incrementAndGet(Math.min(i, BUCKETS-1));
+            max.accumulate(value);
+        }
+
+        long count() {
+            long n = 0;
+            for (int i=0; i<BUCKETS; ++i) {
+                n += buckets.get(i);
+            }
+            return n;
+        }
+
+        long[] counts() {
+            long[] counts = new long[BUCKETS];
+            for (int i=0; i<BUCKETS; ++i) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * @return the upper bound of the bucket containing the given
+         *         percentile, capped to the maximum value seen; 0 if empty
+         */
+        long percentile(double p) {
+            long[] counts = counts();
+            long total = 0;
+            for (long c: counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long)Math.ceil(p * total), n = 0;
+            for (int i=0; i<BUCKETS; ++i) {
+                if ((n += counts[i]) >= rank) {
+                    return Math.min(bound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i=0; i<BUCKETS; ++i) {
+                buckets.set(i, 0);
+            }
+            max.reset();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.management;
+
+/**
+ * Management interface of ConsoleMetrics; latencies are in microseconds.
+ */
+public interface ConsoleMetricsMBean {
+
+    long getStatementsExecuted();
+    long getStatementsFailed();
+    long getStatementsCancelled();
+
+    long getStatementLatencyP50();
+    long getStatementLatencyP90();
+    long getStatementLatencyP99();
+    long getStatementLatencyMax();
+
+    /**
+     * @return the number of statements by latency; element i counts the
+     *         statements faster than getLatencyBounds()[i] and not faster
+     *         than getLatencyBounds()[i-1]
+     */
+    long[] getStatementLatencyHistogram();
+
+    long getCompletions();
+    long getCompletionLatencyP50();
+    long getCompletionLatencyP99();
+    long getCompletionLatencyMax();
+    long[] getCompletionLatencyHistogram();
+
+    /**
+     * @return the upper bounds of the histogram buckets in microseconds
+     */
+    long[] getLatencyBounds();
+
+    long getOutputBytes();
+
+    /**
+     * @return how many times run() found the parsed script in the cache;
+     *         the parse cache is shared by all consoles and is not affected
+     *         by reset()
+     */
+    long getParseCacheHits();
+
+    /**
+     * @return how many times run() had to parse the script
+     */
+    long getParseCacheMisses();
+
+    /**
+     * @return the number of parsed scripts in the cache
+     */
+    int getParseCacheSize();
+
+    int getActiveTasks();
+    int getQueuedTasks();
+    int getPoolSize();
+
+    /**
+     * @return the ids of the jobs being executed as displayed in the status
+     *         bar (e.g. T1234)
+     */
+    String[] getJobs();
+
+    /**
+     * @param id the id of the job as returned by getJobs()
+     *
+     * @return true if the job was found and cancelled
+     */
+    boolean cancelJob(String id);
+
+    /**
+     * @return the number of jobs cancelled
+     */
+    int cancelJobs();
+
+    void reset();
+}
@@ -18,11 +18,30 @@ package ste.bshell.ui;
 import bsh.BshConsoleInterpreter;
 import bsh.EvalError;
 import bsh.TargetError;
+import bsh.Utils;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.ParameterException;
+import ste.bshell.Profiler;
+import ste.bshell.StreamConsole;
+import ste.bshell.daemon.ConsoleServer;
+import ste.bshell.daemon.Daemon;
+import ste.bshell.daemon.DaemonClient;
+import ste.bshell.daemon.InterpreterPool;
 
 /**
  *
@@ -34,7 +53,16 @@ public class BshConsoleCLI {
 
     public static final String VAR_HISTORY_FILE = "HISTORY_FILE";
 
-    public void launch(String... args) throws IOException, EvalError {
+    public static final String STDIN = "-";
+
+    public static final int STATUS_INVALID_ARGUMENTS = 2;
+
+    /**
+     * @return the exit status: 0 unless the code given with --script, --eval
+     *         or --init failed (1) or the arguments are not valid
+     *         (STATUS_INVALID_ARGUMENTS)
+     */
+    public int launch(String... args) throws IOException, EvalError {
         BshConsoleCLI.BshConsoleOptions options = new BshConsoleCLI.BshConsoleOptions();
 
         CommandLine cli = new CommandLine(options);
@@ -44,14 +72,123 @@ public class BshConsoleCLI {
         } catch (ParameterException x) {
             System.out.println("\nInvalid arguments: " + x.getMessage() + "\n");
             cli.usage(System.out);
-            return;
+            return STATUS_INVALID_ARGUMENTS;
         }
 
         if (options.help) {
             cli.usage(System.out);
-            return;
+            return 0;
+        }
+
+        if ((options.eval != null) && (options.script != null)) {
+            System.out.println("\nInvalid arguments: --eval and --script can not be used together\n");
+            cli.usage(System.out);
+            return STATUS_INVALID_ARGUMENTS;
+        }
+
+        //
+        // a thin client does not need an interpreter at all
+        //
+        if (options.connect) {
+            return connect(options);
+        }
+
+        //
+        // the profile covers all modes and is written however the session
+        // ends, exit() and System.exit() included
+        //
+        final Thread profile = (options.profile == null) ? null : profile(options);
+        try {
+            return start(options);
+        } finally {
+            if (profile != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(profile);
+                    profile.run();
+                } catch (IllegalStateException x) {
+                    //
+                    // already shutting down: written by the hook
+                    //
+                }
+            }
+        }
+    }
+
+    public void syntax() {
+        System.out.println("Usage: " + getClass().getName());
+    }
+
+    public static void main(String... args) throws Exception {
+        int status = new BshConsoleCLI().launch(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    // ------------------------------------------------------- protected methods
+
+    /**
+     * Only the standard input matters: with the output redirected (e.g.
+     * bshell | tee log) the console is still interactive. Where it can not
+     * be told (e.g. on Windows when System.console() is not available) the
+     * standard input is assumed to be a terminal; use --script - to run it
+     * as a script.
+     *
+     * @return true if the standard input is attached to a terminal, false
+     *         otherwise
+     */
+    protected boolean isTerminal() {
+        if (System.console() != null) {
+            return true; // both standard input and output are
+        }
+        if (System.getProperty("os.name", "").startsWith("Windows")) {
+            return true;
+        }
+        try {
+            Process test = new ProcessBuilder("sh", "-c", "test -t 0")
+                           .redirectInput(ProcessBuilder.Redirect.INHERIT).start();
+            return test.waitFor() == 0;
+        } catch (IOException x) {
+            return true;
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            return true;
         }
+    }
 
+    /**
+     * Starts the interactive console.
+     *
+     * @return the exit status
+     */
+    protected int console(BshConsoleInterpreter bsh, BshConsoleOptions options) {
+        bsh.consoleInit();
+        try {
+            bsh.eval("printBanner();");
+        } catch (EvalError e) {
+            //
+            // if printBanner() is not available, we have nothing to do
+            //
+        }
+        if (options.welcomeOnly) {
+            return 0;
+        }
+
+        bsh.consoleStart();
+
+        return 0;
+    }
+
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Creates the interpreter and starts the mode selected by the given
+     * options.
+     *
+     * @return the exit status
+     */
+    private int start(BshConsoleOptions options) throws IOException, EvalError {
         BshConsoleInterpreter bsh = new BshConsoleInterpreter();
 
         //
@@ -66,37 +203,229 @@ public class BshConsoleCLI {
                     msg = x.getCause().getMessage();
                 }
                 System.out.println("error: invalid initialization script " +msg);
-                return;
+                return 1;
             }
         }
 
-        bsh.consoleInit();
-        try {
-            bsh.eval("printBanner();");
-        } catch (EvalError e) {
-            //
-            // if printBanner() is not available, we have nothing to do
-            //
+        if (options.daemon) {
+            return daemon(bsh, options);
         }
-        if (options.welcomeOnly) {
-            return;
+
+        if (options.server != null) {
+            return server(bsh, options);
         }
-        bsh.consoleStart();
+
+        if (options.eval != null) {
+            return eval(bsh, options.eval);
+        }
+
+        //
+        // when the input is not a terminal (e.g. bshell < script or at the
+        // end of a pipeline) there is nobody to interact with: the input is
+        // run as a script, without rendering prompts, status bar and the like
+        //
+        if ((options.script == null) && !options.interactive && !options.welcomeOnly && !isTerminal()) {
+            options.script = STDIN;
+        }
+        if (options.script != null) {
+            return script(bsh, options.script);
+        }
+
+        return console(bsh, options);
     }
 
-    public void syntax() {
-        System.out.println("Usage: " + getClass().getName());
+    /**
+     * Starts sampling the call stacks; the profile is written by the returned
+     * thread, which is registered as shutdown hook.
+     *
+     * @return the thread that stops the profiler and writes the profile
+     */
+    private Thread profile(final BshConsoleOptions options) {
+        final Profiler profiler = new Profiler(options.profileInterval).start();
+        final Thread writer = new Thread("bshell-profile") {
+            @Override
+            public void run() {
+                profiler.stop();
+                try (Writer out = Files.newBufferedWriter(Paths.get(options.profile), StandardCharsets.UTF_8)) {
+                    profiler.write(out);
+                } catch (IOException x) {
+                    System.err.println("error: unable to write the profile " + options.profile + ": " + x.getMessage());
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(writer);
+        return writer;
     }
 
-    public static void main(String... args) throws Exception {
-        new BshConsoleCLI().launch(args);
+    /**
+     * Runs the given script (or the standard input if script is STDIN)
+     * without the interactive machinery (see batch()).
+     *
+     * @return 0 if the script completed successfully, 1 otherwise
+     */
+    private int script(BshConsoleInterpreter bsh, String script) {
+        try (Reader in = open(script)) {
+            return batch(
+                bsh, in,
+                STDIN.equals(script) ? "<stdin>" : Paths.get(script).toAbsolutePath().toString(),
+                false
+            );
+        } catch (IOException x) {
+            System.err.println("error: unable to read script " + script + ": " + x.getMessage());
+        }
+        return 1;
     }
 
-    // ------------------------------------------------------- protected methods
+    /**
+     * Evaluates the given code and prints its value, if any.
+     *
+     * @return 0 if the code was evaluated successfully, 1 otherwise
+     */
+    private int eval(BshConsoleInterpreter bsh, String code) {
+        return batch(bsh, new StringReader(Utils.statements(code)), "<eval>", true);
+    }
+
+    /**
+     * Evaluates the statements read from in: statements are parsed and
+     * evaluated one after the other by the same parser in the calling thread
+     * and the output is buffered. The execution stops at the first error.
+     *
+     * @param printResult true to print the value of the last statement
+     *
+     * @return 0 if the statements were evaluated successfully, 1 otherwise
+     */
+    private int batch(BshConsoleInterpreter bsh, Reader in, String source, boolean printResult) {
+        final PrintStream stdout = System.out;
+        final PrintStream out = StreamConsole.buffered(stdout);
 
+        //
+        // System.out is redirected as well, so that what scripts print
+        // directly does not get out of order
+        //
+        System.setOut(out);
+        StreamConsole console = new StreamConsole(in, out, System.err);
+        bsh.setConsole(console);
+        try {
+            return console.batch(bsh, in, bsh.getNameSpace(), source, printResult);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
 
+    /**
+     * Keeps the interpreter warm serving the connections of thin clients
+     * (see --connect) until the process is terminated.
+     *
+     * @return 0 when the daemon is stopped, 1 if it could not be started
+     */
+    private int daemon(BshConsoleInterpreter bsh, BshConsoleOptions options) {
+        if (options.poolSize <= 0) {
+            System.err.println("error: --pool-size must be greater than zero");
+            return 1;
+        }
 
-    // --------------------------------------------------------- private methods
+        final Daemon daemon = new Daemon(bsh, Daemon.file(), options.poolSize);
+        try {
+            daemon.start();
+        } catch (IOException x) {
+            System.err.println("error: unable to start the daemon: " + x.getMessage());
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "bshell-daemon-stop"));
+        System.out.println("daemon listening on port " + daemon.getPort() + " (" + daemon.getFile() + ")");
+        try {
+            daemon.await();
+        } catch (InterruptedException x) {
+            daemon.stop();
+        }
+        return 0;
+    }
+
+    /**
+     * Serves console sessions over the network until the process is
+     * terminated; the address is given as [host:]port, host defaulting to the
+     * loopback interface.
+     *
+     * @return 0 when the server is stopped, 1 if it could not be started
+     */
+    private int server(BshConsoleInterpreter bsh, BshConsoleOptions options) {
+        InetSocketAddress address;
+        try {
+            int colon = options.server.lastIndexOf(':');
+            int port = Integer.parseInt(options.server.substring(colon+1));
+            address = (colon < 0)
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                    : new InetSocketAddress(options.server.substring(0, colon), port);
+        } catch (IllegalArgumentException x) {
+            System.err.println("error: invalid server address " + options.server);
+            return 1;
+        }
+
+        if ((options.poolSize <= 0) || (options.maxSessions <= 0)) {
+            System.err.println("error: --pool-size and --max-sessions must be greater than zero");
+            return 1;
+        }
+
+        final InterpreterPool pool = new InterpreterPool(bsh, options.poolSize);
+        final ConsoleServer server = new ConsoleServer(pool, address);
+        server.setMaxSessions(options.maxSessions);
+        try {
+            server.start();
+        } catch (IOException x) {
+            System.err.println("error: unable to start the server: " + x.getMessage());
+            pool.close();
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "bshell-server-stop"));
+        System.out.println(
+            "server listening on " + address.getHostString() + ":" + server.getPort()
+            + ", token " + server.getToken()
+        );
+        try {
+            server.await();
+        } catch (InterruptedException x) {
+            server.stop();
+        } finally {
+            pool.close();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs --script, --eval or an interactive session (if neither is given)
+     * in a running daemon.
+     *
+     * @return the exit status of the execution in the daemon, 1 if the daemon
+     *         could not be reached
+     */
+    private int connect(BshConsoleOptions options) {
+        DaemonClient client = new DaemonClient(Daemon.file());
+        try {
+            if (options.eval != null) {
+                return client.eval(options.eval, System.out);
+            }
+            if (options.script != null) {
+                try (Reader in = open(options.script)) {
+                    return client.script(
+                        STDIN.equals(options.script) ? "<stdin>" : Paths.get(options.script).toAbsolutePath().toString(),
+                        in, System.out
+                    );
+                }
+            }
+            return client.session(System.in, System.out);
+        } catch (IOException x) {
+            System.err.println("error: " + x.getMessage());
+        }
+        return 1;
+    }
+
+    private Reader open(String script) throws IOException {
+        if (STDIN.equals(script)) {
+            return new BufferedReader(new InputStreamReader(System.in), StreamConsole.DEFAULT_BUFFER_SIZE);
+        }
+        Path path = Paths.get(script);
+        return Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    }
 
     // --------------------------------------------------------- PipedInterpeter
 
@@ -119,11 +448,71 @@ public class BshConsoleCLI {
         )
         public String initScript;
 
+        @Option(
+            names="--script",
+            description = "Runs the given script (- for the standard input) without the interactive console and exits"
+        )
+        public String script;
+
+        @Option(
+            names="--eval",
+            description = "Evaluates the given code, prints its value and exits, without starting the console"
+        )
+        public String eval;
+
+        @Option(
+            names="--daemon",
+            description = "Keeps a warm interpreter running in the foreground, serving --connect clients"
+        )
+        public boolean daemon;
+
+        @Option(
+            names="--connect",
+            description = "Runs --script, --eval or an interactive session in a running --daemon"
+        )
+        public boolean connect;
+
+        @Option(
+            names="--server",
+            description = "Serves console sessions at the given [host:]port (host defaults to the loopback interface); clients must send the printed token as first line"
+        )
+        public String server;
+
+        @Option(
+            names="--max-sessions",
+            description = "The maximum number of concurrent --server sessions (default 256)"
+        )
+        public int maxSessions = ConsoleServer.DEFAULT_MAX_SESSIONS;
+
+        @Option(
+            names="--pool-size",
+            description = "How many --server or --daemon interpreters to keep ready for new sessions (default 4)"
+        )
+        public int poolSize = InterpreterPool.DEFAULT_SIZE;
+
+        @Option(
+            names="--interactive",
+            description = "Starts the interactive console even if the standard input is not a terminal"
+        )
+        public boolean interactive;
+
         @Option(
             names="--welcome",
             description = "Execute the init script if provided and exit"
         )
         public boolean welcomeOnly;
+
+        @Option(
+            names="--profile",
+            description = "Samples the BeanShell call stacks of the session and writes them in collapsed stacks format (for flame graphs) in the given file at exit"
+        )
+        public String profile;
+
+        @Option(
+            names="--profile-interval",
+            description = "The sampling interval of --profile in milliseconds (default 10)"
+        )
+        public long profileInterval = Profiler.DEFAULT_INTERVAL;
     }
 
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Recorder backed by JFR; loaded by Recorder only if jdk.jfr is available.
+ * Events are created and timed always, but their fields are set only if they
+ * are going to be committed, which is cheap when no recording is running.
+ */
+final class JfrRecorder extends Recorder {
+
+    public static final String CATEGORY = "BeanShell Console";
+
+    @Override
+    public Object beginStatement() {
+        StatementEvent e = new StatementEvent();
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void endStatement(Object event, String source, long job, String outcome) {
+        if (event == null) {
+            return; // not begun
+        }
+        StatementEvent e = (StatementEvent)event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.sourceHash = (source == null) ? 0 : source.hashCode();
+            e.job = job;
+            e.outcome = outcome;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginSource() {
+        SourceEvent e = new SourceEvent();
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void endSource(Object event, String file, long statements) {
+        if (event == null) {
+            return; // not begun
+        }
+        SourceEvent e = (SourceEvent)event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.file = file;
+            e.statements = statements;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginCompletion() {
+        CompletionEvent e = new CompletionEvent();
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void endCompletion(Object event, String line, int candidates) {
+        if (event == null) {
+            return; // not begun
+        }
+        CompletionEvent e = (CompletionEvent)event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.line = line;
+            e.candidates = candidates;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginStatus() {
+        StatusEvent e = new StatusEvent();
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void endStatus(Object event, String message, int tasks) {
+        if (event == null) {
+            return; // not begun
+        }
+        StatusEvent e = (StatusEvent)event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.message = message;
+            e.tasks = tasks;
+            e.commit();
+        }
+    }
+
+    // ------------------------------------------------------------------ events
+
+    @Name("ste.bshell.Statement")
+    @Label("Statement")
+    @Description("A statement executed by the console")
+    @Category(CATEGORY)
+    static class StatementEvent extends Event {
+        @Label("Source Hash")
+        int sourceHash;
+
+        @Label("Job")
+        long job;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("ste.bshell.Source")
+    @Label("Source")
+    @Description("A script parsed and evaluated by source()")
+    @Category(CATEGORY)
+    static class SourceEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Statements")
+        long statements;
+    }
+
+    @Name("ste.bshell.Completion")
+    @Label("Completion")
+    @Description("The candidates computed for tab completion")
+    @Category(CATEGORY)
+    static class CompletionEvent extends Event {
+        @Label("Line")
+        String line;
+
+        @Label("Candidates")
+        int candidates;
+    }
+
+    @Name("ste.bshell.Status")
+    @Label("Status Redraw")
+    @Description("The status bar redrawn")
+    @Category(CATEGORY)
+    static class StatusEvent extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Tasks")
+        int tasks;
+    }
+}
@@ -27,6 +27,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import ste.bshell.JLineConsole;
+import ste.bshell.jline.IndexedHistory;
 import ste.xtest.cli.BugFreeCLI;
 import ste.xtest.concurrent.Condition;
 import ste.xtest.concurrent.WaitFor;
@@ -66,6 +67,8 @@ public class BugFreeBshConsoleInterpreter extends BugFreeCLI {
         //
         final JLineConsole jline = (JLineConsole)bsh.console;
         then(jline.lineReader.getVariable(LineReader.HISTORY_FILE)).isEqualTo(HISTORY);
+        then(jline.lineReader.getHistory()).isInstanceOf(IndexedHistory.class);
+        then(((IndexedHistory)jline.lineReader.getHistory()).getPath()).isEqualTo(HISTORY.toPath());
     }
 
     @Test(timeout=1000)
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import java.util.EmptyStackException;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeCallStack {
+
+    private final NameSpace NS1 = new NameSpace((NameSpace)null, "one"),
+                            NS2 = new NameSpace(NS1, "two"),
+                            NS3 = new NameSpace(NS2, "three");
+
+    @Test
+    public void push_pop_and_get() {
+        CallStack cs = new CallStack(NS1);
+        cs.push(NS2); cs.push(NS3);
+
+        then(cs.depth()).isEqualTo(3);
+        then(cs.top()).isSameAs(NS3);
+        then(cs.get(0)).isSameAs(NS3);
+        then(cs.get(2)).isSameAs(NS1);
+        then(cs.get(3)).isSameAs(NameSpace.JAVACODE);
+        then(cs.toArray()).containsExactly(NS1, NS2, NS3);
+
+        then(cs.swap(NS1)).isSameAs(NS3);
+        cs.set(1, NS3);
+        then(cs.toArray()).containsExactly(NS1, NS3, NS1);
+
+        then(cs.pop()).isSameAs(NS1);
+        then(cs.pop()).isSameAs(NS3);
+        then(cs.pop()).isSameAs(NS1);
+        then(cs.depth()).isZero();
+
+        thenThrownBy(() -> cs.pop()).isInstanceOf(InterpreterError.class);
+        thenThrownBy(() -> cs.top()).isInstanceOf(EmptyStackException.class);
+    }
+
+    @Test
+    public void grow_and_clear() {
+        CallStack cs = new CallStack();
+        for (int i=0; i<1000; ++i) {
+            cs.push((i % 2 == 0) ? NS1 : NS2);
+        }
+        then(cs.depth()).isEqualTo(1000);
+        then(cs.get(0)).isSameAs(NS2);
+        then(cs.get(999)).isSameAs(NS1);
+
+        cs.clear();
+        then(cs.depth()).isZero();
+        then(cs.get(0)).isSameAs(NameSpace.JAVACODE);
+        cs.push(NS3);
+        then(cs.top()).isSameAs(NS3);
+    }
+
+    @Test
+    public void copy_is_independent() {
+        CallStack cs = new CallStack(NS1);
+        cs.push(NS2);
+
+        CallStack copy = cs.copy();
+        cs.pop(); cs.push(NS3); cs.push(NS3);
+
+        then(copy.toArray()).containsExactly(NS1, NS2);
+        copy.push(NS1);
+        then(cs.toArray()).containsExactly(NS1, NS3, NS3);
+        then(copy.toArray()).containsExactly(NS1, NS2, NS1);
+    }
+
+    @Test
+    public void reset() {
+        CallStack cs = new CallStack(NS1);
+        cs.push(NS2); cs.node = SimpleNode.JAVACODE;
+
+        cs.reset(NS3);
+        then(cs.toArray()).containsExactly(NS3);
+        then(cs.node).isNull();
+
+        cs.reset(null);
+        then(cs.depth()).isZero();
+    }
+
+    @Test
+    public void acquire_and_release_per_thread() throws Exception {
+        CallStack cs1 = CallStack.acquire();
+        then(cs1.depth()).isZero();
+
+        //
+        // in use, a new one is given
+        //
+        CallStack cs2 = CallStack.acquire();
+        then(cs2).isNotSameAs(cs1);
+
+        cs1.push(NS1);
+        CallStack.release(cs1);
+        then(cs1.depth()).isZero();
+        then(CallStack.acquire()).isSameAs(cs1);
+        CallStack.release(cs1);
+
+        //
+        // other threads have their own
+        //
+        final CallStack[] other = new CallStack[1];
+        Thread t = new Thread(() -> other[0] = CallStack.acquire());
+        t.start(); t.join();
+        then(other[0]).isNotNull().isNotSameAs(cs1);
+        then(CallStack.acquire()).isSameAs(cs1);
+    }
+}
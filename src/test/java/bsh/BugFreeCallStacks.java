@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeCallStacks {
+
+    private final NameSpace NS1 = new NameSpace((NameSpace)null, "global"),
+                            NS2 = new NameSpace(NS1, "compute");
+
+    @After
+    public void after() {
+        while (CallStacks.isTracking()) {
+            CallStacks.track(false);
+        }
+    }
+
+    @Test
+    public void nothing_tracked_if_not_tracking() {
+        CallStack cs = new CallStack(NS1);
+
+        then(CallStacks.isTracking()).isFalse();
+        CallStacks.enter(cs);
+        then(CallStacks.frames()).isEmpty();
+        CallStacks.exit(cs);
+    }
+
+    @Test
+    public void track_nested_call_stacks() throws Exception {
+        CallStacks.track(true); CallStacks.track(true);
+        CallStacks.track(false);
+        then(CallStacks.isTracking()).isTrue();
+
+        CallStack outer = new CallStack(NS1); outer.push(NS2);
+        CallStack inner = new CallStack(NS1);
+        inner.push(new BlockNameSpace(NS2));
+        inner.node = SimpleNode.JAVACODE;
+
+        CallStacks.enter(outer);
+        CallStacks.enter(inner);
+
+        List<String[]> frames = CallStacks.frames();
+        then(frames).hasSize(1);
+        then(frames.get(0)).startsWith("global", "compute", "global", "compute").hasSize(5);
+        then(frames.get(0)[4]).contains(":");
+
+        CallStacks.exit(inner);
+        then(CallStacks.frames().get(0)).containsExactly("global", "compute");
+
+        //
+        // other threads
+        //
+        Thread t = new Thread(() -> {
+            CallStacks.enter(new CallStack(NS2));
+            then(CallStacks.frames()).hasSize(2);
+        });
+        t.start(); t.join();
+
+        CallStacks.exit(outer);
+        then(CallStacks.frames()).hasSize(1); // t did not exit
+
+        CallStacks.track(false);
+        then(CallStacks.isTracking()).isFalse();
+        then(CallStacks.frames()).isEmpty();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeForkedNameSpace {
+
+    @Test
+    public void constructor() {
+        final NameSpace SNAPSHOT = new NameSpace((NameSpace)null, "global");
+
+        ForkedNameSpace fork = new ForkedNameSpace(SNAPSHOT, "fork");
+        then(fork.getSnapshot()).isSameAs(SNAPSHOT);
+        then(fork.getParent()).isSameAs(SNAPSHOT);
+        then(fork.getName()).isEqualTo("fork");
+
+        thenThrownBy(() -> new ForkedNameSpace(null, "fork"))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("snapshot can not be null");
+    }
+
+    @Test
+    public void shared_variables_are_copied_on_write() throws Exception {
+        final NameSpace SNAPSHOT = new NameSpace((NameSpace)null, "global");
+        SNAPSHOT.setVariable("shared", "snapshot", false);
+
+        ForkedNameSpace one = new ForkedNameSpace(SNAPSHOT, "one"),
+                        two = new ForkedNameSpace(SNAPSHOT, "two");
+
+        then(one.getVariable("shared")).isEqualTo("snapshot");
+        then(one.getVariableNames()).isEmpty(); // nothing copied on read
+
+        one.setVariable("shared", "one", false);
+        then(one.getVariable("shared")).isEqualTo("one");
+        then(two.getVariable("shared")).isEqualTo("snapshot");
+        then(SNAPSHOT.getVariable("shared")).isEqualTo("snapshot");
+
+        two.setVariable("mine", "two", false);
+        then(two.getVariable("mine")).isEqualTo("two");
+        then(one.getVariable("mine")).isEqualTo(Primitive.VOID);
+        then(SNAPSHOT.getVariable("mine")).isEqualTo(Primitive.VOID);
+    }
+
+    @Test
+    public void copies_retain_type_and_modifiers() throws Exception {
+        final NameSpace SNAPSHOT = new NameSpace((NameSpace)null, "global");
+        SNAPSHOT.setTypedVariable("counter", Integer.TYPE, new Primitive(1), (Modifiers)null);
+        Modifiers modifiers = new Modifiers();
+        modifiers.addModifier(Modifiers.FIELD, "final");
+        SNAPSHOT.setTypedVariable("CONSTANT", String.class, "value", modifiers);
+
+        ForkedNameSpace fork = new ForkedNameSpace(SNAPSHOT, "fork");
+
+        fork.setVariable("counter", new Primitive(2), false);
+        then(fork.getVariable("counter")).isEqualTo(new Primitive(2));
+        then(SNAPSHOT.getVariable("counter")).isEqualTo(new Primitive(1));
+
+        thenThrownBy(() -> fork.setVariable("counter", "not an int", false))
+            .isInstanceOf(UtilEvalError.class);
+        thenThrownBy(() -> fork.setVariable("CONSTANT", "other", false))
+            .isInstanceOf(UtilEvalError.class).hasMessageContaining("CONSTANT");
+        then(SNAPSHOT.getVariable("CONSTANT")).isEqualTo("value");
+    }
+
+    @Test
+    public void fork_interpreter() throws Exception {
+        Interpreter warm = new Interpreter();
+        warm.eval("greeting = \"hello\"; hello(name) { return greeting + \" \" + name; }");
+
+        Interpreter one = warm.fork(null, "one"), two = warm.fork(null, "two");
+
+        then(one.getNameSpace()).isInstanceOf(ForkedNameSpace.class);
+        then(one.getParent()).isSameAs(warm);
+        then(one.eval("hello(\"one\")")).isEqualTo("hello one");
+
+        one.eval("greeting = \"hi\";");
+        then(one.get("greeting")).isEqualTo("hi");
+        then(two.get("greeting")).isEqualTo("hello");
+        then(warm.get("greeting")).isEqualTo("hello");
+
+        //
+        // methods of the snapshot are bound to the snapshot
+        //
+        then(one.eval("hello(\"one\")")).isEqualTo("hello one");
+
+        //
+        // the bsh system object is forked as well
+        //
+        then(one.get("bsh")).isNotSameAs(warm.get("bsh"));
+        one.eval("bsh.cwd = \"/one\";");
+        then(one.get("bsh.cwd")).isEqualTo("/one");
+        then(two.get("bsh.cwd")).isEqualTo(warm.get("bsh.cwd"));
+
+        //
+        // and so is bsh.help, while bsh.system is shared by design
+        //
+        one.eval("bsh.help.mine = \"usage: mine()\";");
+        then(one.get("bsh.help.mine")).isEqualTo("usage: mine()");
+        then(two.get("bsh.help.mine")).isNull();
+        then(warm.get("bsh.help.mine")).isNull();
+        then(one.get("bsh.system")).isSameAs(warm.get("bsh.system"));
+    }
+}
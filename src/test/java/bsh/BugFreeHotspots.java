@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import bsh.Hotspots.Hotspot;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeHotspots {
+
+    private final NameSpace GLOBAL = new NameSpace((NameSpace)null, "global");
+
+    @Before
+    public void before() {
+        Hotspots.reset();
+    }
+
+    @After
+    public void after() {
+        Hotspots.enable(false);
+        Hotspots.reset();
+    }
+
+    @Test
+    public void nothing_counted_if_disabled() {
+        then(Hotspots.isEnabled()).isFalse();
+
+        CallStack cs = new CallStack(GLOBAL);
+        cs.push(method("parse", node("compute.bsh", 3)));
+        cs.pop();
+
+        then(Hotspots.top(10, false)).isEmpty();
+    }
+
+    @Test
+    public void count_statements_and_method_calls() throws Exception {
+        Hotspots.enable(true);
+
+        CallStack cs = new CallStack(GLOBAL);
+        SimpleNode statement = node("compute.bsh", 12);
+        SimpleNode call = node("compute.bsh", 3);
+
+        Hotspots.enter(cs, statement, statement, null);
+        for (int i=0; i<2; ++i) {
+            cs.push(method("parse", call));
+            Thread.sleep(20);
+            cs.pop();
+        }
+        Hotspots.exit(cs, statement);
+
+        List<Hotspot> top = Hotspots.top(10, false);
+        then(top).hasSize(2);
+        then(top.get(0).location).isEqualTo("compute.bsh:3 parse()");
+        then(top.get(0).count).isEqualTo(2);
+        then(top.get(0).self).isEqualTo(top.get(0).total).isGreaterThanOrEqualTo(40_000_000L);
+        then(top.get(1).location).isEqualTo("compute.bsh:12");
+        then(top.get(1).count).isEqualTo(1);
+        then(top.get(1).self).isLessThan(top.get(1).total - 40_000_000L + 1);
+
+        top = Hotspots.top(1, true);
+        then(top).hasSize(1);
+        then(top.get(0).location).isEqualTo("compute.bsh:12");
+    }
+
+    @Test
+    public void frames_left_open_end_with_enclosing_statement() {
+        Hotspots.enable(true);
+
+        CallStack cs = new CallStack(GLOBAL);
+        SimpleNode statement = node("<input>", 1);
+
+        Hotspots.enter(cs, statement, statement, null);
+        cs.push(method("fail", node("<input>", 1))); // never popped, e.g. error
+        Hotspots.exit(cs, statement);
+
+        then(Hotspots.top(10, false)).extracting("location")
+            .containsExactlyInAnyOrder("<input>:1", "<input>:1 fail()");
+    }
+
+    @Test
+    public void cleared_frames_are_not_counted() {
+        Hotspots.enable(true);
+
+        CallStack cs = new CallStack(GLOBAL);
+        cs.push(method("fail", node("<input>", 1)));
+        cs.clear();
+
+        then(Hotspots.top(10, false)).isEmpty();
+    }
+
+    @Test
+    public void frames_entered_while_disabled_are_ignored() {
+        CallStack cs = new CallStack(GLOBAL);
+        cs.push(method("parse", node("<input>", 1)));
+        Hotspots.enable(true);
+        cs.pop();
+
+        then(Hotspots.top(10, false)).isEmpty();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private SimpleNode node(String file, int line) {
+        SimpleNode node = new SimpleNode(0);
+        node.firstToken = new Token();
+        node.firstToken.beginLine = line;
+        node.setSourceFile(file);
+        return node;
+    }
+
+    private NameSpace method(String name, SimpleNode callerInfo) {
+        NameSpace ns = new NameSpace(GLOBAL, name);
+        ns.isMethod = true;
+        ns.setNode(callerInfo);
+        return ns;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package bsh;
+
+import java.io.File;
+import java.nio.file.Files;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeScriptCache {
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    private BshClassManager manager;
+
+    @Before
+    public void before() {
+        ScriptCache.clear();
+        manager = new Interpreter().getClassManager();
+    }
+
+    @Test
+    public void parse_once() throws Exception {
+        File script = TMP.newFile("script.bsh");
+        Files.write(script.toPath(), "a = 1;\nb = a + 1;\n".getBytes());
+
+        long parsed = Interpreter.getParsedStatements();
+        SimpleNode[] statements = ScriptCache.get(manager, script);
+        then(statements).hasSize(2);
+        then(statements[0].getSourceFile()).isEqualTo(script.getAbsolutePath());
+        then(ScriptCache.get(manager, script)).isSameAs(statements);
+        then(Interpreter.getParsedStatements() - parsed).isEqualTo(2);
+
+        then(ScriptCache.getMisses()).isEqualTo(1);
+        then(ScriptCache.getHits()).isEqualTo(1);
+        then(ScriptCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void changed_scripts_are_parsed_again() throws Exception {
+        File script = TMP.newFile("script.bsh");
+        Files.write(script.toPath(), "a = 1;\n".getBytes());
+
+        SimpleNode[] statements = ScriptCache.get(manager, script);
+        Files.write(script.toPath(), "a = 1;\nb = 2;\n".getBytes());
+
+        then(ScriptCache.get(manager, script)).isNotSameAs(statements).hasSize(2);
+        then(ScriptCache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    public void scripts_are_cached_per_class_manager() throws Exception {
+        File script = TMP.newFile("script.bsh");
+        Files.write(script.toPath(), "a = 1;\n".getBytes());
+        BshClassManager other = new Interpreter().getClassManager();
+
+        SimpleNode[] statements = ScriptCache.get(manager, script);
+        then(ScriptCache.get(other, script)).isNotSameAs(statements);
+        then(ScriptCache.getMisses()).isEqualTo(2);
+        then(ScriptCache.size()).isEqualTo(2);
+
+        ScriptCache.remove(manager);
+        then(ScriptCache.size()).isEqualTo(1);
+        then(ScriptCache.get(other, script)).isNotNull();
+        then(ScriptCache.getHits()).isEqualTo(1);
+
+        thenThrownBy(() -> ScriptCache.remove(null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("manager can not be null");
+    }
+
+    @Test
+    public void evaluate_parsed_statements_many_times() throws Exception {
+        File script = TMP.newFile("script.bsh");
+        Files.write(script.toPath(), "counter = counter + 1;\n".getBytes());
+
+        Interpreter bsh = new Interpreter();
+        bsh.set("counter", 0);
+        for (int i=0; i<3; ++i) {
+            bsh.eval(ScriptCache.get(bsh.getClassManager(), script), bsh.getNameSpace(), script.getAbsolutePath());
+        }
+        then(bsh.get("counter")).isEqualTo(3);
+    }
+
+    @Test
+    public void errors() throws Exception {
+        File script = TMP.newFile("script.bsh");
+        Files.write(script.toPath(), "a = ;\n".getBytes());
+
+        thenThrownBy(() -> ScriptCache.get(null, script))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("manager can not be null");
+        thenThrownBy(() -> ScriptCache.get(manager, null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("file can not be null");
+        thenThrownBy(() -> ScriptCache.get(manager, script)).isInstanceOf(ParseException.class);
+        then(ScriptCache.size()).isZero();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.InterpreterEvent;
+import static bsh.InterpreterEvent.BUSY;
+import static bsh.InterpreterEvent.DONE;
+import static bsh.InterpreterEvent.READY;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeEventBus {
+
+    private final EventBus BUS = new EventBus();
+
+    @After
+    public void after() {
+        BUS.close();
+    }
+
+    @Test
+    public void sanity_check() {
+        thenThrownBy(() -> BUS.subscribe(null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("listener can not be null");
+        thenThrownBy(() -> BUS.publish(null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("event can not be null");
+        thenThrownBy(() -> new InterpreterEvent(null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("type can not be null");
+    }
+
+    @Test
+    public void dispatch_to_all_listeners_in_order() throws Exception {
+        final List<InterpreterEvent> events1 = new ArrayList<>(), events2 = new ArrayList<>();
+        final Thread[] dispatcher = new Thread[1];
+
+        BUS.subscribe((e) -> { events1.add(e); dispatcher[0] = Thread.currentThread(); });
+        BUS.subscribe((e) -> events2.add(e));
+
+        InterpreterEvent e1 = new InterpreterEvent(READY, "bsh # "),
+                         e2 = new InterpreterEvent(BUSY),
+                         e3 = new InterpreterEvent(DONE);
+        BUS.publish(e1); BUS.publish(e2); BUS.publish(e3);
+
+        then(BUS.awaitDispatched(1000)).isTrue();
+        then(events1).containsExactly(e1, e2, e3);
+        then(events2).containsExactly(e1, e2, e3);
+        then(dispatcher[0]).isNotSameAs(Thread.currentThread());
+        then(dispatcher[0].getName()).isEqualTo("bshell-events");
+    }
+
+    @Test
+    public void publish_from_many_threads() throws Exception {
+        final List<InterpreterEvent> events = Collections.synchronizedList(new ArrayList<>());
+        BUS.subscribe((e) -> events.add(e));
+
+        Thread[] threads = new Thread[4];
+        for (int i=0; i<threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j=0; j<1000; ++j) {
+                    BUS.publish(new InterpreterEvent(DONE, j));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t: threads) {
+            t.join();
+        }
+
+        then(BUS.awaitDispatched(5000)).isTrue();
+        then(events).hasSize(4000);
+    }
+
+    @Test
+    public void failing_listener_does_not_stop_dispatching() throws Exception {
+        final List<InterpreterEvent> events = new ArrayList<>();
+
+        BUS.subscribe((e) -> { throw new RuntimeException("failing listener"); });
+        BUS.subscribe((e) -> events.add(e));
+
+        BUS.publish(new InterpreterEvent(READY));
+        BUS.publish(new InterpreterEvent(BUSY));
+
+        then(BUS.awaitDispatched(1000)).isTrue();
+        then(events).hasSize(2);
+    }
+
+    @Test
+    public void unsubscribe_and_close() throws Exception {
+        final List<InterpreterEvent> events = new ArrayList<>();
+        EventBus.Listener l = (e) -> events.add(e);
+
+        BUS.subscribe(l);
+        BUS.publish(new InterpreterEvent(READY));
+        then(BUS.awaitDispatched(1000)).isTrue();
+
+        BUS.unsubscribe(l);
+        BUS.publish(new InterpreterEvent(READY));
+        then(BUS.awaitDispatched(1000)).isTrue();
+        then(events).hasSize(1);
+
+        BUS.subscribe(l);
+        BUS.close();
+        BUS.publish(new InterpreterEvent(READY));
+        then(BUS.awaitDispatched(1000)).isTrue();
+        then(events).hasSize(1);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeHelpBundle {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void pack_and_open() throws Exception {
+        Path file = new File(ADIR.getRoot(), "dist/help.bundle").toPath();
+
+        then(HelpBundle.pack(Paths.get("src/test/bshell/help"), file)).isEqualTo(4);
+
+        HelpBundle bundle = HelpBundle.open(file);
+        then(names(bundle.topics())).containsExactly("com.acme.app.filter", "com.cls", "load", "org.cls");
+        then(names(bundle.find("cls"))).containsExactly("com.cls", "org.cls");
+        then(bundle.find("none")).isEmpty();
+        then(bundle.topics()).isSameAs(bundle.topics());
+        for (HelpIndex.Topic t: HelpIndex.get(Paths.get("src/test/bshell/help")).topics()) {
+            then(bundle.find(t.path.getFileName().toString().replace(".txt", "")))
+                .anySatisfy((b) -> {
+                    then(b.name).isEqualTo(t.name);
+                    try {
+                        then(b.getContent()).isEqualTo(t.getContent());
+                    } catch (IOException x) {
+                        throw new RuntimeException(x);
+                    }
+                });
+        }
+        then(bundle.search("dataset", 10).get(0).name).isEqualTo("com.acme.app.filter");
+    }
+
+    @Test
+    public void pack_compresses() throws Exception {
+        File dir = ADIR.newFolder("help");
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<1000; ++i) {
+            sb.append("a repetitive line of help text\n");
+        }
+        Files.write(new File(dir, "big.txt").toPath(), sb.toString().getBytes("UTF8"));
+        Path file = new File(ADIR.getRoot(), "help.bundle").toPath();
+
+        HelpBundle.pack(dir.toPath(), file);
+
+        then(Files.size(file)).isLessThan(sb.length() / 10);
+        then(HelpBundle.open(file).find("big").get(0).getContent()).isEqualTo(sb.toString());
+    }
+
+    @Test
+    public void not_a_bundle() throws Exception {
+        File file = ADIR.newFile("help.bundle");
+        Files.write(file.toPath(), "not a bundle".getBytes("UTF8"));
+
+        thenThrownBy(() -> HelpBundle.open(file.toPath()).topics())
+            .isInstanceOf(IOException.class).hasMessage("not a help bundle");
+
+        Files.write(file.toPath(), new byte[] { 0x42, 0x53, 0x48, 0x42, 0, 0, 0, 1 });
+        thenThrownBy(() -> HelpBundle.open(file.toPath()).topics())
+            .isInstanceOf(IOException.class).hasMessage("corrupted help bundle");
+    }
+
+    @Test
+    public void bundles_are_shared_until_changed() throws Exception {
+        Path file = new File(ADIR.getRoot(), "help.bundle").toPath();
+        HelpBundle.pack(Paths.get("src/test/bshell/help"), file);
+
+        HelpBundle bundle = HelpBundle.open(file);
+        then(HelpBundle.open(file)).isSameAs(bundle);
+        then(HelpBundle.open(new File(ADIR.getRoot(), "./help.bundle").toPath())).isSameAs(bundle);
+
+        File dir = ADIR.newFolder("help");
+        Files.write(new File(dir, "one.txt").toPath(), "one".getBytes("UTF8"));
+        HelpBundle.pack(dir.toPath(), file);
+
+        HelpBundle changed = HelpBundle.open(file);
+        then(changed).isNotSameAs(bundle);
+        then(names(changed.topics())).containsExactly("one");
+    }
+
+    @Test
+    public void extract_bundle_from_jar() throws Exception {
+        Path file = new File(ADIR.getRoot(), "help.bundle").toPath();
+        HelpBundle.pack(Paths.get("src/test/bshell/help"), file);
+        File jar = new File(ADIR.getRoot(), "help.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(HelpBundle.RESOURCE.substring(1)));
+            Files.copy(file, out);
+            out.closeEntry();
+        }
+
+        URL url = new URL("jar:" + jar.toURI() + "!" + HelpBundle.RESOURCE);
+        Path extracted = HelpBundle.extract(url);
+        try {
+            then(Files.readAllBytes(extracted)).isEqualTo(Files.readAllBytes(file));
+
+            //
+            // extracted only once
+            //
+            Files.setLastModifiedTime(extracted, FileTime.fromMillis(1000));
+            then(HelpBundle.extract(url)).isEqualTo(extracted);
+            then(Files.getLastModifiedTime(extracted).toMillis()).isEqualTo(1000);
+            then(names(HelpBundle.open(extracted).topics())).contains("load");
+        } finally {
+            Files.deleteIfExists(extracted);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private List<String> names(List<HelpIndex.Topic> topics) {
+        List<String> names = new ArrayList<>();
+        for (HelpIndex.Topic t: topics) {
+            names.add(t.name);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeHelpIndex {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    private File help;
+
+    @Before
+    public void before() throws Exception {
+        help = new File(ADIR.getRoot(), "help");
+        FileUtils.copyDirectory(new File("src/test/bshell/help"), help);
+    }
+
+    @Test
+    public void one_index_per_directory() throws Exception {
+        HelpIndex index = HelpIndex.get(help.toPath());
+
+        then(index.getDir()).isEqualTo(help.toPath().toAbsolutePath());
+        then(HelpIndex.get(Paths.get(help.getAbsolutePath(), "com", ".."))).isSameAs(index);
+        then(HelpIndex.get(new File("src/test/bshell/help").toPath())).isNotSameAs(index);
+    }
+
+    @Test
+    public void topics_and_contents() throws Exception {
+        HelpIndex index = HelpIndex.get(help.toPath());
+
+        then(names(index.topics())).containsExactly("com.acme.app.filter", "com.cls", "load", "org.cls");
+        then(names(index.find("cls"))).containsExactly("com.cls", "org.cls");
+        then(names(index.find("filter"))).containsExactly("com.acme.app.filter");
+        then(index.find("none")).isEmpty();
+        then(index.find("load").get(0).getContent()).contains("description for load");
+        then(index.topics()).isSameAs(index.topics());
+    }
+
+    @Test
+    public void invalidate_on_changes() throws Exception {
+        HelpIndex index = HelpIndex.get(help.toPath());
+        then(index.find("load").get(0).getContent()).contains("description for load");
+
+        List<HelpIndex.Topic> topics = index.topics();
+        FileUtils.writeStringToFile(new File(help, "com/acme/new.txt"), "a new topic", "UTF8");
+        then(names(topics = waitForChange(index, topics))).containsExactly(
+            "com.acme.app.filter", "com.acme.new", "com.cls", "load", "org.cls"
+        );
+
+        FileUtils.writeStringToFile(new File(help, "load.txt"), "changed", "UTF8");
+        topics = waitForChange(index, topics);
+        then(index.find("load").get(0).getContent()).isEqualTo("changed");
+
+        new File(help, "org/cls.txt").delete();
+        then(names(topics = waitForChange(index, topics))).doesNotContain("org.cls");
+
+        new File(help, "com/sub").mkdir();
+        topics = waitForChange(index, topics);
+        FileUtils.writeStringToFile(new File(help, "com/sub/sub.txt"), "in a new directory", "UTF8");
+        then(names(waitForChange(index, topics))).contains("com.sub.sub");
+
+        index.invalidate();
+        then(names(index.topics())).contains("com.sub.sub");
+    }
+
+    @Test
+    public void search_topics() throws Exception {
+        HelpIndex index = HelpIndex.get(help.toPath());
+
+        then(index.search("none", 10)).isEmpty();
+        then(index.search("", 10)).isEmpty();
+        then(hits(index.search("dataset", 10))).containsExactly("com.acme.app.filter");
+        then(index.search("dataset", 10).get(0).snippet).isEqualTo("filter(dataset, column, value)");
+        then(hits(index.search("DESCRIPTION cls", 10))).containsExactly("com.cls", "org.cls", "com.acme.app.filter", "load");
+        then(hits(index.search("descr", 2))).hasSize(2);
+        then(hits(index.search("descr cls", 10)).subList(0, 2)).containsExactly("com.cls", "org.cls");
+        then(index.search("description for load", 10).get(0).snippet).isEqualTo("description for load");
+
+        //
+        // name matches
+        //
+        then(hits(index.search("acme", 10))).containsExactly("com.acme.app.filter");
+    }
+
+    @Test
+    public void search_more_topics() throws Exception {
+        HelpIndex index = HelpIndex.get(help.toPath());
+
+        Map<String, String> more = new HashMap<>();
+        more.put("bsh.help.source", "usage: source( filename | URL )");
+
+        then(hits(index.search("filename", more, 10))).containsExactly("bsh.help.source", "load");
+        then(index.search("url", more, 10).get(0).snippet).isEqualTo("usage: source( filename | URL )");
+        then(hits(index.search("url", 10))).isEmpty();
+    }
+
+    @Test
+    public void search_follows_changes() throws Exception {
+        HelpIndex index = HelpIndex.get(help.toPath());
+        then(hits(index.search("topic", 10))).isEmpty();
+
+        List<HelpIndex.Topic> topics = index.topics();
+        FileUtils.writeStringToFile(new File(help, "com/acme/new.txt"), "a new topic", "UTF8");
+        topics = waitForChange(index, topics);
+        then(hits(index.search("topic", 10))).containsExactly("com.acme.new");
+
+        FileUtils.writeStringToFile(new File(help, "com/acme/new.txt"), "a changed subject", "UTF8");
+        topics = waitForChange(index, topics);
+        then(hits(index.search("topic", 10))).isEmpty();
+        then(hits(index.search("subject", 10))).containsExactly("com.acme.new");
+
+        new File(help, "com/acme/new.txt").delete();
+        waitForChange(index, topics);
+        then(hits(index.search("subject", 10))).isEmpty();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private List<String> hits(List<HelpIndex.Hit> hits) {
+        List<String> names = new ArrayList<>();
+        for (HelpIndex.Hit h: hits) {
+            names.add(h.name);
+        }
+        return names;
+    }
+
+    private List<String> names(List<HelpIndex.Topic> topics) {
+        List<String> names = new ArrayList<>();
+        for (HelpIndex.Topic t: topics) {
+            names.add(t.name);
+        }
+        return names;
+    }
+
+    private List<HelpIndex.Topic> waitForChange(HelpIndex index, List<HelpIndex.Topic> topics) throws Exception {
+        for (int i=0; (i<100) && (index.topics() == topics); ++i) {
+            Thread.sleep(50);
+        }
+        then(index.topics()).isNotSameAs(topics);
+        return index.topics();
+    }
+}
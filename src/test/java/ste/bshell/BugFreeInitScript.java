@@ -39,7 +39,7 @@ public class BugFreeInitScript {
     @Test
     public void set_bsh_help() throws Exception {
         BshConsoleInterpreter bsh = givenInterpreterWithInitScript();
-        then(bsh.get("bshell.help")).isEqualTo("help");
+        then(bsh.get("bshell.help")).isEqualTo("bundle:");
     }
 
     // --------------------------------------------------------- private methods
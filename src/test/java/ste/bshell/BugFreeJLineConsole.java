@@ -122,7 +122,7 @@ public class BugFreeJLineConsole extends BugFreeCLI {
 
         console.on(new InterpreterEvent(DONE, f));
         then(out.toString())
-            .contains(StringUtils.repeat('-', 80)).contains(READY).doesNotContain("T" + f.hashCode());
+            .contains(StringUtils.repeat('-', 80)).contains("READY").doesNotContain("T" + f.hashCode());
     }
 
     @Test
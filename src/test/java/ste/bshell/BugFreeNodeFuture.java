@@ -21,6 +21,7 @@ import bsh.InterpreterEvent;
 import java.util.concurrent.Callable;
 import static org.assertj.core.api.AssertionsForClassTypes.fail;
 import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
 import org.junit.Test;
 import ste.bshell.jline.TestLineReader;
 
@@ -29,10 +30,17 @@ import ste.bshell.jline.TestLineReader;
  */
 public class BugFreeNodeFuture {
 
+    private final EventBus EVENTS = new EventBus();
+
+    @After
+    public void after() {
+        EVENTS.close();
+    }
+
     @Test
-    public void construction() {
+    public void construction() throws Exception {
         try {
-            new NodeFuture(null, null);
+            new NodeFuture(null, null, null);
             fail("missing sanity check for callable");
         } catch (NullPointerException x) {
             //
@@ -41,33 +49,96 @@ public class BugFreeNodeFuture {
         }
 
         try {
-            new NodeFuture(createCallable(), null);
+            new NodeFuture(createCallable(), null, EVENTS);
             fail("missing sanity check for console");
         } catch (NullPointerException x) {
             then(x).hasMessage("console can not be null");
         }
+
+        try {
+            new NodeFuture(createCallable(), new JLineConsole(new JLineHelper().givenReader()), null);
+            fail("missing sanity check for events");
+        } catch (NullPointerException x) {
+            then(x).hasMessage("events can not be null");
+        }
     }
 
     @Test
-    public void notify_console_when_done() throws Exception {
+    public void publish_done_event() throws Exception {
         final JLineHelper H = new JLineHelper();
         TestLineReader r = H.givenReader();
 
         final Callable C = createCallable();
 
-        final String[]       type = new String[] { null };
-        final NodeFuture[] future = new NodeFuture[] { null };
-        NodeFuture f = new NodeFuture(C, new JLineConsole(r) {
+        final InterpreterEvent.Type[] type = new InterpreterEvent.Type[] { null };
+        final NodeFuture[]          future = new NodeFuture[] { null };
+        EVENTS.subscribe((e) -> {
+              type[0] = e.type;
+            future[0] = (NodeFuture)e.data;
+        });
+        NodeFuture f = new NodeFuture(C, new JLineConsole(r), EVENTS);
+
+        f.run(); f.get();
+        then(EVENTS.awaitDispatched(1000)).isTrue();
+        then(type[0]).isEqualTo(InterpreterEvent.DONE);
+        then(future[0]).isSameAs(f);
+    }
+
+    @Test
+    public void statement_text() throws Exception {
+        final JLineConsole C = new JLineConsole(new JLineHelper().givenReader());
+
+        then(new NodeFuture(createCallable(), C, EVENTS).getStatement()).isNull();
+        then(new NodeFuture(new NodeFuture.Statement() {
             @Override
-            public void on(InterpreterEvent e) {
-                  type[0] = e.type;
-                future[0] = (NodeFuture)e.data;
+            public String getText() {
+                return "a = 1;";
             }
-        });
 
+            @Override
+            public Object call() throws Exception {
+                return null;
+            }
+        }, C, EVENTS).getStatement()).isEqualTo("a = 1;");
+    }
+
+    @Test
+    public void measure_execution() throws Exception {
+        final JLineHelper H = new JLineHelper();
+        final JLineConsole C = new JLineConsole(H.givenReader());
+
+        NodeFuture f = new NodeFuture(new Callable() {
+            @Override
+            public Object call() throws Exception {
+                Thread.sleep(50);
+                return new byte[1024*1024];
+            }
+        }, C, EVENTS);
+        then(f.getStats()).isNull();
+        then(f.getSource()).isNull(); // not an IndexedHistory
+
+        long start = System.currentTimeMillis();
         f.run(); f.get();
-        then(type[0]).isEqualTo("DONE");
-        then(future[0]).isNotNull();
+
+        ExecutionStats stats = f.getStats();
+        then(stats.outcome).isEqualTo(ExecutionStats.Outcome.SUCCESS);
+        then(stats.start).isBetween(start, System.currentTimeMillis());
+        then(stats.duration).isGreaterThanOrEqualTo(50000000);
+        then(stats.cpu).isLessThan(stats.duration);
+        then(stats.allocated).isGreaterThanOrEqualTo(1024*1024);
+
+        f = new NodeFuture(new Callable() {
+            @Override
+            public Object call() throws Exception {
+                throw new Exception("failed");
+            }
+        }, C, EVENTS);
+        f.run();
+        then(f.getStats().outcome).isEqualTo(ExecutionStats.Outcome.FAILURE);
+
+        f = new NodeFuture(createCallable(), C, EVENTS);
+        f.cancel(true);
+        then(f.getStats().outcome).isEqualTo(ExecutionStats.Outcome.CANCELLED);
     }
 
      // -------------------------------------------------------- private methods
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.Interpreter;
+import java.io.StringWriter;
+import java.util.Map;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeProfiler {
+
+    @Test
+    public void interval_must_be_positive() {
+        then(new Profiler().getInterval()).isEqualTo(Profiler.DEFAULT_INTERVAL);
+        then(new Profiler(1).getInterval()).isEqualTo(1);
+        thenThrownBy(() -> new Profiler(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("interval must be greater than zero");
+    }
+
+    @Test
+    public void sample_script_call_stacks() throws Exception {
+        final Interpreter bsh = new Interpreter();
+        bsh.eval("inner() { Thread.sleep(300); }");
+        bsh.eval("outer() { inner(); }");
+
+        Profiler profiler = new Profiler(5).start();
+        bsh.eval("outer();");
+        profiler.stop();
+
+        Map<String, Long> samples = profiler.getSamples();
+        then(samples).isNotEmpty();
+        then(samples.keySet()).anySatisfy((stack) -> then(stack).contains("global;outer;inner"));
+
+        StringWriter out = new StringWriter();
+        long n = profiler.write(out);
+        then(n).isGreaterThan(10);
+        then(out.toString()).containsPattern("(?m)^global;outer;inner.* \\d+$");
+
+        //
+        // no more samples once stopped
+        //
+        bsh.eval("outer();");
+        then(profiler.getSamples()).isEqualTo(samples);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import bsh.Primitive;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeResultRenderer {
+
+    @Test
+    public void render_simple_values() {
+        final ResultRenderer R = new ResultRenderer();
+
+        then(R.render(null)).isEqualTo("null");
+        then(R.render(Primitive.NULL)).isEqualTo("null");
+        then(R.render(Primitive.VOID)).isEqualTo("void");
+        then(R.render(new Primitive(10))).isEqualTo("Integer: 10");
+        then(R.render("hello")).isEqualTo("String: \"hello\"");
+        then(R.render('c')).isEqualTo("Character: 'c'");
+    }
+
+    @Test
+    public void render_first_elements_only() {
+        final ResultRenderer R = new ResultRenderer(3, 3, 1024);
+
+        List<Integer> list = new ArrayList<>();
+        for (int i=0; i<10000000; ++i) {
+            list.add(i);
+        }
+        then(R.render(list)).isEqualTo("ArrayList[size=10000000]: [0, 1, 2, ... (9999997 more)]");
+        then(R.render(new int[] {1, 2})).isEqualTo("int[][size=2]: [1, 2]");
+        then(R.render(new String[0])).isEqualTo("String[][size=0]: []");
+
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("one", 1); map.put("two", 2); map.put("three", 3); map.put("four", 4);
+        then(R.render(map)).isEqualTo("LinkedHashMap[size=4]: {\"one\"=1, \"two\"=2, \"three\"=3, ... (1 more)}");
+    }
+
+    @Test
+    public void render_up_to_max_depth() {
+        final ResultRenderer R = new ResultRenderer(10, 2, 1024);
+
+        List deep = Arrays.asList(1, Arrays.asList(2, Arrays.asList(3, 4)));
+        then(R.render(deep)).isEqualTo("ArrayList[size=2]: [1, [2, ArrayList[size=2]]]");
+
+        List self = new ArrayList();
+        self.add(self);
+        then(new ResultRenderer().render(self)).isEqualTo("ArrayList[size=1]: [(this ArrayList)]");
+
+        then(new ResultRenderer(10, 0, 1024).render(deep)).isEqualTo("ArrayList[size=2]");
+    }
+
+    @Test
+    public void truncate_at_max_length() {
+        final ResultRenderer R = new ResultRenderer(100, 3, 10);
+
+        then(R.render("0123456789abcdef")).isEqualTo("String: \"0 ... (truncated)");
+    }
+
+    @Test
+    public void give_up_after_timeout() {
+        final ResultRenderer R = new ResultRenderer();
+
+        Object slow = new Object() {
+            @Override
+            public String toString() {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException x) {
+                    // interrupted by the renderer
+                }
+                return "slow";
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        then(R.render(slow, 100)).isEqualTo("(... rendering timed out after 100 ms ...)");
+        then(System.currentTimeMillis() - start).isLessThan(1000);
+
+        then(R.render("fast", 100)).isEqualTo("String: \"fast\"");
+    }
+
+    @Test
+    public void do_not_pile_up_stuck_renderings() throws Exception {
+        final ResultRenderer R = new ResultRenderer();
+        final CountDownLatch RELEASE = new CountDownLatch(1);
+
+        Object stuck = new Object() {
+            @Override
+            public String toString() {
+                while (true) {
+                    try {
+                        RELEASE.await();
+                        return "stuck";
+                    } catch (InterruptedException x) {
+                        // ignore interruptions
+                    }
+                }
+            }
+        };
+
+        then(R.render(stuck, 100)).isEqualTo("(... rendering timed out after 100 ms ...)");
+        then(R.render("fast", 100)).isEqualTo("(... not rendered, a previous rendering is still running ...)");
+
+        RELEASE.countDown();
+        then(R.render("fast", 100)).isEqualTo("String: \"fast\"");
+    }
+
+    @Test
+    public void sanity_check() {
+        final ResultRenderer R = new ResultRenderer();
+
+        try {
+            R.setMaxElements(-1);
+            fail("missing sanity check for maxElements");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("maxElements can not be negative");
+        }
+        try {
+            R.setMaxDepth(-1);
+            fail("missing sanity check for maxDepth");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("maxDepth can not be negative");
+        }
+        try {
+            R.setMaxLength(0);
+            fail("missing sanity check for maxLength");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("maxLength must be greater than zero");
+        }
+    }
+}
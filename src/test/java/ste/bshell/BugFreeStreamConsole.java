@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeStreamConsole {
+
+    @Test
+    public void constructor() {
+        final PrintStream OUT = new PrintStream(new ByteArrayOutputStream());
+        final StringReader IN = new StringReader("");
+
+        StreamConsole console = new StreamConsole(IN, OUT, System.err);
+        then(console.getIn()).isSameAs(IN);
+        then(console.getOut()).isSameAs(OUT);
+        then(console.getErr()).isSameAs(System.err);
+
+        thenThrownBy(() -> new StreamConsole(IN, null, System.err))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("out can not be null");
+        thenThrownBy(() -> new StreamConsole(IN, OUT, null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("err can not be null");
+    }
+
+    @Test
+    public void output_is_buffered() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamConsole console = new StreamConsole(null, StreamConsole.buffered(out), System.err);
+
+        console.print("hello "); console.println("world");
+        then(out.size()).isZero();
+
+        console.flush();
+        then(out.toString()).isEqualTo("hello world" + System.lineSeparator());
+    }
+
+    @Test
+    public void output_is_flushed_before_errors() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(),
+                              err = new ByteArrayOutputStream();
+        StreamConsole console = new StreamConsole(
+            null, StreamConsole.buffered(out), new PrintStream(err)
+        );
+
+        console.print("result");
+        console.error("failure");
+
+        then(out.toString()).isEqualTo("result");
+        then(err.toString()).isEqualTo("failure" + System.lineSeparator());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.Interpreter;
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+
+/**
+ *
+ */
+public class BugFree_expand {
+
+    @Rule
+    public final SystemOutRule STDOUT = new SystemOutRule().enableLog();
+
+    @Test
+    public void show_all_elements() throws Exception {
+        final Interpreter bsh = new Interpreter();
+
+        List<Integer> list = new ArrayList<>();
+        for (int i=0; i<1000; ++i) {
+            list.add(i);
+        }
+
+        expand.invoke(bsh, null, list);
+        then(STDOUT.getLog())
+            .startsWith("ArrayList[size=1000]: [0, 1, 2,")
+            .contains(", 999]")
+            .doesNotContain("more");
+    }
+
+    @Test
+    public void show_max_elements() throws Exception {
+        final Interpreter bsh = new Interpreter();
+
+        List<Integer> list = new ArrayList<>();
+        for (int i=0; i<1000; ++i) {
+            list.add(i);
+        }
+
+        expand.invoke(bsh, null, list, 2);
+        then(STDOUT.getLog()).contains("ArrayList[size=1000]: [0, 1, ... (998 more)]");
+    }
+}
@@ -17,11 +17,15 @@ package ste.bshell.commands;
 
 import bsh.EvalError;
 import bsh.Interpreter;
+import java.io.File;
+import java.nio.file.Paths;
 import static org.assertj.core.api.AssertionsForClassTypes.fail;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import ste.bshell.HelpBundle;
 
 
 /**
@@ -32,6 +36,9 @@ public class BugFree_help {
     @Rule
     public final SystemOutRule STDOUT = new SystemOutRule().enableLog();
 
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
     @Test
     public void no_help_available() throws Exception {
         final Interpreter bsh = new Interpreter();
@@ -117,4 +124,50 @@ public class BugFree_help {
             .contains("com.cls\n=======\n")
             .contains("\n\norg.cls\n=======\n");
     }
+
+    @Test
+    public void search_topics() throws Exception {
+        final Interpreter bsh = new Interpreter();
+        bsh.set("bshell.help", "src/test/bshell/help");
+        help.invoke(bsh, null, "column value");
+        then(STDOUT.getLog())
+            .isEqualTo("\ncom.acme.app.filter\n    filter(dataset, column, value)\n");
+
+        STDOUT.clearLog();
+        bsh.eval("bsh.help.mycommand = \"usage: mycommand(dataset)\";");
+        help.invoke(bsh, null, "dataset");
+        then(STDOUT.getLog())
+            .contains("\nbsh.help.mycommand\n    usage: mycommand(dataset)\n")
+            .contains("\ncom.acme.app.filter\n    filter(dataset, column, value)\n");
+    }
+
+    @Test
+    public void help_from_bundle() throws Exception {
+        File bundle = new File(ADIR.getRoot(), "help.bundle");
+        HelpBundle.pack(Paths.get("src/test/bshell/help"), bundle.toPath());
+
+        final Interpreter bsh = new Interpreter();
+        bsh.set("bshell.help", "bundle:" + bundle.getAbsolutePath());
+        help.invoke(bsh, null, "filter");
+        then(STDOUT.getLog())
+            .contains("com.acme.app.filter\n===================\n")
+            .contains("description for filter");
+
+        bsh.set("bshell.help", "bundle:/this/does/not/exist");
+        try {
+            help.invoke(bsh, null);
+            fail("missing invalid bundle check");
+        } catch (EvalError x) {
+            then(x).hasMessageStartingWith("unreadable help bundle /this/does/not/exist; please set bshell.help to bundle:");
+        }
+
+        File invalid = ADIR.newFile("invalid.bundle");
+        bsh.set("bshell.help", "bundle:" + invalid.getAbsolutePath());
+        try {
+            help.invoke(bsh, null);
+            fail("missing invalid bundle check");
+        } catch (EvalError x) {
+            then(x).hasMessageStartingWith("invalid help bundle " + invalid.getAbsolutePath() + ": ");
+        }
+    }
 }
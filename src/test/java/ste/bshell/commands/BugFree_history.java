@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.BshConsoleInterpreter;
+import bsh.EvalError;
+import java.io.File;
+import java.time.Instant;
+import static org.assertj.core.api.BDDAssertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.bshell.ExecutionStats;
+import ste.bshell.ExecutionStats.Outcome;
+import ste.bshell.JLineConsole;
+import ste.bshell.JLineHelper;
+import ste.bshell.jline.IndexedHistory;
+import ste.bshell.jline.TestLineReader;
+
+/**
+ *
+ */
+public class BugFree_history {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void last_entries_and_search() throws Exception {
+        final StringBuilder out = new StringBuilder();
+        final BshConsoleInterpreter bsh = givenConsole(out);
+        final IndexedHistory h = (IndexedHistory)bsh.getConsole().lineReader.getHistory();
+
+        h.add("import java.util.*;"); h.add("l = new ArrayList();"); h.add("import java.io.*;");
+
+        history.invoke(bsh, null);
+        then(out.toString()).isEqualTo(
+            "    1  import java.util.*;\n    2  l = new ArrayList();\n    3  import java.io.*;\n"
+        );
+
+        out.setLength(0);
+        history.invoke(bsh, null, "import util");
+        then(out.toString()).isEqualTo(
+            "    1  import java.util.*;\n    3  import java.io.*;\n"
+        );
+
+        out.setLength(0);
+        history.invoke(bsh, null, "import", 1);
+        then(out.toString()).isEqualTo("    3  import java.io.*;\n");
+    }
+
+    @Test
+    public void sort_and_filter_by_execution_stats() throws Exception {
+        final StringBuilder out = new StringBuilder();
+        final BshConsoleInterpreter bsh = givenConsole(out);
+        final IndexedHistory h = (IndexedHistory)bsh.getConsole().lineReader.getHistory();
+        final long NOW = System.currentTimeMillis();
+
+        h.add(Instant.ofEpochMilli(NOW - 10*24*3600*1000L), "old();");
+        h.record(h.getLastAdded(), new ExecutionStats(NOW - 10*24*3600*1000L, 900000000, 1000000, 1024, Outcome.SUCCESS));
+        h.add(Instant.ofEpochMilli(NOW - 1000), "fast();");
+        h.record(h.getLastAdded(), new ExecutionStats(NOW - 1000, 1000000, 500000, 100, Outcome.SUCCESS));
+        h.add(Instant.ofEpochMilli(NOW - 500), "slow();");
+        h.record(h.getLastAdded(), new ExecutionStats(NOW - 500, 300000000, 200000000, 2*1024*1024, Outcome.FAILURE));
+
+        history.invoke(bsh, null, "sort:duration since:7d");
+        then(out.toString()).isEqualTo(
+            "    3    300.0 ms    200.0 ms      2.0 MB  FAILURE    slow();\n" +
+            "    2      1.0 ms      0.5 ms       100 B  SUCCESS    fast();\n"
+        );
+
+        out.setLength(0);
+        history.invoke(bsh, null, "sort:alloc is:ok");
+        then(out.toString()).isEqualTo(
+            "    1    900.0 ms      1.0 ms      1.0 KB  SUCCESS    old();\n" +
+            "    2      1.0 ms      0.5 ms       100 B  SUCCESS    fast();\n"
+        );
+
+        out.setLength(0);
+        history.invoke(bsh, null, "since:1h fast");
+        then(out.toString()).isEqualTo(
+            "    2      1.0 ms      0.5 ms       100 B  SUCCESS    fast();\n"
+        );
+
+        try {
+            history.invoke(bsh, null, "sort:name");
+            fail("invalid sort field not detected");
+        } catch (EvalError x) {
+            then(x.getMessage()).contains("invalid sort field name");
+        }
+        try {
+            history.invoke(bsh, null, "since:week");
+            fail("invalid period not detected");
+        } catch (EvalError x) {
+            then(x.getMessage()).contains("invalid period week");
+        }
+    }
+
+    @Test
+    public void search_requires_indexed_history() throws Exception {
+        final BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+        bsh.setConsole(new JLineConsole(new JLineHelper().givenReader()));
+
+        try {
+            history.invoke(bsh, null, "import");
+            fail("missing HISTORY_FILE not detected");
+        } catch (EvalError x) {
+            then(x.getMessage()).contains("history search is available only when HISTORY_FILE is set");
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private BshConsoleInterpreter givenConsole(final StringBuilder out) throws Exception {
+        final BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+        final TestLineReader r = new JLineHelper().givenReader();
+
+        IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath());
+        r.setHistory(h); h.attach(r);
+
+        bsh.setConsole(new JLineConsole(r) {
+            @Override
+            public void println(Object o) {
+                out.append(String.valueOf(o)).append('\n');
+            }
+        });
+
+        return bsh;
+    }
+}
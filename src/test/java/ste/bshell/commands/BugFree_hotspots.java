@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.EvalError;
+import bsh.Hotspots;
+import bsh.Interpreter;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+
+/**
+ *
+ */
+public class BugFree_hotspots {
+
+    @Rule
+    public final SystemOutRule STDOUT = new SystemOutRule().enableLog();
+
+    @After
+    public void after() {
+        Hotspots.enable(false);
+        Hotspots.reset();
+    }
+
+    @Test
+    public void show_hot_lines() throws Exception {
+        final Interpreter bsh = new Interpreter();
+
+        hotspots.invoke(bsh, null, true);
+        then(Hotspots.isEnabled()).isTrue();
+
+        bsh.eval("slow() { Thread.sleep(50); }\nfor (i=0; i<2; ++i) {\n  slow();\n}");
+
+        hotspots.invoke(bsh, null);
+        then(STDOUT.getLog())
+            .contains("count      self ms     total ms  line")
+            .contains(":3 slow()")
+            .contains("(times by top level statement and method call");
+
+        STDOUT.clearLog();
+        hotspots.invoke(bsh, null, 1, "total");
+        then(STDOUT.getLog()).contains(":2").doesNotContain("slow()");
+    }
+
+    @Test
+    public void show_off_if_disabled() throws Exception {
+        final Interpreter bsh = new Interpreter();
+
+        hotspots.invoke(bsh, null, false);
+        hotspots.invoke(bsh, null);
+        then(STDOUT.getLog()).contains("hotspots are off");
+    }
+
+    @Test
+    public void invalid_arguments() throws Exception {
+        final Interpreter bsh = new Interpreter();
+
+        thenThrownBy(() -> hotspots.invoke(bsh, null, 0))
+            .isInstanceOf(EvalError.class).hasMessageContaining("max must be greater than zero");
+        thenThrownBy(() -> hotspots.invoke(bsh, null, 10, "none"))
+            .isInstanceOf(EvalError.class).hasMessageContaining("sort must be 'self' or 'total'");
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.commands;
+
+import bsh.BshConsoleInterpreter;
+import bsh.ScriptCache;
+import bsh.This;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFree_run {
+
+    @Test(timeout=1000)
+    public void bg() throws Exception {
+        BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+        This t = (This)bsh.eval("run(\"src/test/scripts/source.bsh\");");
+
+        then(String.valueOf(t.getNameSpace().get("SOURCED", bsh))).isEqualTo("true");
+    }
+
+    @Test(timeout=1000)
+    public void run_does_not_affect_the_caller() throws Exception {
+        BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+        bsh.eval("SOURCED = false;");
+        String cwd = (String)bsh.get("bsh.cwd");
+
+        This t = (This)bsh.eval("run(\"src/test/scripts/run.bsh\", \"argument\");");
+
+        then(String.valueOf(t.getNameSpace().get("SOURCED", bsh))).isEqualTo("true");
+        then(String.valueOf(t.getNameSpace().get("ARGUMENT", bsh))).isEqualTo("argument");
+        then(String.valueOf(t.getNameSpace().get("bsh.cwd", bsh))).isEqualTo("/tmp");
+        then(String.valueOf(t.getNameSpace().get("bsh.help.runTest", bsh))).isEqualTo("usage: runTest()");
+        then(bsh.get("SOURCED")).isEqualTo(false);
+        then(bsh.get("bsh.cwd")).isEqualTo(cwd);
+        then(bsh.get("bsh.help.runTest")).isNull();
+    }
+
+    @Test(timeout=5000)
+    public void scripts_are_parsed_once() throws Exception {
+        BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+        ScriptCache.clear();
+
+        bsh.eval("for (i=0; i<10; ++i) { run(\"src/test/scripts/source.bsh\"); }");
+
+        then(ScriptCache.getMisses()).isEqualTo(1);
+        then(ScriptCache.getHits()).isEqualTo(9);
+    }
+
+    @Test(timeout=5000)
+    public void scripts_declaring_classes_run_many_times() throws Exception {
+        BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+
+        for (int i=0; i<2; ++i) {
+            This t = (This)bsh.eval("run(\"src/test/scripts/class.bsh\");");
+            then(String.valueOf(t.getNameSpace().get("RESULT", bsh))).isEqualTo("1");
+        }
+    }
+
+    @Test(timeout=10000)
+    public void concurrent_runs() throws Exception {
+        final BshConsoleInterpreter bsh = new BshConsoleInterpreter();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> runs = new ArrayList<>();
+            for (int i=0; i<20; ++i) {
+                final String script = (i % 2 == 0) ? "class.bsh" : "source.bsh";
+                runs.add(executor.submit(() -> bsh.eval("run(\"src/test/scripts/" + script + "\");")));
+            }
+            for (Future<Object> run: runs) {
+                then(run.get()).isInstanceOf(This.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import bsh.Interpreter;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeConsoleServer {
+
+    private Interpreter warm;
+    private InterpreterPool pool;
+    private ConsoleServer server;
+
+    @Before
+    public void before() throws Exception {
+        warm = new Interpreter();
+        warm.eval("greeting = \"hello\";");
+        pool = new InterpreterPool(warm, 2);
+        server = new ConsoleServer(pool, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).start();
+    }
+
+    @After
+    public void after() {
+        server.stop();
+        pool.close();
+    }
+
+    @Test
+    public void constructor() {
+        thenThrownBy(() -> new ConsoleServer(null, new InetSocketAddress(0)))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("pool can not be null");
+        thenThrownBy(() -> new ConsoleServer(pool, null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("address can not be null");
+        thenThrownBy(() -> server.setMaxSessions(0))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("maxSessions must be greater than zero");
+
+        then(server.getPort()).isPositive();
+        then(server.getToken()).hasSize(32);
+        then(server.getMaxSessions()).isEqualTo(ConsoleServer.DEFAULT_MAX_SESSIONS);
+    }
+
+    @Test
+    public void sessions_are_served_concurrently_and_isolated() throws Exception {
+        try (
+            Socket one = connect(server.getToken());
+            Socket two = connect(server.getToken())
+        ) {
+            send(one, "x = greeting + \" one\";\nprint(x);\n");
+            send(two, "print(greeting + \" two\");\nprint(x);\n");
+            one.shutdownOutput(); two.shutdownOutput();
+
+            String out1 = receive(one), out2 = receive(two);
+            then(out1).startsWith(ConsoleServer.PROMPT).contains("hello one");
+            then(out2).contains("hello two").doesNotContain("hello one");
+        }
+        then(warm.get("x")).isNull();
+    }
+
+    @Test(timeout = 10000)
+    public void exit_ends_the_session_only() throws Exception {
+        try (
+            Socket one = connect(server.getToken());
+            Socket two = connect(server.getToken())
+        ) {
+            //
+            // the session ends without waiting for the end of the input
+            //
+            send(one, "print(\"one\");\nexit();\nprint(\"after exit\");\n");
+            then(receive(one)).contains("one").doesNotContain("after exit");
+
+            send(two, "print(greeting + \" two\");\n");
+            two.shutdownOutput();
+            then(receive(two)).contains("hello two");
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void output_larger_than_backlog_in_one_statement() throws Exception {
+        try (Socket s = connect(server.getToken())) {
+            send(s, "for (i=0; i<100000; ++i) print(i);\nprint(\"done\");\n");
+            s.shutdownOutput();
+
+            then(receive(s)).contains("\n99999\n").contains("\ndone\n");
+        }
+    }
+
+    @Test
+    public void invalid_token_is_rejected() throws Exception {
+        try (Socket s = connect("wrong")) {
+            then(receive(s)).isEqualTo("error: invalid token\n");
+        }
+        then(server.getSessions()).isZero();
+    }
+
+    @Test
+    public void max_sessions() throws Exception {
+        server.setMaxSessions(1);
+        try (Socket one = connect(server.getToken())) {
+            send(one, "print(1);\n");
+            Thread.sleep(250);
+            try (Socket two = connect(server.getToken())) {
+                then(receive(two)).isEqualTo("error: too many sessions\n");
+            }
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private Socket connect(String token) throws Exception {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        send(s, token + "\n");
+        return s;
+    }
+
+    private void send(Socket s, String text) throws Exception {
+        OutputStream out = s.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private String receive(Socket s) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            sb.append((char)c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import bsh.Interpreter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeDaemon {
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void constructor() throws Exception {
+        final Path FILE = TMP.getRoot().toPath().resolve("daemon");
+
+        thenThrownBy(() -> new Daemon(null, FILE))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("warm can not be null");
+        thenThrownBy(() -> new Daemon(new Interpreter(), null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("file can not be null");
+        thenThrownBy(() -> new Daemon(new Interpreter(), FILE, 0))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("size must be greater than zero");
+        thenThrownBy(() -> new DaemonClient(null))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("file can not be null");
+    }
+
+    @Test
+    public void start_writes_port_and_token_and_stop_removes_them() throws Exception {
+        final Path FILE = TMP.getRoot().toPath().resolve("daemon");
+
+        Daemon daemon = new Daemon(new Interpreter(), FILE);
+        then(daemon.getPort()).isEqualTo(-1);
+
+        daemon.start();
+        try {
+            then(daemon.getPort()).isPositive();
+
+            Properties p = new Properties();
+            p.load(Files.newBufferedReader(FILE, StandardCharsets.UTF_8));
+            then(p.getProperty("port")).isEqualTo(String.valueOf(daemon.getPort()));
+            then(p.getProperty("token")).hasSize(32);
+        } finally {
+            daemon.stop();
+        }
+        then(FILE).doesNotExist();
+        then(daemon.getPort()).isEqualTo(-1);
+    }
+
+    @Test
+    public void eval_and_script_in_isolated_namespaces() throws Exception {
+        final Path FILE = TMP.getRoot().toPath().resolve("daemon");
+
+        Interpreter warm = new Interpreter();
+        warm.eval("greeting = \"hello\";");
+
+        Daemon daemon = new Daemon(warm, FILE).start();
+        try {
+            DaemonClient client = new DaemonClient(FILE);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            then(client.eval("greeting + \" world\"", new PrintStream(out))).isZero();
+            then(out.toString()).contains("hello world");
+
+            out.reset();
+            then(client.script("test", new StringReader("x = 10; print(x);"), new PrintStream(out))).isZero();
+            then(out.toString()).contains("10");
+
+            //
+            // x was defined by a previous connection, it is not visible here
+            //
+            out.reset();
+            then(client.eval("x == void", new PrintStream(out))).isZero();
+            then(out.toString()).contains("true");
+            then(warm.get("x")).isNull();
+
+            out.reset();
+            then(client.eval("throw new Exception(\"boom\")", new PrintStream(out))).isEqualTo(1);
+            then(out.toString()).contains("Target Exception");
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void exit_ends_the_session_only() throws Exception {
+        final Path FILE = TMP.getRoot().toPath().resolve("daemon");
+
+        Interpreter warm = new Interpreter();
+        warm.eval("greeting = \"hello\";");
+
+        Daemon daemon = new Daemon(warm, FILE).start();
+        try {
+            DaemonClient client = new DaemonClient(FILE);
+
+            //
+            // the input is not closed: the session ends because of exit()
+            //
+            PipedOutputStream input = new PipedOutputStream();
+            PipedInputStream in = new PipedInputStream(input);
+            input.write("print(\"one\");\nexit();\nprint(\"after exit\");\n".getBytes(StandardCharsets.UTF_8));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            then(client.session(in, new PrintStream(out))).isZero();
+            then(out.toString()).contains("one").doesNotContain("after exit");
+
+            out.reset();
+            then(client.eval("greeting + \" two\"", new PrintStream(out))).isZero();
+            then(out.toString()).contains("hello two");
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void output_can_contain_any_character() throws Exception {
+        final Path FILE = TMP.getRoot().toPath().resolve("daemon");
+
+        Daemon daemon = new Daemon(new Interpreter(), FILE, 1).start();
+        try {
+            DaemonClient client = new DaemonClient(FILE);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            then(client.script("test", new StringReader("print(\"a\\0b\"); print(\"1\");"), new PrintStream(out))).isZero();
+            then(out.toString()).contains("a\u0000b").contains("1");
+
+            out.reset();
+            then(client.script("test", new StringReader("print(\"\\0\"); throw new Exception(\"boom\");"), new PrintStream(out))).isEqualTo(1);
+            then(out.toString()).contains("\u0000").contains("boom");
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void connect_without_daemon() throws Exception {
+        DaemonClient client = new DaemonClient(TMP.getRoot().toPath().resolve("none"));
+
+        thenThrownBy(() -> client.eval("1", new PrintStream(new ByteArrayOutputStream())))
+            .isInstanceOf(FileNotFoundException.class).hasMessageContaining("no daemon running");
+    }
+}
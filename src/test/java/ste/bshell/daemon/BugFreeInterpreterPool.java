@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.daemon;
+
+import bsh.ForkedNameSpace;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import ste.bshell.StreamConsole;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeInterpreterPool {
+
+    @Test
+    public void constructor() {
+        thenThrownBy(() -> new InterpreterPool(null, 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("warm can not be null");
+        thenThrownBy(() -> new InterpreterPool(new Interpreter(), 0))
+            .isInstanceOf(IllegalArgumentException.class).hasMessage("size must be greater than zero");
+    }
+
+    @Test
+    public void take_interpreters_with_isolated_namespaces() throws Exception {
+        final Interpreter WARM = new Interpreter();
+        final StreamConsole CONSOLE = new StreamConsole(null, System.out, System.err);
+        WARM.set("shared", 10);
+
+        InterpreterPool pool = new InterpreterPool(WARM, 2);
+        try {
+            thenThrownBy(() -> pool.take(null))
+                .isInstanceOf(IllegalArgumentException.class).hasMessage("console can not be null");
+
+            Interpreter one = pool.take(CONSOLE), two = pool.take(CONSOLE);
+            then(one).isNotSameAs(two);
+            then(one.getParent()).isSameAs(WARM);
+
+            NameSpace ns = one.getNameSpace();
+            then(ns).isInstanceOf(ForkedNameSpace.class).isNotSameAs(two.getNameSpace());
+            then(ns.getParent()).isSameAs(WARM.getNameSpace());
+
+            one.eval("mine = 1; shared = 20;");
+            then(one.get("shared")).isEqualTo(20);
+            then(two.get("shared")).isEqualTo(10);
+            then(WARM.get("shared")).isEqualTo(10);
+            then(two.get("mine")).isNull();
+            then(WARM.get("mine")).isNull();
+        } finally {
+            pool.close();
+        }
+        then(pool.available()).isZero();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.bshell.JLineHelper;
+
+/**
+ *
+ */
+public class BugFreeBshLineReader {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void suggest_from_history() throws Exception {
+        final TestLineReader r = new JLineHelper().givenReader();
+        r.setPrompt("> ");
+        then(r.getSuggestion()).isNull();
+
+        givenHistory(r, "print(1);", "import java.util.*;");
+
+        then(r.getSuggestion()).isNull(); // nothing typed
+
+        r.getBuffer().write("pri");
+        then(r.getSuggestion()).isEqualTo("nt(1);");
+        then(r.getDisplayedBufferWithPrompts(new ArrayList<>()).toString()).isEqualTo("> print(1);");
+
+        r.getBuffer().cursor(1);
+        then(r.getSuggestion()).isNull(); // cursor not at the end
+
+        r.getBuffer().cursor(3); r.getBuffer().write("x");
+        then(r.getSuggestion()).isNull();
+        then(r.getDisplayedBufferWithPrompts(new ArrayList<>()).toString()).isEqualTo("> prix");
+    }
+
+    @Test
+    public void accept_suggestion() throws Exception {
+        TestLineReader r = new JLineHelper().givenReaderWith(new ByteArrayInputStream(
+            new TestBuffer("pri").ctrl('F').enter().getBytes()
+        ));
+        givenHistory(r, "print(1);", "import java.util.*;");
+        then(r.readLine()).isEqualTo("print(1);");
+
+        r = new JLineHelper().givenReaderWith(new ByteArrayInputStream(
+            new TestBuffer("im").ctrl('E').append(" // ok").enter().getBytes()
+        ));
+        givenHistory(r, "print(1);", "import java.util.*;");
+        then(r.readLine()).isEqualTo("import java.util.*; // ok");
+
+        r = new JLineHelper().givenReaderWith(new ByteArrayInputStream(
+            new TestBuffer("xyz").ctrl('B').ctrl('F').append("!").enter().getBytes()
+        ));
+        givenHistory(r, "print(1);");
+        then(r.readLine()).isEqualTo("xyz!"); // no suggestion, just moves
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void givenHistory(TestLineReader r, String... lines) {
+        IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath());
+        r.setHistory(h); h.attach(r);
+        for (String line: lines) {
+            h.add(line);
+        }
+    }
+}
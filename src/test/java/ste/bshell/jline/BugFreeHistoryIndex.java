@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeHistoryIndex {
+
+    @Test
+    public void candidates_contain_all_trigrams() {
+        HistoryIndex index = new HistoryIndex();
+
+        index.index(0, "import java.util.*;");
+        index.index(1, "l = new ArrayList();");
+        index.index(2, "print(l);");
+        index.index(3, "PRINT(\"done\");");
+        index.index(4, "list.add(\"print\");");
+
+        then(index.size()).isEqualTo(5);
+        then(index.candidates("print")).containsExactly(2, 3, 4);
+        then(index.candidates("PRINT")).containsExactly(2, 3, 4);
+        then(index.candidates("rint(")).containsExactly(2, 3);
+        then(index.candidates("java")).containsExactly(0);
+        then(index.candidates("print", "list")).containsExactly(4);
+        then(index.candidates("nothing")).isEmpty();
+    }
+
+    @Test
+    public void short_terms_are_not_indexed() {
+        HistoryIndex index = new HistoryIndex();
+        index.index(0, "a = 1;");
+
+        then(index.candidates("a")).isNull();
+        then(index.candidates("a ")).isNull();
+        then(index.candidates("")).isNull();
+        then(index.candidates("a =")).containsExactly(0);
+    }
+
+    @Test
+    public void entries_are_indexed_once_and_in_order() {
+        HistoryIndex index = new HistoryIndex();
+
+        index.index(0, "one");
+        index.index(0, "one");
+        index.index(1, "two");
+        index.index(1000000, "one again");
+        index.index(200, "one"); // ignored, behind the last indexed entry
+
+        then(index.size()).isEqualTo(1000001);
+        then(index.candidates("one")).containsExactly(0, 1000000);
+
+        index.reset();
+        then(index.size()).isZero();
+        then(index.candidates("one")).isEmpty();
+    }
+
+    @Test
+    public void large_posting_lists() {
+        HistoryIndex index = new HistoryIndex();
+
+        for (int i=0; i<100000; ++i) {
+            index.index(i, ((i % 3) == 0) ? "foo" + i : "bar" + i);
+        }
+        then(index.candidates("foo")).hasSize(33334).startsWith(0, 3, 6).endsWith(99999);
+        //
+        // candidates are a superset of the entries containing the terms
+        //
+        int[] candidates = index.candidates("foo", "9999");
+        then(candidates).contains(9999, 39999, 69999, 99990, 99993, 99996, 99999).hasSize(94);
+        for (int c: candidates) {
+            then(c % 3).isZero(); then(String.valueOf(c)).contains("999");
+        }
+    }
+}
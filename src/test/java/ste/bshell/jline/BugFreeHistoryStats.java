@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.io.File;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.bshell.ExecutionStats;
+import ste.bshell.ExecutionStats.Outcome;
+
+/**
+ *
+ */
+public class BugFreeHistoryStats {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void record_and_load() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history.stats");
+        HistoryStats stats = new HistoryStats(F.toPath());
+
+        then(stats.load().size).isZero();
+
+        stats.record(0, 1000, new ExecutionStats(1001, 2000000, 1000000, 512, Outcome.SUCCESS));
+        stats.record(3, 4000, new ExecutionStats(4001, 5000000, -1, -1, Outcome.FAILURE));
+
+        then(F).exists();
+        then(F.length()).isEqualTo(2 * HistoryStats.RECORD);
+
+        HistoryStats.Columns c = stats.load();
+        then(c.size).isEqualTo(2);
+        then(c.entry).containsExactly(0, 3);
+        then(c.time).containsExactly(1000, 4000);
+        then(c.start).containsExactly(1001, 4001);
+        then(c.duration).containsExactly(2000000, 5000000);
+        then(c.cpu).containsExactly(1000000, -1);
+        then(c.allocated).containsExactly(512, -1);
+        then(c.get(1).outcome).isEqualTo(Outcome.FAILURE);
+
+        c = c.select(new int[] {1});
+        then(c.size).isEqualTo(1);
+        then(c.entry).containsExactly(3);
+        then(c.get(0).duration).isEqualTo(5000000);
+    }
+
+    @Test
+    public void remap() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history.stats");
+        HistoryStats stats = new HistoryStats(F.toPath());
+
+        stats.remap(i -> i); // nothing to remap
+
+        for (int i=0; i<5; ++i) {
+            stats.record(i, i*1000, new ExecutionStats(i, i, i, i, Outcome.SUCCESS));
+        }
+        stats.remap(i -> ((i % 2) == 0) ? i/2 : -1);
+
+        HistoryStats.Columns c = stats.load();
+        then(c.entry).containsExactly(0, 1, 2);
+        then(c.time).containsExactly(0, 2000, 4000);
+        then(c.duration).containsExactly(0, 2, 4);
+    }
+
+    @Test
+    public void statements_of_the_same_entry_are_merged() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history.stats");
+        HistoryStats stats = new HistoryStats(F.toPath());
+        HistoryStats other = new HistoryStats(F.toPath());
+
+        stats.record(0, 1000, new ExecutionStats(1001, 10, 1, 100, Outcome.SUCCESS));
+        stats.record(0, 1000, new ExecutionStats(1002, 20, 2, 200, Outcome.FAILURE));
+        other.record(1, 2000, new ExecutionStats(2001, 30, -1, 300, Outcome.SUCCESS));
+        stats.record(0, 1000, new ExecutionStats(1003, 40, 4, 400, Outcome.SUCCESS));
+
+        HistoryStats.Columns c = stats.load();
+        then(c.entry).containsExactly(0, 1);
+        then(c.start).containsExactly(1001, 2001);
+        then(c.duration).containsExactly(70, 30);
+        then(c.cpu).containsExactly(7, -1);
+        then(c.allocated).containsExactly(700, 300);
+        then(c.get(0).outcome).isEqualTo(Outcome.FAILURE);
+
+        //
+        // same entry again after the file has been rewritten: a new record
+        //
+        stats.remap(i -> i);
+        F.delete();
+        stats.record(0, 1000, new ExecutionStats(1004, 50, 5, 500, Outcome.SUCCESS));
+        c = stats.load();
+        then(c.size).isEqualTo(1);
+        then(c.duration).containsExactly(50);
+
+        //
+        // another entry
+        //
+        stats.record(2, 3000, new ExecutionStats(3001, 60, 6, 600, Outcome.SUCCESS));
+        then(stats.load().entry).containsExactly(0, 2);
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.jline.reader.History;
+import org.jline.reader.LineReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.bshell.ExecutionStats;
+import ste.bshell.ExecutionStats.Outcome;
+
+/**
+ *
+ */
+public class BugFreeIndexedHistory {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void add_and_reopen() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(h.size()).isZero();
+            then(h.isEmpty()).isTrue();
+
+            h.add(Instant.ofEpochMilli(1000), "one");
+            h.add(Instant.ofEpochMilli(2000), "two\nlines");
+            h.add(Instant.ofEpochMilli(3000), "back\\slash");
+
+            then(h.size()).isEqualTo(3);
+            then(h.get(1)).isEqualTo("two\nlines");
+        }
+
+        then(FileUtils.readFileToString(F, "UTF8"))
+            .isEqualTo("1000:one\n2000:two\\nlines\n3000:back\\\\slash\n");
+        then(new File(F.getAbsolutePath() + IndexedHistory.INDEX_EXTENSION))
+            .exists().hasBinaryContent(indexOf(F, 9, 25, 42));
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(h.size()).isEqualTo(3);
+            then(h.get(0)).isEqualTo("one");
+            then(h.get(1)).isEqualTo("two\nlines");
+            then(h.get(2)).isEqualTo("back\\slash");
+
+            History.Entry e = h.iterator(2).next();
+            then(e.index()).isEqualTo(2);
+            then(e.time()).isEqualTo(Instant.ofEpochMilli(3000));
+            then(e.line()).isEqualTo("back\\slash");
+        }
+    }
+
+    @Test
+    public void open_existing_jline_history() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+
+        try (FileWriter w = new FileWriter(F)) {
+            w.write("1000:print(\"hello\");\n2000:a=1;\nb=2;"); // last line not terminated
+        }
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(h.size()).isEqualTo(3);
+            then(h.get(0)).isEqualTo("print(\"hello\");");
+            then(h.get(1)).isEqualTo("a=1;");
+            then(h.get(2)).isEqualTo("b=2;");
+            then(h.iterator(2).next().time()).isEqualTo(Instant.EPOCH);
+
+            h.add(Instant.ofEpochMilli(3000), "c=3;");
+            then(h.size()).isEqualTo(4);
+            then(h.get(2)).isEqualTo("b=2;");
+            then(h.get(3)).isEqualTo("c=3;");
+        }
+    }
+
+    @Test
+    public void rebuild_invalid_index() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+        final File I = new File(F.getAbsolutePath() + IndexedHistory.INDEX_EXTENSION);
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            h.add(Instant.ofEpochMilli(1000), "one");
+            h.add(Instant.ofEpochMilli(2000), "two");
+        }
+
+        //
+        // garbage at the end of the index (e.g. crash while writing)
+        //
+        byte[] index = Files.readAllBytes(I.toPath());
+        byte[] garbage = new byte[index.length + 8];
+        System.arraycopy(index, 0, garbage, 0, index.length);
+        garbage[garbage.length-1] = 127;
+        Files.write(I.toPath(), garbage);
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(h.size()).isEqualTo(2);
+            then(h.get(1)).isEqualTo("two");
+        }
+
+        //
+        // not an index at all
+        //
+        Files.write(I.toPath(), "not an index file".getBytes(StandardCharsets.UTF_8));
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(h.size()).isEqualTo(2);
+            then(h.get(0)).isEqualTo("one");
+        }
+    }
+
+    @Test
+    public void navigation() throws Exception {
+        try (IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath())) {
+            h.attach(null);
+            then(h.current()).isEmpty();
+            then(h.previous()).isFalse();
+            then(h.moveToFirst()).isFalse();
+
+            h.add("one"); h.add("two"); h.add("three");
+
+            then(h.index()).isEqualTo(3);
+            then(h.current()).isEmpty();
+            then(h.previous()).isTrue(); then(h.current()).isEqualTo("three");
+            then(h.previous()).isTrue(); then(h.current()).isEqualTo("two");
+            then(h.next()).isTrue(); then(h.current()).isEqualTo("three");
+            then(h.moveToFirst()).isTrue(); then(h.current()).isEqualTo("one");
+            then(h.previous()).isFalse();
+            then(h.moveToLast()).isTrue(); then(h.current()).isEqualTo("three");
+            then(h.moveTo(1)).isTrue(); then(h.current()).isEqualTo("two");
+            then(h.moveTo(3)).isFalse();
+            h.moveToEnd(); then(h.index()).isEqualTo(3);
+            then(h.first()).isZero(); then(h.last()).isEqualTo(2);
+
+            ListIterator<History.Entry> i = h.iterator(1);
+            then(i.next().line()).isEqualTo("two");
+            then(i.next().line()).isEqualTo("three");
+            then(i.hasNext()).isFalse();
+
+            Iterator<History.Entry> r = h.reverseIterator();
+            then(r.next().line()).isEqualTo("three");
+            then(r.next().line()).isEqualTo("two");
+            then(r.next().line()).isEqualTo("one");
+            then(r.hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    public void purge() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            h.add("one"); h.add("two");
+            h.purge();
+            then(h.size()).isZero();
+            then(F).exists().hasContent("");
+        }
+    }
+
+    @Test
+    public void open_large_history_from_index() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+        final int N = 200000;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<N; ++i) {
+            sb.append(i).append(":print(").append(i).append(");\n");
+        }
+        FileUtils.writeStringToFile(F, sb.toString(), "UTF8");
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);  // first time the index is built
+            then(h.size()).isEqualTo(N);
+        }
+
+        long start = System.currentTimeMillis();
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(h.size()).isEqualTo(N);
+            then(h.get(N/2)).isEqualTo("print(" + (N/2) + ");");
+            then(h.get(N-1)).isEqualTo("print(" + (N-1) + ");");
+        }
+        then(System.currentTimeMillis() - start).isLessThan(100);
+    }
+
+    @Test
+    public void search_ranked() throws Exception {
+        try (IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath())) {
+            h.attach(null);
+            h.add("import java.util.*;");             // 0
+            h.add("l = new ArrayList();");            // 1
+            h.add("import java.io.*;");               // 2
+            h.add("print(l);");                       // 3
+            h.add("import java.util.concurrent.*;");  // 4
+            waitIndexed(h);
+            h.add("m = new HashMap(); // util");      // 5, not indexed yet maybe
+
+            then(lines(h.search("import util", 10))).containsExactly(
+                "import java.util.concurrent.*;", "import java.util.*;", // all words
+                "m = new HashMap(); // util", "import java.io.*;"        // some words
+            );
+            then(lines(h.search("IMPORT UTIL", 1))).containsExactly("import java.util.concurrent.*;");
+            then(lines(h.search("arraylist", 10))).containsExactly("l = new ArrayList();");
+            then(lines(h.search("l", 2))).containsExactly("m = new HashMap(); // util", "import java.util.concurrent.*;");
+            then(h.search("nothing like this", 10)).isEmpty();
+        }
+    }
+
+    @Test
+    public void search_backwards() throws Exception {
+        try (IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath())) {
+            h.attach(null);
+            h.add("print(\"one\");"); h.add("x = 1;"); h.add("print(\"two\");"); h.add("Print(\"three\");");
+            waitIndexed(h);
+            h.add("y = print;");
+
+            then(h.searchBackwards("print", 5, false, false)).isEqualTo(4);
+            then(h.searchBackwards("print", 4, false, false)).isEqualTo(2);
+            then(h.searchBackwards("print", 4, false, true)).isEqualTo(3);
+            then(h.searchBackwards("print", 5, true, false)).isEqualTo(2);
+            then(h.searchBackwards("print", 2, false, false)).isEqualTo(0);
+            then(h.searchBackwards("print", 0, false, false)).isEqualTo(-1);
+            then(h.searchBackwards("x", 5, true, false)).isEqualTo(1);
+            then(h.searchBackwards("none", 5, false, false)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void reverse_iterator_skips_entries_not_matching_search_term() throws Exception {
+        final String[] TERM = new String[1];
+
+        try (IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath())) {
+            h.attach(reader(new HashMap<>(), TERM));
+            h.add("print(1);"); h.add("a = 1;"); h.add("Print(2);"); h.add("b = 2;");
+            h.add("c = print;"); h.add("d = 4;");
+            waitIndexed(h);
+
+            TERM[0] = "print";
+            then(lines(h.reverseIterator(5))).containsExactly("c = print;", "Print(2);", "print(1);");
+            then(lines(h.reverseIterator(3))).containsExactly("Print(2);", "print(1);");
+
+            TERM[0] = "";
+            then(lines(h.reverseIterator(3))).containsExactly("b = 2;", "Print(2);", "a = 1;", "print(1);");
+        }
+    }
+
+    @Test
+    public void search_large_history() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+        final int N = 200000;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<N; ++i) {
+            sb.append(i).append(":v").append(i).append(" = compute(").append(i%1000).append(");\n");
+        }
+        FileUtils.writeStringToFile(F, sb.toString(), "UTF8");
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            waitIndexed(h);
+
+            long start = System.currentTimeMillis();
+            then(lines(h.search("v1234 compute(234)", 1))).containsExactly("v1234 = compute(234);");
+            then(h.searchBackwards("v99999 ", N, true, false)).isEqualTo(99999);
+            then(lines(h.search("compute(999)", 3))).containsExactly(
+                "v199999 = compute(999);", "v198999 = compute(999);", "v197999 = compute(999);"
+            );
+            then(System.currentTimeMillis() - start).isLessThan(100);
+        }
+    }
+
+    @Test
+    public void sessions_share_the_history() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+
+        try (
+            IndexedHistory h1 = new IndexedHistory(F.toPath());
+            IndexedHistory h2 = new IndexedHistory(F.toPath())
+        ) {
+            h1.attach(null); h2.attach(null);
+
+            h1.add("one"); h2.add("two"); h1.add("three");
+            then(h1.size()).isEqualTo(3);  // picked up when adding
+            h2.moveToEnd();                // picked up after each line
+            then(h2.size()).isEqualTo(3);
+            then(h2.get(2)).isEqualTo("three");
+            then(h2.index()).isEqualTo(3);
+
+            h2.add("four");
+            h1.refresh();
+            then(lines(h1.iterator())).containsExactly("one", "two", "three", "four");
+            then(lines(h2.iterator())).containsExactly("one", "two", "three", "four");
+        }
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            then(lines(h.iterator())).containsExactly("one", "two", "three", "four");
+        }
+    }
+
+    @Test
+    public void compact_removes_duplicates() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+
+        try (
+            IndexedHistory h1 = new IndexedHistory(F.toPath());
+            IndexedHistory h2 = new IndexedHistory(F.toPath())
+        ) {
+            h1.attach(null); h2.attach(null);
+            h1.add(Instant.ofEpochMilli(1000), "one");
+            h1.add(Instant.ofEpochMilli(2000), "two");
+            h2.add(Instant.ofEpochMilli(3000), "one");
+            h2.add(Instant.ofEpochMilli(4000), "three");
+            h1.add(Instant.ofEpochMilli(5000), "two");
+
+            then(h1.compact()).isTrue();
+            then(FileUtils.readFileToString(F, "UTF8")).isEqualTo("3000:one\n4000:three\n5000:two\n");
+            then(lines(h1.iterator())).containsExactly("one", "three", "two");
+            waitIndexed(h1);
+            then(lines(h1.search("one", 10))).containsExactly("one");
+
+            //
+            // the other session notices the history has been replaced
+            //
+            h2.add(Instant.ofEpochMilli(6000), "four");
+            then(lines(h2.iterator())).containsExactly("one", "three", "two", "four");
+            h1.refresh();
+            then(lines(h1.iterator())).containsExactly("one", "three", "two", "four");
+            then(FileUtils.readFileToString(F, "UTF8")).isEqualTo("3000:one\n4000:three\n5000:two\n6000:four\n");
+        }
+    }
+
+    @Test
+    public void compact_honors_history_file_size() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+        final Map<String, Object> VARS = new HashMap<>();
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(reader(VARS, new String[1]));
+            h.add("one"); h.add("two"); h.add("three"); h.add("one");
+
+            VARS.put(LineReader.HISTORY_FILE_SIZE, 2);
+            then(h.compact()).isTrue();
+            then(lines(h.iterator())).containsExactly("three", "one");
+        }
+    }
+
+    @Test
+    public void compact_one_session_at_a_time() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+
+        try (IndexedHistory h = new IndexedHistory(F.toPath())) {
+            h.attach(null);
+            h.add("one"); h.add("one");
+
+            try (
+                FileChannel c = FileChannel.open(
+                    new File(F.getAbsolutePath() + IndexedHistory.LOCK_EXTENSION).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE
+                );
+                FileLock lock = c.lock()
+            ) {
+                then(h.compact()).isFalse();
+                then(h.size()).isEqualTo(2);
+            }
+
+            then(h.compact()).isTrue();
+            then(h.size()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void no_entries_lost_while_compacting() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+        final int N = 2000;
+
+        try (
+            IndexedHistory h1 = new IndexedHistory(F.toPath());
+            IndexedHistory h2 = new IndexedHistory(F.toPath())
+        ) {
+            h1.attach(null); h2.attach(null);
+
+            Thread writer = new Thread(() -> {
+                for (int i=0; i<N; ++i) {
+                    h1.add("line " + i);
+                }
+            });
+            writer.start();
+            while (writer.isAlive()) {
+                h2.add("dup"); h2.compact();
+            }
+            writer.join();
+
+            h2.refresh();
+            List<String> lines = lines(h2.iterator());
+            for (int i=0; i<N; ++i) {
+                then(lines).contains("line " + i);
+            }
+        }
+    }
+
+    @Test
+    public void execution_stats() throws Exception {
+        final File F = new File(ADIR.getRoot(), "history");
+
+        try (
+            IndexedHistory h1 = new IndexedHistory(F.toPath());
+            IndexedHistory h2 = new IndexedHistory(F.toPath())
+        ) {
+            h1.attach(null); h2.attach(null);
+            then(h1.getLastAdded()).isNull();
+            then(h1.getStats().getPath().toString()).isEqualTo(F.getAbsolutePath() + HistoryStats.EXTENSION);
+
+            h1.add(Instant.ofEpochMilli(1000), "one");
+            h1.record(h1.getLastAdded(), new ExecutionStats(1001, 10, 1, 100, Outcome.SUCCESS));
+            h2.add(Instant.ofEpochMilli(2000), "two");
+            h1.add(Instant.ofEpochMilli(3000), "one");
+            h1.record(h1.getLastAdded(), new ExecutionStats(3001, 30, 3, 300, Outcome.FAILURE));
+            h2.record(h2.getLastAdded(), new ExecutionStats(2001, 20, 2, 200, Outcome.SUCCESS));
+
+            then(h1.getLastAdded().index()).isEqualTo(2);
+            then(h2.getLastAdded().index()).isEqualTo(1);
+
+            HistoryStats.Columns c = h2.executions();
+            then(c.entry).containsExactly(0, 2, 1);
+            then(c.duration).containsExactly(10, 30, 20);
+
+            //
+            // after a compaction, statistics follow their entries; the ones
+            // of removed entries are dropped
+            //
+            then(h1.compact()).isTrue();
+            then(lines(h1.iterator())).containsExactly("two", "one");
+            c = h2.executions();
+            then(c.entry).containsExactly(1, 0);
+            then(c.duration).containsExactly(30, 20);
+
+            h1.purge();
+            then(h1.getStats().getPath()).doesNotExist();
+            then(h1.executions().size).isZero();
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private LineReader reader(final Map<String, Object> variables, final String[] term) {
+        return (LineReader)Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[] { LineReader.class },
+            (proxy, method, args) -> {
+                if ("getSearchTerm".equals(method.getName())) {
+                    return term[0];
+                }
+                if ("getVariable".equals(method.getName())) {
+                    return variables.get(args[0]);
+                }
+                return method.getReturnType().equals(boolean.class) ? false : null;
+            }
+        );
+    }
+
+    private void waitIndexed(IndexedHistory h) throws Exception {
+        for (int i=0; (i<500) && (h.getSearchIndex().size() < h.size()); ++i) {
+            Thread.sleep(20);
+        }
+        then(h.getSearchIndex().size()).isEqualTo(h.size());
+    }
+
+    private List<String> lines(List<History.Entry> entries) {
+        return lines(entries.iterator());
+    }
+
+    private List<String> lines(Iterator<History.Entry> entries) {
+        List<String> lines = new ArrayList<>();
+        entries.forEachRemaining((e) -> lines.add(e.line()));
+        return lines;
+    }
+
+    private byte[] indexOf(File history, long... ends) throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(IndexedHistory.HEADER + ends.length*8);
+        b.putLong(IndexedHistory.MAGIC);
+        b.putLong(Files.readAttributes(history.toPath(), BasicFileAttributes.class).fileKey().toString().hashCode());
+        for (long end: ends) {
+            b.putLong(end);
+        }
+        return b.array();
+    }
+}
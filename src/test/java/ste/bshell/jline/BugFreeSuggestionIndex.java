@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jline;
+
+import java.io.File;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.jline.reader.History;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeSuggestionIndex {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void most_recent_entry_with_prefix() throws Exception {
+        History h = givenHistory("print(1);", "import java.util.*;", "print(2);", "i = 0;");
+        SuggestionIndex s = index(h);
+
+        then(s.size()).isEqualTo(4);
+        then(s.suggest(h, "p")).isEqualTo("print(2);");
+        then(s.suggest(h, "print(1")).isEqualTo("print(1);");
+        then(s.suggest(h, "i")).isEqualTo("i = 0;");
+        then(s.suggest(h, "im")).isEqualTo("import java.util.*;");
+        then(s.suggest(h, "x")).isNull();
+        then(s.suggest(h, "")).isNull();
+        then(s.suggest(h, "i = 0;")).isNull(); // nothing to add
+    }
+
+    @Test
+    public void frequent_entries_win_over_recent_ones() throws Exception {
+        String[] lines = new String[SuggestionIndex.FREQUENCY_WEIGHT + 10];
+        lines[0] = "print(\"frequent\");";
+        lines[1] = "print(\"frequent\");";
+        lines[2] = "print(\"frequent\");";
+        for (int i=3; i<lines.length-1; ++i) {
+            lines[i] = "x" + i;
+        }
+        lines[lines.length-1] = "print(\"recent\");";
+
+        History h = givenHistory(lines);
+        SuggestionIndex s = index(h);
+
+        //
+        // two repetitions are worth 2*FREQUENCY_WEIGHT more recent entries
+        //
+        then(s.suggest(h, "pr")).isEqualTo("print(\"frequent\");");
+        then(s.suggest(h, "print(\"r")).isEqualTo("print(\"recent\");");
+    }
+
+    @Test
+    public void prefixes_longer_than_max_depth() throws Exception {
+        History h = givenHistory(
+            "System.out.println(1);", "System.err.println(1);", "System.out.print(2);", "System.out.println(3);"
+        );
+        SuggestionIndex s = index(h);
+
+        then(s.suggest(h, "System.out.")).isEqualTo("System.out.println(3);");
+        then(s.suggest(h, "System.out.print(")).isEqualTo("System.out.print(2);");
+        then(s.suggest(h, "System.err")).isEqualTo("System.err.println(1);");
+        then(s.suggest(h, "System.in")).isNull();
+    }
+
+    @Test
+    public void leaves_keep_the_best_entries() throws Exception {
+        String[] lines = new String[SuggestionIndex.LEAF_SIZE * 3];
+        for (int i=0; i<lines.length; ++i) {
+            lines[i] = "System.out.println(" + i + ");";
+        }
+        History h = givenHistory(lines);
+        SuggestionIndex s = index(h);
+
+        then(s.suggest(h, "System.out.println(")).isEqualTo(lines[lines.length-1]);
+        then(s.suggest(h, "System.out.println(1);")).isNull();
+        then(s.suggest(h, "System.out.println(1")).isEqualTo("System.out.println(19);");
+        then(s.suggest(h, "System.out.println(1)")).isEqualTo("System.out.println(1);"); // scanned
+    }
+
+    @Test
+    public void entries_not_indexed_yet() throws Exception {
+        History h = givenHistory("print(1);");
+        SuggestionIndex s = new SuggestionIndex();
+
+        then(s.suggest(h, "pr")).isEqualTo("print(1);");
+
+        s.index(0, "print(1);");
+        h.add("print(2);");
+        then(s.suggest(h, "pr")).isEqualTo("print(2);");
+
+        s.reset();
+        then(s.size()).isZero();
+        then(s.suggest(h, "pr")).isEqualTo("print(2);");
+    }
+
+    @Test
+    public void entry_equal_to_prefix_does_not_hide_longer_ones() throws Exception {
+        History h = givenHistory("print(1);", "print", "pr");
+        SuggestionIndex s = index(h);
+
+        then(s.suggest(h, "print")).isEqualTo("print(1);");
+        then(s.suggest(h, "pr")).isEqualTo("print");
+        then(s.suggest(h, "print(1);")).isNull();
+    }
+
+    @Test
+    public void scan_of_entries_not_indexed_yet_is_bounded() throws Exception {
+        String[] lines = new String[10000];
+        for (int i=0; i<lines.length; ++i) {
+            lines[i] = "x" + i;
+        }
+        lines[0] = "print(1);";
+        History h = givenHistory(lines);
+        SuggestionIndex s = new SuggestionIndex();
+
+        //
+        // nothing indexed yet: the oldest entries are not reached
+        //
+        then(s.suggest(h, "x9999")).isNull(); // nothing to add
+        then(s.suggest(h, "x99")).isEqualTo("x9999");
+        then(s.suggest(h, "pr")).isNull();
+
+        s = index(h);
+        then(s.suggest(h, "pr")).isEqualTo("print(1);");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private History givenHistory(String... lines) {
+        IndexedHistory h = new IndexedHistory(new File(ADIR.getRoot(), "history").toPath());
+        h.attach(null);
+        for (String line: lines) {
+            h.add(line);
+        }
+        return h;
+    }
+
+    private SuggestionIndex index(History h) {
+        SuggestionIndex s = new SuggestionIndex();
+        for (int i=0; i<h.size(); ++i) {
+            s.index(i, h.get(i));
+        }
+        return s;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.management;
+
+import bsh.BshClassManager;
+import bsh.Interpreter;
+import bsh.ScriptCache;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.bshell.ExecutionStats;
+import ste.bshell.ExecutionStats.Outcome;
+
+/**
+ *
+ */
+public class BugFreeConsoleMetrics {
+
+    @Test
+    public void count_statements() {
+        ConsoleMetrics m = new ConsoleMetrics();
+
+        m.statement(stats(1500000, Outcome.SUCCESS));   // 1500 us
+        m.statement(stats(3000000, Outcome.FAILURE));   // 3000 us
+        m.statement(stats(10000000, Outcome.CANCELLED)); // 10000 us
+
+        then(m.getStatementsExecuted()).isEqualTo(3);
+        then(m.getStatementsFailed()).isEqualTo(1);
+        then(m.getStatementsCancelled()).isEqualTo(1);
+        then(m.getStatementLatencyMax()).isEqualTo(10000);
+        then(m.getStatementLatencyP50()).isEqualTo(4096);
+        then(m.getStatementLatencyP99()).isEqualTo(10000);
+
+        long[] histogram = m.getStatementLatencyHistogram();
+        long[] bounds = m.getLatencyBounds();
+        then(histogram).hasSameSizeAs(bounds);
+        then(histogram[11]).isEqualTo(1); then(bounds[11]).isEqualTo(2048);
+        then(histogram[12]).isEqualTo(1); then(bounds[12]).isEqualTo(4096);
+        then(histogram[14]).isEqualTo(1); then(bounds[14]).isEqualTo(16384);
+        then(bounds[bounds.length-1]).isEqualTo(Long.MAX_VALUE);
+
+        m.reset();
+        then(m.getStatementsExecuted()).isZero();
+        then(m.getStatementLatencyP50()).isZero();
+        then(m.getStatementLatencyMax()).isZero();
+    }
+
+    @Test
+    public void count_completions_and_output() {
+        ConsoleMetrics m = new ConsoleMetrics();
+
+        m.completion(250000); m.completion(100);
+        then(m.getCompletions()).isEqualTo(2);
+        then(m.getCompletionLatencyMax()).isEqualTo(250);
+        then(m.getCompletionLatencyP50()).isEqualTo(1);
+
+        m.output("hello"); m.output("\u00e8\u20ac\ud83d\ude00");
+        then(m.getOutputBytes()).isEqualTo(5 + 2 + 3 + 4);
+    }
+
+    @Test
+    public void parse_cache() throws Exception {
+        ConsoleMetrics m = new ConsoleMetrics();
+        ScriptCache.clear();
+
+        File script = new File("src/test/scripts/source.bsh");
+        BshClassManager manager = new Interpreter().getClassManager();
+        ScriptCache.get(manager, script); ScriptCache.get(manager, script);
+
+        then(m.getParseCacheMisses()).isEqualTo(1);
+        then(m.getParseCacheHits()).isEqualTo(1);
+        then(m.getParseCacheSize()).isEqualTo(1);
+
+        m.reset();  // the parse cache is shared, only ScriptCache.clear() resets it
+        then(m.getParseCacheHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void no_tasks_without_executor() {
+        ConsoleMetrics m = new ConsoleMetrics();
+
+        then(m.getActiveTasks()).isZero();
+        then(m.getQueuedTasks()).isZero();
+        then(m.getJobs()).isEmpty();
+        then(m.cancelJob("T1")).isFalse();
+        then(m.cancelJobs()).isZero();
+    }
+
+    @Test
+    public void register_and_unregister() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ConsoleMetrics m1 = new ConsoleMetrics(), m2 = new ConsoleMetrics();
+
+        try {
+            ObjectName n1 = m1.register(), n2 = m2.register();
+            then(n1.toString()).isEqualTo(ConsoleMetrics.OBJECT_NAME);
+            then(n2.toString()).isEqualTo(ConsoleMetrics.OBJECT_NAME + ",id=2");
+            then(m1.register()).isSameAs(n1);
+
+            m1.statement(stats(1000, Outcome.SUCCESS));
+            then(server.getAttribute(n1, "StatementsExecuted")).isEqualTo(1L);
+            then(server.getAttribute(n2, "StatementsExecuted")).isEqualTo(0L);
+            then(server.invoke(n1, "cancelJobs", null, null)).isEqualTo(0);
+
+            m1.unregister();
+            then(server.isRegistered(n1)).isFalse();
+        } finally {
+            m1.unregister(); m2.unregister();
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private ExecutionStats stats(long duration, Outcome outcome) {
+        return new ExecutionStats(System.currentTimeMillis(), duration, -1, -1, outcome);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.perf;
+
+import bsh.Interpreter;
+import bsh.InterpreterEvent;
+import static bsh.InterpreterEvent.BUSY;
+import static bsh.InterpreterEvent.DONE;
+import bsh.Utils;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import org.apache.commons.io.IOUtils;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.jline.reader.EndOfFileException;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.impl.DumbTerminal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.bshell.BshCompleter;
+import ste.bshell.ExecutionStats;
+import ste.bshell.JLineConsole;
+import ste.bshell.JLineHelper;
+import ste.bshell.jline.EofPipedInputStream;
+import ste.bshell.jline.TestBuffer;
+import ste.bshell.jline.TestLineReader;
+import ste.bshell.ui.BshConsoleCLI;
+
+/**
+ * Performance regression tests, run by failsafe in the verify phase: each
+ * test measures something as deterministic as possible (allocations, parse
+ * operations, terminal output) and checks it against the baseline (see
+ * PerfBaseline); elapsed times (completion and startup) are only reported.
+ */
+public class ConsolePerfIT {
+
+    public static final int WARMUP = 2000;
+    public static final int RUNS = 1000;
+
+    public static final int STARTUP_RUNS = 5;
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Test
+    public void allocations_per_statement() throws Exception {
+        Interpreter bsh = new Interpreter();
+        bsh.eval("a = 0;");
+
+        PerfBaseline.check("statement.assignment.allocated.bytes", allocated(bsh, "a = a + 1;"));
+        PerfBaseline.check("statement.new.allocated.bytes", allocated(bsh, "b = new java.util.ArrayList(); b.add(a);"));
+        PerfBaseline.check("statement.call.allocated.bytes", allocated(bsh, "Math.max(a, 1);"));
+    }
+
+    @Test
+    public void parse_operations_per_source() throws Exception {
+        final int STATEMENTS = 500;
+
+        File script = ADIR.newFile("script.bsh");
+        try (PrintWriter out = new PrintWriter(script, StandardCharsets.UTF_8.name())) {
+            for (int i=0; i<STATEMENTS; ++i) {
+                out.println("v" + i + " = " + i + "; // statement " + i);
+            }
+        }
+
+        Interpreter bsh = new Interpreter();
+        long parsed = Interpreter.getParsedStatements();
+        Utils.source(bsh, script, bsh.getNameSpace());
+        parsed = Interpreter.getParsedStatements() - parsed;
+
+        then(bsh.get("v" + (STATEMENTS-1))).isEqualTo(STATEMENTS-1);
+        PerfBaseline.check("source.parsed.per.statement", (double)parsed / STATEMENTS);
+    }
+
+    @Test
+    public void eval_cold_start() throws Exception {
+        final String JAVA = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        double[] millis = new double[STARTUP_RUNS];
+        for (int i=0; i<STARTUP_RUNS; ++i) {
+            Process p = new ProcessBuilder(
+                JAVA, "-cp", System.getProperty("java.class.path"),
+                BshConsoleCLI.class.getName(), "--eval", "20 + 22"
+            ).redirectErrorStream(true).start();
+
+            long start = System.nanoTime();
+            String out = IOUtils.toString(p.getInputStream(), StandardCharsets.UTF_8);
+            then(p.waitFor()).isZero();
+            millis[i] = (System.nanoTime() - start) / 1000000.0;
+            then(out).isEqualTo("42" + System.lineSeparator());
+        }
+
+        //
+        // JVM startup included
+        //
+        PerfBaseline.report("eval.startup.millis", PerfBaseline.percentile(millis, 50));
+    }
+
+    @Test
+    public void status_redraws_per_event() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        //
+        // xterm so that the status bar is supported
+        //
+        Terminal terminal = new DumbTerminal("terminal", "xterm", new EofPipedInputStream(), out, StandardCharsets.UTF_8);
+        terminal.setSize(new Size(80, 25));
+        JLineConsole console = new JLineConsole(
+            new TestLineReader(terminal, "JLine", null, new EofPipedInputStream())
+        );
+
+        //
+        // a couple of tasks in background, which are displayed in the status
+        //
+        console.on(new InterpreterEvent(BUSY, new CompletableFuture<Object>()));
+        console.on(new InterpreterEvent(BUSY, new CompletableFuture<Object>()));
+
+        InterpreterEvent busy = new InterpreterEvent(BUSY, CompletableFuture.completedFuture(null)),
+                         done = new InterpreterEvent(DONE, busy.data);
+        out.reset();
+        for (int i=0; i<RUNS; ++i) {
+            console.on(busy); console.on(done);
+        }
+
+        PerfBaseline.check("status.flushes.per.event", (double)out.flushes / (2*RUNS));
+        PerfBaseline.check("status.bytes.per.event", (double)out.bytes / (2*RUNS));
+    }
+
+    @Test
+    public void tab_completion_latency() throws Exception {
+        final int NAMES = 10000, SAMPLES = 200;
+
+        Interpreter bsh = new Interpreter();
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<NAMES; ++i) {
+            sb.append("variable").append(i).append(" = ").append(i).append(";\n");
+        }
+        bsh.eval(sb.toString());
+
+        TestBuffer input = new TestBuffer();
+        for (int i=0; i<WARMUP/10 + SAMPLES; ++i) {
+            input.append("variable123").tab().enter();
+        }
+        TestLineReader reader = new JLineHelper().givenReaderWith(new ByteArrayInputStream(input.getBytes()));
+        reader.setCompleter(new BshCompleter(bsh));
+
+        double[] samples = new double[SAMPLES];
+        for (int i=0; i<WARMUP/10; ++i) {
+            then(reader.readLine()).startsWith("variable123");
+        }
+        for (int i=0; i<SAMPLES; ++i) {
+            long start = System.nanoTime();
+            reader.readLine();
+            samples[i] = (System.nanoTime() - start) / 1000000.0;
+        }
+        try {
+            reader.readLine(); // consume the EOF
+        } catch (EndOfFileException x) {
+            // expected
+        }
+
+        PerfBaseline.report("completion.latency.p50.ms", PerfBaseline.percentile(samples, 50));
+        PerfBaseline.report("completion.latency.p90.ms", PerfBaseline.percentile(samples, 90));
+        PerfBaseline.report("completion.latency.p99.ms", PerfBaseline.percentile(samples, 99));
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * @return the average bytes allocated by the current thread to evaluate
+     *         the given statement, after a warm up
+     */
+    private double allocated(Interpreter bsh, String statement) throws Exception {
+        for (int i=0; i<WARMUP; ++i) {
+            bsh.eval(statement);
+        }
+        long allocated = ExecutionStats.currentThreadAllocatedBytes();
+        for (int i=0; i<RUNS; ++i) {
+            bsh.eval(statement);
+        }
+        return (double)(ExecutionStats.currentThreadAllocatedBytes() - allocated) / RUNS;
+    }
+
+    // ----------------------------------------------------- CountingOutputStream
+
+    private static class CountingOutputStream extends OutputStream {
+        long bytes = 0, flushes = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            ++bytes;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ++flushes;
+        }
+
+        void reset() {
+            bytes = flushes = 0;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.perf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * The performance baseline the performance tests compare their measures
+ * against: a properties file with the expected value of each metric and,
+ * optionally, the tolerated regression as a fraction of it:
+ * <pre>
+ * status.bytes.per.event=430
+ * status.bytes.per.event.tolerance=0.1
+ * </pre>
+ * All metrics are "the lower the better"; a measure fails if it is greater
+ * than the baseline value increased by its tolerance (DEFAULT_TOLERANCE if
+ * not given). Metrics without a baseline value are just recorded.
+ * <p>
+ * Elapsed times depend too much on the machine to be checked against a
+ * baseline recorded elsewhere; they are given to report(), which records
+ * them without ever failing nor updating the baseline.
+ * <p>
+ * All measures are written in MEASURED, so that the baseline can be updated by
+ * hand; alternatively, running the tests with -Dperf.baseline.update=true
+ * updates BASELINE with the new measures instead of comparing them.
+ */
+public class PerfBaseline {
+
+    public static final String BASELINE = "src/test/perf/baseline.properties";
+    public static final String MEASURED = "target/perf/measured.properties";
+    public static final String UPDATE   = "perf.baseline.update";
+
+    public static final double DEFAULT_TOLERANCE = 0.25;
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * Records the given measure and checks it against the baseline.
+     *
+     * @param metric the metric name - NOT NULL
+     * @param value the measured value
+     *
+     * @throws IOException in case of errors reading or writing the baseline
+     *         or the measures
+     */
+    public static void check(String metric, double value) throws IOException {
+        System.out.println(String.format(Locale.ROOT, "perf: %s=%.3f", metric, value));
+        synchronized (LOCK) {
+            store(MEASURED, metric, value);
+            if (Boolean.getBoolean(UPDATE)) {
+                store(BASELINE, metric, value);
+                return;
+            }
+        }
+
+        Properties baseline = load(BASELINE);
+        String expected = baseline.getProperty(metric);
+        if (expected == null) {
+            System.out.println("perf: no baseline for " + metric + ", not checked");
+            return;
+        }
+        double tolerance = Double.parseDouble(
+            baseline.getProperty(metric + ".tolerance", String.valueOf(DEFAULT_TOLERANCE))
+        );
+        double max = Double.parseDouble(expected) * (1.0 + tolerance);
+
+        then(value).as(
+            "%s regressed: %.3f against a baseline of %s (tolerance %.0f%%)",
+            metric, value, expected, tolerance * 100
+        ).isLessThanOrEqualTo(max);
+    }
+
+    /**
+     * Records the given measure without checking it, e.g. for elapsed times.
+     *
+     * @param metric the metric name - NOT NULL
+     * @param value the measured value
+     *
+     * @throws IOException in case of errors writing the measures
+     */
+    public static void report(String metric, double value) throws IOException {
+        System.out.println(String.format(Locale.ROOT, "perf: %s=%.3f (not checked)", metric, value));
+        synchronized (LOCK) {
+            store(MEASURED, metric, value);
+        }
+    }
+
+    /**
+     * @param samples the measured samples - NOT NULL, NOT EMPTY; it is sorted
+     * @param p the percentile (0-100)
+     *
+     * @return the p-th percentile of samples (nearest rank)
+     */
+    public static double percentile(double[] samples, double p) {
+        Arrays.sort(samples);
+        int rank = (int)Math.ceil(p / 100.0 * samples.length);
+        return samples[Math.max(0, Math.min(samples.length, rank) - 1)];
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static Properties load(String file) throws IOException {
+        Properties p = new Properties();
+        File f = new File(file);
+        if (f.exists()) {
+            try (InputStream in = new FileInputStream(f)) {
+                p.load(in);
+            }
+        }
+        return p;
+    }
+
+    private static void store(String file, String metric, double value) throws IOException {
+        Properties p = load(file);
+        p.setProperty(metric, String.format(Locale.ROOT, "%.3f", value));
+        File f = new File(file);
+        f.getAbsoluteFile().getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(f)) {
+            p.store(out, "BshConsole performance baseline, see " + PerfBaseline.class.getName());
+        }
+    }
+}
@@ -5,8 +5,14 @@
  */
 package ste.bshell.ui;
 
+import bsh.BshConsoleInterpreter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -21,9 +27,17 @@ public class BugFreeBshConsoleCLI extends BugFreeCLI {
     @Rule
     public final TemporaryFolder ADIR = new TemporaryFolder();
 
+    private InputStream stdin;
+
     @Before
     public void before() throws Exception {
         STDOUT.clearLog();
+        stdin = System.in;
+    }
+
+    @After
+    public void after() throws Exception {
+        System.setIn(stdin);
     }
 
     @Test(timeout = 500)
@@ -39,6 +53,12 @@ public class BugFreeBshConsoleCLI extends BugFreeCLI {
         thenSTDOUTContains("Usage: ste.beanshell.ui.BshConsoleCLI");
     }
 
+    @Test(timeout = 500)
+    public void invalid_arguments() throws Exception {
+        then(new BshConsoleCLI().launch("--nooption")).isEqualTo(BshConsoleCLI.STATUS_INVALID_ARGUMENTS);
+        thenSTDOUTContains("Invalid arguments:");
+    }
+
     @Test(timeout = 5000)
     public void read_init_script() throws Exception {
         new BshConsoleCLI().launch("--welcome", "--init", "src/test/scripts/init1.bsh");
@@ -51,10 +71,27 @@ public class BugFreeBshConsoleCLI extends BugFreeCLI {
         thenSTDOUTContains("Welcome to BshConsole v2");
     }
 
+    @Test(timeout = 5000)
+    public void profile_options() throws Exception {
+        final File PROFILE = new File(ADIR.getRoot(), "busy.profile");
+
+        then(new BshConsoleCLI().launch(
+            "--profile", PROFILE.getAbsolutePath(), "--profile-interval", "1",
+            "--script", "src/test/scripts/busy.bsh"
+        )).isZero();
+
+        //
+        // collapsed stacks with the scripted method where the time was spent
+        //
+        then(PROFILE).exists();
+        then(new String(Files.readAllBytes(PROFILE.toPath()), StandardCharsets.UTF_8))
+            .containsPattern("(?m)^.*;busy[^;]* \\d+$");
+    }
+
     @Test(timeout = 1000)
     public void error_if_init_script_not_found() throws Exception {
         final String FILE = "noscript";
-        new BshConsoleCLI().launch("--init", FILE);
+        then(new BshConsoleCLI().launch("--init", FILE)).isEqualTo(1);
 
         then(STDOUT.getLog()).contains(
             "error: invalid initialization script " +
@@ -62,8 +99,140 @@ public class BugFreeBshConsoleCLI extends BugFreeCLI {
         );
     }
 
+    @Test(timeout = 5000)
+    public void run_script() throws Exception {
+        then(new BshConsoleCLI().launch("--script", "src/test/scripts/batch.bsh")).isZero();
+
+        then(STDOUT.getLog()).isEqualTo("line 0\nline 1\nline 2\ndirect\n");
+    }
+
+    @Test(timeout = 5000)
+    public void profile_script() throws Exception {
+        final File PROFILE = new File(ADIR.getRoot(), "profile.txt");
+
+        then(new BshConsoleCLI().launch(
+            "--profile", PROFILE.getAbsolutePath(), "--script", "src/test/scripts/batch.bsh"
+        )).isZero();
+
+        then(STDOUT.getLog()).isEqualTo("line 0\nline 1\nline 2\ndirect\n");
+        then(PROFILE).exists();
+    }
+
+    @Test(timeout = 5000)
+    public void run_script_from_stdin() throws Exception {
+        final InputStream STDIN = System.in;
+        System.setIn(new ByteArrayInputStream("print(\"from stdin\");".getBytes()));
+        try {
+            then(new BshConsoleCLI().launch("--script", "-")).isZero();
+        } finally {
+            System.setIn(STDIN);
+        }
+
+        then(STDOUT.getLog()).isEqualTo("from stdin\n");
+    }
+
+    @Test(timeout = 5000)
+    public void script_stops_at_first_error() throws Exception {
+        then(new BshConsoleCLI().launch("--script", "src/test/scripts/batch_error.bsh")).isEqualTo(1);
+
+        then(STDOUT.getLog()).isEqualTo("before\n");
+        then(STDERR.getLog()).contains("Evaluation Error:").contains("undefined");
+    }
+
+    @Test(timeout = 5000)
+    public void error_if_script_not_found() throws Exception {
+        then(new BshConsoleCLI().launch("--script", "noscript.bsh")).isEqualTo(1);
+
+        then(STDERR.getLog()).contains("error: unable to read script noscript.bsh");
+    }
+
+    @Test(timeout = 5000)
+    public void run_stdin_as_script_if_not_a_terminal() throws Exception {
+        final InputStream STDIN = System.in;
+        System.setIn(new ByteArrayInputStream("a = 20;\nprint(a*2);\n".getBytes()));
+        try {
+            then(new BshConsoleCLI() {
+                @Override
+                protected boolean isTerminal() {
+                    return false;
+                }
+            }.launch()).isZero();
+        } finally {
+            System.setIn(STDIN);
+        }
+
+        then(STDOUT.getLog()).isEqualTo("40\n"); // no banner, no status bar
+    }
+
+    @Test(timeout = 5000)
+    public void eval_and_print_result() throws Exception {
+        then(new BshConsoleCLI().launch("--eval", "a = 20; a + 22")).isZero();
+        then(STDOUT.getLog()).isEqualTo("42\n"); // no banner
+
+        STDOUT.clearLog();
+        then(new BshConsoleCLI().launch("--eval", "print(\"hello\");")).isZero();
+        then(STDOUT.getLog()).isEqualTo("hello\n"); // void is not printed
+
+        STDOUT.clearLog();
+        then(new BshConsoleCLI().launch("--eval", "a = 20; a + 22 // the answer")).isZero();
+        then(STDOUT.getLog()).isEqualTo("42\n"); // trailing comment
+    }
+
+    @Test(timeout = 5000)
+    public void eval_error() throws Exception {
+        then(new BshConsoleCLI().launch("--eval", "undefined();")).isEqualTo(1);
+        then(STDERR.getLog()).contains("Evaluation Error:");
+    }
+
+    @Test(timeout = 500)
+    public void eval_and_script_are_exclusive() throws Exception {
+        then(new BshConsoleCLI().launch("--eval", "1", "--script", "-"))
+            .isEqualTo(BshConsoleCLI.STATUS_INVALID_ARGUMENTS);
+        then(STDOUT.getLog()).contains("Invalid arguments: --eval and --script can not be used together");
+    }
+
+    @Test(timeout = 5000)
+    public void interactive_option() throws Exception {
+        //
+        // not a terminal, but --interactive
+        //
+        then(givenInput("print(40+2);\n", false).launch("--interactive")).isZero();
+        then(STDOUT.getLog()).isEqualTo("console\n");
+    }
+
+    @Test(timeout = 5000)
+    public void console_if_input_is_a_terminal() throws Exception {
+        then(givenInput("print(40+2);\n", true).launch()).isZero();
+        then(STDOUT.getLog()).isEqualTo("console\n");
+
+        STDOUT.clearLog();
+        then(givenInput("print(40+2);\n", false).launch()).isZero();
+        then(STDOUT.getLog()).isEqualTo("42\n");
+    }
+
     // --------------------------------------------------------- private methods
 
+    /**
+     * @return a CLI that reads the given standard input and tells whether it
+     *         is a terminal as given; starting the console just prints
+     *         "console"
+     */
+    private BshConsoleCLI givenInput(final String input, final boolean terminal) {
+        System.setIn(new ByteArrayInputStream(input.getBytes()));
+        return new BshConsoleCLI() {
+            @Override
+            protected boolean isTerminal() {
+                return terminal;
+            }
+
+            @Override
+            protected int console(BshConsoleInterpreter bsh, BshConsoleOptions options) {
+                System.out.println("console");
+                return 0;
+            }
+        };
+    }
+
     private void thenSTDOUTContains(String s) throws InterruptedException {
         //
         // waiting for the thread to complete...
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.bshell.jfr;
+
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeRecorder {
+
+    @Rule
+    public final TemporaryFolder ADIR = new TemporaryFolder();
+
+    @Before
+    public void before() {
+        assumeTrue(Recorder.isAvailable());
+    }
+
+    @Test
+    public void record_console_events() throws Exception {
+        final Recorder R = Recorder.get();
+
+        Path dump = ADIR.newFile("console.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable("ste.bshell.Statement");
+            recording.enable("ste.bshell.Source");
+            recording.enable("ste.bshell.Completion");
+            recording.enable("ste.bshell.Status");
+            recording.start();
+
+            R.endStatement(R.beginStatement(), "a = 1;", 1234, "SUCCESS");
+            R.endSource(R.beginSource(), "/tmp/script.bsh", 10);
+            R.endCompletion(R.beginCompletion(), "Sys", 2);
+            R.endStatus(R.beginStatus(), "BUSY", 1);
+            R.endStatement(null, "never begun", 0, "CANCELLED");
+
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        then(events).hasSize(4);
+
+        RecordedEvent e = find(events, "ste.bshell.Statement");
+        then(e.getInt("sourceHash")).isEqualTo("a = 1;".hashCode());
+        then(e.getLong("job")).isEqualTo(1234);
+        then(e.getString("outcome")).isEqualTo("SUCCESS");
+
+        e = find(events, "ste.bshell.Source");
+        then(e.getString("file")).isEqualTo("/tmp/script.bsh");
+        then(e.getLong("statements")).isEqualTo(10);
+
+        e = find(events, "ste.bshell.Completion");
+        then(e.getString("line")).isEqualTo("Sys");
+        then(e.getInt("candidates")).isEqualTo(2);
+
+        e = find(events, "ste.bshell.Status");
+        then(e.getString("message")).isEqualTo("BUSY");
+        then(e.getInt("tasks")).isEqualTo(1);
+    }
+
+    @Test
+    public void nothing_recorded_if_not_recording() throws Exception {
+        final Recorder R = Recorder.get();
+
+        //
+        // just make sure nothing breaks
+        //
+        R.endStatement(R.beginStatement(), null, 0, "FAILURE");
+        R.endCompletion(R.beginCompletion(), "", 0);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private RecordedEvent find(List<RecordedEvent> events, String name) {
+        for (RecordedEvent e: events) {
+            if (name.equals(e.getEventType().getName())) {
+                return e;
+            }
+        }
+        throw new AssertionError(name + " not found");
+    }
+}